@@ -3,7 +3,6 @@ package ir.programmerplus.realtime_example;
 import android.Manifest;
 import android.annotation.SuppressLint;
 import android.os.Bundle;
-import android.os.CountDownTimer;
 
 import java.text.SimpleDateFormat;
 import java.util.Locale;
@@ -11,12 +10,12 @@ import java.util.Locale;
 import androidx.appcompat.app.AppCompatActivity;
 import androidx.core.app.ActivityCompat;
 import ir.programmerplus.realtime.RealTime;
+import ir.programmerplus.realtime.RealTimeTicker;
 import ir.programmerplus.realtime_example.databinding.ActivityMainBinding;
 
 public class MainActivity extends AppCompatActivity {
 
     private ActivityMainBinding binding;
-    private CountDownTimer countDownTimer;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -34,28 +33,20 @@ public class MainActivity extends AppCompatActivity {
     }
 
     /**
-     * This function will create a count down timer to show current datetime based on realtime reliable time
+     * This function subscribes to the shared ticker to show current datetime based on realtime reliable time.
+     * The ticker flips the text exactly on every second and stops while the activity is not visible.
      */
     @SuppressLint("SetTextI18n")
     private void createDateTimer() {
         SimpleDateFormat simpleDateFormat = new SimpleDateFormat("EEE, dd MMMM yyyy HH:mm:ss z", Locale.ENGLISH);
 
-        countDownTimer = new CountDownTimer(Long.MAX_VALUE, 1000) {
-            @Override
-            public void onTick(long millisUntilFinished) {
-
-                if (RealTime.isInitialized()) {
-                    binding.txtDateTime.setText(simpleDateFormat.format(RealTime.now()));
-                } else {
-                    binding.txtDateTime.setText("RealTime is not initialized yet.");
-                }
-            }
-
-            @Override
-            public void onFinish() {
+        RealTimeTicker.getDefault().subscribe(this, timeMillis -> {
+            if (timeMillis != RealTime.NOT_INITIALIZED) {
+                binding.txtDateTime.setText(simpleDateFormat.format(timeMillis));
+            } else {
+                binding.txtDateTime.setText("RealTime is not initialized yet.");
             }
-        };
-        countDownTimer.start();
+        });
     }
 
     /**
@@ -68,14 +59,4 @@ public class MainActivity extends AppCompatActivity {
                 Manifest.permission.ACCESS_COARSE_LOCATION
         }, 0);
     }
-
-    @Override
-    protected void onDestroy() {
-        super.onDestroy();
-
-        // stop counter
-        if (countDownTimer != null) {
-            countDownTimer.cancel();
-        }
-    }
 }
\ No newline at end of file
@@ -0,0 +1,46 @@
+package ir.programmerplus.realtime.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Locale;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+
+import ir.programmerplus.realtime.network.HttpDateParser;
+
+/**
+ * Cost of parsing the Date header of a time server response. SimpleDateFormat is the parser
+ * used before HttpDateParser and is kept as reference.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class HttpDateParserBenchmark {
+
+    private final String dateHeader = "Sat, 17 Oct 2026 15:43:11 GMT";
+
+    private final SimpleDateFormat simpleDateFormat = createSimpleDateFormat();
+
+    private static SimpleDateFormat createSimpleDateFormat() {
+        SimpleDateFormat format = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss zzz", Locale.US);
+        format.setTimeZone(TimeZone.getTimeZone("GMT"));
+        return format;
+    }
+
+    @Benchmark
+    public long httpDateParser() {
+        return HttpDateParser.parse(dateHeader);
+    }
+
+    @Benchmark
+    public long simpleDateFormat() throws ParseException {
+        return simpleDateFormat.parse(dateHeader).getTime();
+    }
+}
@@ -0,0 +1,44 @@
+package ir.programmerplus.realtime.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+
+import java.util.concurrent.TimeUnit;
+
+import ir.programmerplus.realtime.clock.MonotonicClock;
+import ir.programmerplus.realtime.metrics.RealTimeMetrics;
+import ir.programmerplus.realtime.models.TimeSource;
+
+/**
+ * Cost of recording request metrics on the request path, with and without contention. Recording
+ * must not allocate.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class MetricsBenchmark {
+
+    private static final String HOST = "time.google.com";
+
+    private final RealTimeMetrics metrics = new RealTimeMetrics(MonotonicClock.SYSTEM);
+
+    private long latency;
+
+    @Benchmark
+    public void recordSuccess() {
+        // spread latencies over many buckets
+        latency = (latency + 37) & 0xFFFF;
+        metrics.recordSuccess(TimeSource.NTP_SERVER, HOST, latency);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void recordSuccessContended() {
+        metrics.recordSuccess(TimeSource.NTP_SERVER, HOST, 42);
+    }
+}
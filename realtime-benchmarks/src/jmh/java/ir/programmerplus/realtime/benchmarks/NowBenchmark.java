@@ -0,0 +1,89 @@
+package ir.programmerplus.realtime.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+import io.reactivex.schedulers.Schedulers;
+import ir.programmerplus.realtime.RealTimeEngine;
+import ir.programmerplus.realtime.clock.MonotonicClock;
+import ir.programmerplus.realtime.models.TimeSnapshot;
+import ir.programmerplus.realtime.network.ConnectivitySignal;
+import ir.programmerplus.realtime.utils.LogUtils;
+import ir.programmerplus.realtime.utils.SnapshotStorage;
+
+/**
+ * Throughput of reading the current time from an initialized engine, by a single thread and by
+ * several threads at once. Reads only load the published snapshot, so they should scale with
+ * the number of threads and allocate nothing.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class NowBenchmark {
+
+    private RealTimeEngine engine;
+
+    @Setup
+    public void setup() throws IOException {
+        LogUtils.setLoggingEnabled(false);
+
+        long deviceUptime = MonotonicClock.SYSTEM.elapsedRealtime();
+        long time = System.currentTimeMillis();
+        TimeSnapshot snapshot = new TimeSnapshot(time, time - deviceUptime, deviceUptime, 1e-6, 10);
+
+        File dataDirectory = Files.createTempDirectory("realtime-benchmark").toFile();
+
+        engine = new RealTimeEngine(MonotonicClock.SYSTEM, new SnapshotStorage() {
+            @Override
+            public TimeSnapshot read() {
+                return snapshot;
+            }
+
+            @Override
+            public void write(TimeSnapshot snapshot) {
+            }
+        }, ConnectivitySignal.ALWAYS_CONNECTED, Schedulers.trampoline(), dataDirectory);
+
+        if (!engine.isInitialized()) {
+            throw new IllegalStateException("Engine is not initialized.");
+        }
+    }
+
+    @Benchmark
+    public long nowMillis() {
+        return engine.nowMillis();
+    }
+
+    @Benchmark
+    public long nowNanos() {
+        return engine.nowNanos();
+    }
+
+    @Benchmark
+    public boolean isInitialized() {
+        return engine.isInitialized();
+    }
+
+    @Benchmark
+    @Threads(4)
+    public long nowMillisContended() {
+        return engine.nowMillis();
+    }
+
+    @Benchmark
+    @Threads(4)
+    public boolean isInitializedContended() {
+        return engine.isInitialized();
+    }
+}
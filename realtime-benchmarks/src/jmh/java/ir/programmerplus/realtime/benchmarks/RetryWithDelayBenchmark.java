@@ -0,0 +1,51 @@
+package ir.programmerplus.realtime.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+import ir.programmerplus.realtime.network.RetryDelayStrategy;
+import ir.programmerplus.realtime.network.RetryWithDelay;
+
+/**
+ * Cost of computing the next retry delay with each strategy, over the first retries where the
+ * delay still grows and the later ones where it is capped.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class RetryWithDelayBenchmark {
+
+    @Param({"CONSTANT_DELAY", "RETRY_COUNT", "CONSTANT_DELAY_TIMES_RETRY_COUNT",
+            "CONSTANT_DELAY_RAISED_TO_RETRY_COUNT", "FULL_JITTER", "DECORRELATED_JITTER"})
+    public RetryDelayStrategy strategy;
+
+    @Param({"3", "70"})
+    public int retryCount;
+
+    private RetryWithDelay retryWithDelay;
+    private long previousDelay;
+
+    @Setup
+    public void setup() {
+        retryWithDelay = RetryWithDelay.builder()
+                .retryDelayStrategy(strategy)
+                .maxRetries(Integer.MAX_VALUE)
+                .retryDelaySeconds(2)
+                .mexDelaySeconds(30)
+                .build();
+    }
+
+    @Benchmark
+    public long delayMillis() {
+        previousDelay = retryWithDelay.delayMillis(retryCount, previousDelay);
+        return previousDelay;
+    }
+}
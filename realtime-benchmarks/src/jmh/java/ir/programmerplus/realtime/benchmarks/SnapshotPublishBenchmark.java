@@ -0,0 +1,96 @@
+package ir.programmerplus.realtime.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+import ir.programmerplus.realtime.clock.DriftEstimator;
+import ir.programmerplus.realtime.models.TimeSnapshot;
+import ir.programmerplus.realtime.utils.LogUtils;
+import ir.programmerplus.realtime.utils.SnapshotStore;
+
+/**
+ * Cost of the steps the engine takes to publish a new time when a sync completes: updating the
+ * drift estimate with the new anchor, publishing the snapshot to readers, and writing it to disk
+ * which the engine does on its cache thread.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class SnapshotPublishBenchmark {
+
+    // syncs are spread like the resyncs of a device which drifts 5 ppm
+    private static final long SYNC_INTERVAL = 10 * 60 * 1000;
+    private static final double DRIFT = 5e-6;
+    private static final long BOOT_TIME = 1_790_000_000_000L;
+
+    private File directory;
+    private DriftEstimator driftEstimator;
+    private SnapshotStore snapshotStore;
+    private long deviceUptime;
+
+    private volatile TimeSnapshot snapshot;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        LogUtils.setLoggingEnabled(false);
+
+        directory = Files.createTempDirectory("realtime-benchmark").toFile();
+        driftEstimator = new DriftEstimator(new File(directory, "RealTimeDrift.bin"));
+        snapshotStore = new SnapshotStore(new File(directory, "RealTimeSnapshot.bin"));
+
+        // fill the anchor history, so every publish runs a full estimate
+        for (int i = 0; i < 32; i++) {
+            snapshot = nextAnchor();
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                //noinspection ResultOfMethodCallIgnored
+                file.delete();
+            }
+        }
+
+        //noinspection ResultOfMethodCallIgnored
+        directory.delete();
+    }
+
+    private TimeSnapshot nextAnchor() {
+        deviceUptime += SYNC_INTERVAL;
+        long time = BOOT_TIME + deviceUptime + (long) (deviceUptime * DRIFT);
+
+        driftEstimator.addAnchor(deviceUptime, time, 20);
+
+        return new TimeSnapshot(time, time - deviceUptime, deviceUptime, driftEstimator.getCorrection(), 20);
+    }
+
+    @Benchmark
+    public TimeSnapshot publish() {
+        TimeSnapshot timeSnapshot = nextAnchor();
+        snapshot = timeSnapshot;
+        return timeSnapshot;
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public TimeSnapshot write() throws IOException {
+        TimeSnapshot timeSnapshot = snapshot;
+        snapshotStore.write(timeSnapshot);
+        return timeSnapshot;
+    }
+}
@@ -0,0 +1,59 @@
+package ir.programmerplus.realtime.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import ir.programmerplus.realtime.network.SntpPacket;
+
+/**
+ * Cost of encoding an SNTP request and decoding a response in the preallocated direct buffers
+ * SntpClient uses. Neither should allocate.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class SntpPacketBenchmark {
+
+    private static final long NONCE = 0x1234_5678_9ABC_DEF0L;
+
+    private final ByteBuffer requestBuffer = ByteBuffer.allocateDirect(SntpPacket.PACKET_SIZE);
+    private final ByteBuffer responseBuffer = ByteBuffer.allocateDirect(SntpPacket.PACKET_SIZE);
+
+    @Setup
+    public void setup() {
+        long now = System.currentTimeMillis();
+
+        // a server response: leap indicator 0, version 3, mode 4 (server), stratum 1
+        responseBuffer.put(0, (byte) 0x1C);
+        responseBuffer.put(1, (byte) 1);
+        responseBuffer.putLong(24, NONCE);
+        responseBuffer.putLong(32, SntpPacket.toNtpTimestamp(now + 10));
+        responseBuffer.putLong(40, SntpPacket.toNtpTimestamp(now + 11));
+    }
+
+    @Benchmark
+    public ByteBuffer encodeRequest() {
+        SntpPacket.encodeRequest(requestBuffer, NONCE);
+        return requestBuffer;
+    }
+
+    @Benchmark
+    public long decodeResponse() {
+        if (!SntpPacket.isValidResponse(responseBuffer) || SntpPacket.getOriginateTimestamp(responseBuffer) != NONCE) {
+            return 0;
+        }
+
+        long receiveTime = SntpPacket.toMillis(SntpPacket.getReceiveTimestamp(responseBuffer));
+        long transmitTime = SntpPacket.toMillis(SntpPacket.getTransmitTimestamp(responseBuffer));
+
+        return (receiveTime + transmitTime) / 2;
+    }
+}
@@ -0,0 +1,130 @@
+package ir.programmerplus.realtime.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import io.reactivex.schedulers.Schedulers;
+import ir.programmerplus.realtime.RealTimeEngine;
+import ir.programmerplus.realtime.clock.DriftEstimator;
+import ir.programmerplus.realtime.clock.MonotonicClock;
+import ir.programmerplus.realtime.models.TimeSnapshot;
+import ir.programmerplus.realtime.network.ConnectivitySignal;
+import ir.programmerplus.realtime.utils.LogUtils;
+import ir.programmerplus.realtime.utils.SnapshotStorage;
+import ir.programmerplus.realtime.utils.SnapshotStore;
+
+/**
+ * Time the calling thread, which is the main thread on Android, spends creating an engine and
+ * getting it ready to answer whether it is initialized. The eager variant reads the snapshot and
+ * the drift history on the calling thread, as RealTime used to do in its constructor, while the
+ * preloaded one hands them to the cache thread. The difference is the main thread time saved.
+ * <p>
+ * storageDelayMillis adds a delay to every snapshot read, like a cold read from slow flash.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class StartupBenchmark {
+
+    private static final long SYNC_INTERVAL = 10 * 60 * 1000;
+
+    @Param({"0", "2"})
+    public long storageDelayMillis;
+
+    private File dataDirectory;
+    private SnapshotStorage snapshotStorage;
+    private CountDownLatch preloaded;
+    private RealTimeEngine engine;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        LogUtils.setLoggingEnabled(false);
+
+        dataDirectory = Files.createTempDirectory("realtime-benchmark").toFile();
+
+        // a full drift history, as the engine would have after many syncs
+        long deviceUptime = MonotonicClock.SYSTEM.elapsedRealtime();
+        long time = System.currentTimeMillis();
+        DriftEstimator driftEstimator = new DriftEstimator(new File(dataDirectory, "RealTimeDrift.bin"));
+        for (int i = 32; i > 0; i--) {
+            driftEstimator.addAnchor(deviceUptime - i * SYNC_INTERVAL, time - i * SYNC_INTERVAL, 10);
+        }
+        driftEstimator.save();
+
+        SnapshotStore snapshotStore = new SnapshotStore(new File(dataDirectory, "RealTimeSnapshot.bin"));
+        snapshotStore.write(new TimeSnapshot(time, time - deviceUptime, deviceUptime, 0, 10));
+
+        snapshotStorage = new SnapshotStorage() {
+            @Override
+            public TimeSnapshot read() {
+                if (storageDelayMillis > 0) {
+                    try {
+                        Thread.sleep(storageDelayMillis);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+
+                return snapshotStore.read();
+            }
+
+            @Override
+            public void write(TimeSnapshot snapshot) throws IOException {
+                snapshotStore.write(snapshot);
+            }
+        };
+    }
+
+    @TearDown(Level.Invocation)
+    public void awaitPreload() throws InterruptedException {
+        // background loading must not overlap the next invocation
+        if (preloaded != null) {
+            preloaded.await();
+            preloaded = null;
+        }
+
+        // the cache thread of every engine is stopped, so idle threads don't pile up
+        if (engine != null) {
+            engine.close();
+            engine = null;
+        }
+    }
+
+    private RealTimeEngine createEngine() {
+        return engine = new RealTimeEngine(MonotonicClock.SYSTEM, snapshotStorage, ConnectivitySignal.ALWAYS_CONNECTED,
+                Schedulers.trampoline(), dataDirectory);
+    }
+
+    @Benchmark
+    public boolean eager() {
+        RealTimeEngine engine = createEngine();
+        engine.getErrorBound();
+
+        return engine.isInitialized();
+    }
+
+    @Benchmark
+    public RealTimeEngine preloaded() {
+        RealTimeEngine engine = createEngine();
+
+        CountDownLatch latch = new CountDownLatch(1);
+        preloaded = latch;
+        engine.preload(latch::countDown);
+
+        return engine;
+    }
+}
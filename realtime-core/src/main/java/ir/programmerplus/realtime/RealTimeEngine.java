@@ -0,0 +1,1582 @@
+package ir.programmerplus.realtime;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.net.UnknownHostException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import androidx.annotation.NonNull;
+import io.reactivex.BackpressureOverflowStrategy;
+import io.reactivex.Flowable;
+import io.reactivex.Maybe;
+import io.reactivex.Scheduler;
+import io.reactivex.Single;
+import io.reactivex.SingleEmitter;
+import io.reactivex.disposables.CompositeDisposable;
+import io.reactivex.disposables.Disposable;
+import io.reactivex.processors.BehaviorProcessor;
+import io.reactivex.processors.FlowableProcessor;
+import io.reactivex.processors.PublishProcessor;
+import io.reactivex.schedulers.Schedulers;
+import io.reactivex.subjects.SingleSubject;
+import ir.programmerplus.realtime.clock.DriftEstimator;
+import ir.programmerplus.realtime.clock.MonotonicClock;
+import ir.programmerplus.realtime.clock.ResyncScheduler;
+import ir.programmerplus.realtime.metrics.RealTimeMetrics;
+import ir.programmerplus.realtime.models.DriftEstimate;
+import ir.programmerplus.realtime.models.SyncEvent;
+import ir.programmerplus.realtime.models.TimeSample;
+import ir.programmerplus.realtime.models.TimeSnapshot;
+import ir.programmerplus.realtime.models.TimeSource;
+import ir.programmerplus.realtime.network.CircuitBreaker;
+import ir.programmerplus.realtime.network.ConnectivitySignal;
+import ir.programmerplus.realtime.network.DnsCache;
+import ir.programmerplus.realtime.network.HostHealth;
+import ir.programmerplus.realtime.network.HttpDateParser;
+import ir.programmerplus.realtime.network.RecentLatencies;
+import ir.programmerplus.realtime.network.RetryBudget;
+import ir.programmerplus.realtime.network.RetryDelayStrategy;
+import ir.programmerplus.realtime.network.RetryWithDelay;
+import ir.programmerplus.realtime.network.SntpClient;
+import ir.programmerplus.realtime.network.SntpPacket;
+import ir.programmerplus.realtime.selection.Selection;
+import ir.programmerplus.realtime.selection.TimeSampleSelector;
+import ir.programmerplus.realtime.utils.LazyFile;
+import ir.programmerplus.realtime.utils.LogUtils;
+import ir.programmerplus.realtime.utils.SnapshotStorage;
+
+/**
+ * RealTimeEngine syncs the time with NTP servers and time servers, selects the time most of them
+ * agree on and keeps it anchored to a monotonic clock. It has no platform dependencies: the
+ * clock, snapshot storage, connectivity signal and the scheduler on which all state changes
+ * happen are passed in, so the same engine runs on Android, on plain JVMs and in tests.
+ * <p>
+ * Other time sources, like GPS, can add their samples using {@link #addSample(TimeSample)}.
+ * <p>
+ * The engine holds a socket and a thread for NTP requests once it has synced, so an engine which
+ * is not used anymore should be closed.
+ */
+public class RealTimeEngine implements Closeable {
+
+    private static final String TAG = RealTimeEngine.class.getSimpleName();
+
+    /**
+     * The value returned by {@link #tryNowMillis()} when the engine is not initialized
+     */
+    public static final long NOT_INITIALIZED = Long.MIN_VALUE;
+
+    /**
+     * Listener of sync events. It is called on the engine scheduler.
+     */
+    public interface Listener {
+        /**
+         * Called when a sync starts, so sources outside the engine can be requested as well
+         */
+        void onSyncStarted();
+
+        /**
+         * Called when a sync trigger joins the running sync while sources outside the engine are
+         * still expected, so the ones which are not requested anymore can be requested again
+         */
+        default void onSyncJoined() {
+        }
+
+        /**
+         * Called when a new time is selected and published
+         *
+         * @param sample the selected sample
+         */
+        void onTimeSet(TimeSample sample);
+    }
+
+    /**
+     * States of the sync session. There is at most one session at a time, and every sync
+     * trigger while it runs joins it.
+     */
+    public enum SyncState {
+        /**
+         * No sync is running
+         */
+        IDLE,
+        /**
+         * A sync is running and network providers wait for a connection. Sources outside the
+         * engine may already add samples.
+         */
+        WAITING_FOR_CONNECTIVITY,
+        /**
+         * A sync is running and network providers are requested
+         */
+        REQUESTING
+    }
+
+    private static final int DEFAULT_NTP_SAMPLE_COUNT = 4;
+    private static final long DEFAULT_SELECTION_WINDOW = 5 * 1000;
+    private static final long DEFAULT_NTP_TIMEOUT = 10 * 1000;
+    private static final long DEFAULT_ACCURACY_TARGET = 1000;
+    private static final long DEFAULT_MIN_RESYNC_INTERVAL = 60 * 1000;
+    private static final long DEFAULT_SNAPSHOT_LOAD_TIMEOUT = 500;
+
+    // a connection which comes back after a loss has to be stable this long before it is used
+    private static final long RECONNECT_DEBOUNCE = 2 * 1000;
+    // running requests survive connection losses shorter than this
+    private static final long DISCONNECT_GRACE_PERIOD = 15 * 1000;
+
+    // sample events kept for each slow subscriber, older ones are dropped
+    private static final int SAMPLE_EVENT_BUFFER_SIZE = 64;
+
+    // the cache thread stops when it has been idle for a while
+    private static final long CACHE_THREAD_KEEP_ALIVE = 10 * 1000;
+
+    // hedge delay is the 90th percentile of recent request latencies, within these limits
+    private static final double HEDGE_DELAY_PERCENTILE = 90;
+    private static final long DEFAULT_HEDGE_DELAY = 2 * 1000;
+    private static final long MIN_HEDGE_DELAY = 200;
+    private static final long MAX_HEDGE_DELAY = 10 * 1000;
+
+    // retries of one host before the next one is requested, and the pause before all hosts are tried again
+    private static final int MAX_RETRIES_PER_HOST = 3;
+    private static final long REQUEST_ROUND_DELAY = 30 * 1000;
+
+    // Date header has a resolution of one second
+    private static final long DATE_HEADER_RESOLUTION = 1000;
+    private static final long TIME_SERVER_TIMEOUT = 10 * 1000;
+
+    private static final String DNS_CACHE_FILE_NAME = "RealTimeDns.bin";
+    private static final String HOST_HEALTH_FILE_NAME = "RealTimeHostHealth.bin";
+    private static final String DRIFT_FILE_NAME = "RealTimeDrift.bin";
+
+    private long minResyncInterval = DEFAULT_MIN_RESYNC_INTERVAL;
+    private long accuracyTarget = DEFAULT_ACCURACY_TARGET;
+    private int ntpSampleCount = DEFAULT_NTP_SAMPLE_COUNT;
+    private long ntpTimeout = DEFAULT_NTP_TIMEOUT;
+    private int selectionQuorum = 0;
+    private int externalSourceCount = 0;
+    private long selectionWindow = DEFAULT_SELECTION_WINDOW;
+    private boolean hedgedRequestsEnabled = true;
+    private volatile long snapshotLoadTimeout = DEFAULT_SNAPSHOT_LOAD_TIMEOUT;
+
+    private final LinkedHashSet<String> ntpServerHosts = new LinkedHashSet<>();
+    private final LinkedHashSet<String> timeServerHosts = new LinkedHashSet<>();
+
+    private final MonotonicClock clock;
+    private final SnapshotStorage snapshotStorage;
+    private final ConnectivitySignal connectivitySignal;
+    private final Scheduler scheduler;
+
+    private final DnsCache dnsCache;
+    private final HostHealth hostHealth;
+    private final DriftEstimator driftEstimator;
+    private final RetryBudget retryBudget;
+    private final RealTimeMetrics metrics;
+    private final Map<String, CircuitBreaker> circuitBreakers = new HashMap<>();
+    private SntpClient sntpClient;
+
+    private Listener listener;
+
+    // the latest state event is replayed to new subscribers, samples only go to current ones
+    private final FlowableProcessor<SyncEvent> stateEvents = BehaviorProcessor.<SyncEvent>create().toSerialized();
+    private final FlowableProcessor<SyncEvent> sampleEvents = PublishProcessor.<SyncEvent>create().toSerialized();
+    private final Map<SyncEvent.Listener, Disposable> eventListeners = new HashMap<>();
+
+    private volatile SyncState syncState = SyncState.IDLE;
+    private volatile boolean closed;
+    private SingleSubject<TimeSample> session;
+    // external sources which haven't failed in the current session
+    private int activeExternalSources;
+    private boolean connectivityObserved;
+    private boolean connectionLost;
+    private boolean requestsActive;
+    private Disposable connectivityDisposable;
+    private final CompositeDisposable disposables = new CompositeDisposable();
+
+    private final List<TimeSample> samples = new ArrayList<>();
+    private Disposable selectionWindowDisposable;
+
+    private final List<Runnable> pendingRequests = new ArrayList<>();
+    private final Map<String, Long> requestStartUptimes = new HashMap<>();
+    private final RecentLatencies requestLatencies = new RecentLatencies(32);
+    private Disposable hedgeDelayDisposable;
+    private Disposable requestRoundDisposable;
+    private Disposable resyncDisposable;
+
+    // all reads and writes of storage go through a single thread, so they are applied in order without blocking callers
+    private final ThreadPoolExecutor cacheExecutor = new ThreadPoolExecutor(1, 1,
+            CACHE_THREAD_KEEP_ALIVE, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(), runnable -> {
+        Thread thread = new Thread(runnable, "RealTime-Cache");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * The in-memory copy of the stored anchor. It is loaded from storage at most once and
+     * replaced as a whole whenever the time changes.
+     */
+    private volatile TimeSnapshot snapshot;
+
+    /**
+     * Counted down when the snapshot is preloaded, or null if it is loaded on first use
+     */
+    private volatile CountDownLatch snapshotLoaded;
+
+
+    /**
+     * @param clock              monotonic clock all samples are anchored to
+     * @param snapshotStorage    storage of the last time snapshot
+     * @param connectivitySignal signal which tells when network providers can be requested
+     * @param scheduler          single threaded scheduler on which all state changes happen
+     * @param dataDirectory      directory used to persist host stats, resolved addresses and drift
+     */
+    public RealTimeEngine(MonotonicClock clock, SnapshotStorage snapshotStorage, ConnectivitySignal connectivitySignal,
+                          Scheduler scheduler, File dataDirectory) {
+        this(clock, snapshotStorage, connectivitySignal, scheduler, () -> dataDirectory);
+    }
+
+    /**
+     * @param clock              monotonic clock all samples are anchored to
+     * @param snapshotStorage    storage of the last time snapshot
+     * @param connectivitySignal signal which tells when network providers can be requested
+     * @param scheduler          single threaded scheduler on which all state changes happen
+     * @param dataDirectory      resolves the directory used to persist host stats, resolved addresses
+     *                           and drift. It is called on a background thread when the first file is used.
+     */
+    public RealTimeEngine(MonotonicClock clock, SnapshotStorage snapshotStorage, ConnectivitySignal connectivitySignal,
+                          Scheduler scheduler, Callable<File> dataDirectory) {
+        this.clock = clock;
+        this.snapshotStorage = snapshotStorage;
+        this.connectivitySignal = connectivitySignal;
+        this.scheduler = scheduler;
+        this.dnsCache = new DnsCache(new LazyFile(dataDirectory, DNS_CACHE_FILE_NAME), clock);
+        this.hostHealth = new HostHealth(new LazyFile(dataDirectory, HOST_HEALTH_FILE_NAME), clock);
+        this.driftEstimator = new DriftEstimator(new LazyFile(dataDirectory, DRIFT_FILE_NAME));
+        this.retryBudget = new RetryBudget(RetryBudget.DEFAULT_RETRIES_PER_MINUTE, clock);
+        this.metrics = new RealTimeMetrics(clock);
+
+        cacheExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * @param listener listener of sync events, called on the engine scheduler
+     * @return RealTimeEngine instance
+     */
+    public RealTimeEngine setListener(Listener listener) {
+        this.listener = listener;
+        return this;
+    }
+
+    /**
+     * This method will enable NTP server provider and add an NTP server host. A port other than
+     * 123 can be given as "host:port".
+     *
+     * @param ntpHost NTP server
+     * @return RealTimeEngine instance
+     */
+    public RealTimeEngine withNtpServer(String ntpHost) {
+        ntpServerHosts.add(ntpHost);
+        return this;
+    }
+
+    /**
+     * This method will enable Time server provider and add a server url. The time is read from
+     * the "Date" header of its response.
+     *
+     * @param serverHost server url
+     * @return RealTimeEngine instance
+     */
+    public RealTimeEngine withTimeServer(String serverHost) {
+        timeServerHosts.add(serverHost);
+        return this;
+    }
+
+    /**
+     * Sets the number of samples requested from each NTP server in every attempt. The sample with
+     * the lowest round trip delay is used, because it has the lowest error, as the NTP clock
+     * filter does.
+     *
+     * @param sampleCount number of samples, at least 1
+     * @return RealTimeEngine instance
+     */
+    public RealTimeEngine setNtpSampleCount(int sampleCount) {
+        if (sampleCount < 1) {
+            throw new IllegalArgumentException("NTP sample count must be at least 1.");
+        }
+
+        this.ntpSampleCount = sampleCount;
+        return this;
+    }
+
+    /**
+     * Sets how long to wait for the response to each NTP request. Lost packets are only noticed
+     * when it passes, so a short timeout moves on to the next sample of the burst sooner. The
+     * default is 10 seconds.
+     *
+     * @param timeout timeout of a single NTP request
+     * @param unit    the unit of time for the timeout
+     * @return RealTimeEngine instance
+     */
+    public RealTimeEngine setNtpTimeout(long timeout, @NonNull TimeUnit unit) {
+        this.ntpTimeout = TimeUnit.MILLISECONDS.convert(timeout, unit);
+        return this;
+    }
+
+    /**
+     * Sets how long samples from different providers are collected before the time most of them
+     * agree on is selected. The window starts when the first sample arrives and closes early as
+     * soon as the quorum agrees.
+     *
+     * @param window the duration of the selection window
+     * @param unit   the unit of time for the selection window
+     * @return RealTimeEngine instance
+     */
+    public RealTimeEngine setSelectionWindow(long window, @NonNull TimeUnit unit) {
+        this.selectionWindow = TimeUnit.MILLISECONDS.convert(window, unit);
+        return this;
+    }
+
+    /**
+     * Sets the number of samples that have to agree with each other before the time is set
+     * without waiting for the selection window to close. By default two samples have to agree,
+     * or one if only a single source is configured.
+     *
+     * @param quorum number of agreeing samples, at least 1
+     * @return RealTimeEngine instance
+     */
+    public RealTimeEngine setSelectionQuorum(int quorum) {
+        if (quorum < 1) {
+            throw new IllegalArgumentException("Selection quorum must be at least 1.");
+        }
+
+        this.selectionQuorum = quorum;
+        return this;
+    }
+
+    /**
+     * Sets the number of sources outside the engine which add samples using
+     * {@link #addSample(TimeSample)}. They are counted for the default selection quorum.
+     *
+     * @param sourceCount number of external sources
+     * @return RealTimeEngine instance
+     */
+    public RealTimeEngine setExternalSourceCount(int sourceCount) {
+        this.externalSourceCount = sourceCount;
+        return this;
+    }
+
+    /**
+     * This function tells the running sync that a source outside the engine won't add a sample,
+     * e.g. because it timed out or lacks a permission. It is not counted for the selection quorum
+     * anymore, and if no source is left, the sync ends with an error, so the next trigger starts
+     * a new one.
+     */
+    public void removeExternalSource() {
+        scheduler.scheduleDirect(this::onExternalSourceRemoved);
+    }
+
+    /**
+     * Enables or disables hedged requests. When enabled, which is the default, network providers
+     * are queried one by one: the next host is only requested if no answer arrives within the
+     * 90th percentile of recent request latencies, or as soon as more samples are needed to
+     * reach the selection quorum. When disabled, all hosts are requested at once.
+     *
+     * @param enabled sets weather requests must be hedged or not
+     * @return RealTimeEngine instance
+     */
+    public RealTimeEngine setHedgedRequestsEnabled(boolean enabled) {
+        this.hedgedRequestsEnabled = enabled;
+        return this;
+    }
+
+    /**
+     * Sets the accuracy target. A resync is scheduled for when the error bound of the current
+     * time reaches the target. The default is one second.
+     *
+     * @param accuracyTarget maximum acceptable error of the current time
+     * @param unit           the unit of time for the accuracy target
+     * @return RealTimeEngine instance
+     */
+    public RealTimeEngine setAccuracyTarget(long accuracyTarget, @NonNull TimeUnit unit) {
+        this.accuracyTarget = TimeUnit.MILLISECONDS.convert(accuracyTarget, unit);
+        return this;
+    }
+
+    /**
+     * Sets the minimum interval between syncs, no matter how fast the error bound grows.
+     * The default is one minute.
+     *
+     * @param minResyncInterval minimum interval between syncs
+     * @param unit              the unit of time for the interval
+     * @return RealTimeEngine instance
+     */
+    public RealTimeEngine setMinResyncInterval(long minResyncInterval, @NonNull TimeUnit unit) {
+        this.minResyncInterval = TimeUnit.MILLISECONDS.convert(minResyncInterval, unit);
+        return this;
+    }
+
+    /**
+     * Sets how long readers wait for a snapshot that is being preloaded. If it is not loaded in
+     * time, readers see the engine as not initialized until it is. The default is 500 milliseconds.
+     *
+     * @param timeout maximum time readers wait for the preloaded snapshot
+     * @param unit    the unit of time for the timeout
+     * @return RealTimeEngine instance
+     */
+    public RealTimeEngine setSnapshotLoadTimeout(long timeout, @NonNull TimeUnit unit) {
+        this.snapshotLoadTimeout = TimeUnit.MILLISECONDS.convert(timeout, unit);
+        return this;
+    }
+
+    /**
+     * This function loads the stored snapshot and the drift history on a background thread, so
+     * the calling thread doesn't wait for storage. Readers that need the snapshot before it is
+     * loaded wait for it, up to the snapshot load timeout.
+     *
+     * @param onLoaded called on the background thread when loading is finished, may be null
+     */
+    public void preload(Runnable onLoaded) {
+        CountDownLatch latch = new CountDownLatch(1);
+        snapshotLoaded = latch;
+
+        cacheExecutor.execute(() -> {
+            try {
+                loadSnapshot();
+                driftEstimator.getEstimate();
+            } finally {
+                latch.countDown();
+            }
+
+            if (onLoaded != null) {
+                onLoaded.run();
+            }
+        });
+    }
+
+    /**
+     * This function starts to sync time using the configured providers. Network providers are
+     * requested as soon as the connectivity signal reports a connection. If a sync is already
+     * running, this call joins it instead of starting another one.
+     *
+     * @return single which emits the sample selected by the sync, the same one for all callers
+     * which joined the sync
+     */
+    public Single<TimeSample> sync() {
+        SingleSubject<TimeSample> result = SingleSubject.create();
+        scheduler.scheduleDirect(() -> startSync().subscribe(result));
+
+        return result.hide();
+    }
+
+    /**
+     * This function syncs time if the current time is not accurate enough anymore, otherwise it
+     * only makes sure a resync is scheduled. If a sync is already running, it is left alone.
+     */
+    public void syncIfNeeded() {
+        scheduler.scheduleDirect(() -> {
+            if (syncState != SyncState.IDLE) {
+                LogUtils.v(TAG, "A sync is already running.");
+            } else if (isInitialized() && !isResyncDue()) {
+                LogUtils.v(TAG, "Current time is accurate enough. No need to resynchronize at this time.");
+                scheduleResync();
+            } else {
+                startSync();
+            }
+        });
+    }
+
+    /**
+     * This function returns a hot stream of sync events which any number of subscribers can
+     * observe. New subscribers first get the latest state event: INITIALIZED, CORRECTED or
+     * INVALIDATED, then every event from then on. Events are emitted on the engine scheduler.
+     * <p>
+     * A subscriber which can't keep up only gets the latest state event, and the latest sample
+     * events up to a bounded buffer, so it never holds the engine back.
+     *
+     * @return stream of sync events
+     */
+    public Flowable<SyncEvent> events() {
+        return Flowable.defer(() -> {
+            // the cached state is published when the snapshot is loaded
+            getSnapshot();
+
+            return Flowable.merge(stateEvents.onBackpressureLatest(),
+                    sampleEvents.onBackpressureBuffer(SAMPLE_EVENT_BUFFER_SIZE,
+                            () -> LogUtils.w(TAG, "Sync event subscriber is too slow, dropped a sample event."),
+                            BackpressureOverflowStrategy.DROP_OLDEST));
+        });
+    }
+
+    /**
+     * This function adds a listener of sync events, which is called on the engine scheduler.
+     *
+     * @param listener listener of sync events
+     * @see #addEventListener(SyncEvent.Listener, Executor)
+     */
+    public void addEventListener(SyncEvent.Listener listener) {
+        addEventListener(listener, Runnable::run);
+    }
+
+    /**
+     * This function adds a listener of sync events. The listener first gets the latest state
+     * event, like subscribers of {@link #events()} do. Adding the same listener again replaces it.
+     *
+     * @param listener listener of sync events
+     * @param executor executor the listener is called on
+     */
+    public void addEventListener(SyncEvent.Listener listener, Executor executor) {
+        Disposable disposable = events().subscribe(event -> executor.execute(() -> listener.onEvent(event)));
+        Disposable previous;
+
+        synchronized (eventListeners) {
+            previous = eventListeners.put(listener, disposable);
+        }
+
+        if (previous != null) {
+            previous.dispose();
+        }
+    }
+
+    /**
+     * @param listener listener to remove
+     */
+    public void removeEventListener(SyncEvent.Listener listener) {
+        Disposable disposable;
+
+        synchronized (eventListeners) {
+            disposable = eventListeners.remove(listener);
+        }
+
+        if (disposable != null) {
+            disposable.dispose();
+        }
+    }
+
+    /**
+     * @return state of the current sync session
+     */
+    public SyncState getSyncState() {
+        return syncState;
+    }
+
+    private void setSyncState(SyncState state) {
+        if (syncState == state) return;
+
+        LogUtils.v(TAG, "Sync state: " + syncState + " -> " + state);
+        syncState = state;
+    }
+
+    /**
+     * This function starts a sync session, or returns the running one
+     *
+     * @return result of the session
+     */
+    private SingleSubject<TimeSample> startSync() {
+        if (closed) {
+            SingleSubject<TimeSample> closedSession = SingleSubject.create();
+            closedSession.onError(new IllegalStateException("RealTimeEngine is closed."));
+            return closedSession;
+        }
+
+        if (session != null) {
+            LogUtils.v(TAG, "A sync is already running, joining it.");
+
+            if (activeExternalSources > 0 && listener != null) {
+                listener.onSyncJoined();
+            }
+
+            return session;
+        }
+
+        LogUtils.v(TAG, "Starting to sync time...");
+
+        session = SingleSubject.create();
+        activeExternalSources = externalSourceCount;
+        boolean hasNetworkHosts = !ntpServerHosts.isEmpty() || !timeServerHosts.isEmpty();
+        setSyncState(hasNetworkHosts ? SyncState.WAITING_FOR_CONNECTIVITY : SyncState.REQUESTING);
+
+        if (listener != null) {
+            listener.onSyncStarted();
+        }
+
+        if (!connectivityObserved && hasNetworkHosts) {
+            connectivityObserved = true;
+            connectionLost = false;
+            connectivitySignal.addListener(connectivityListener);
+        }
+
+        return session;
+    }
+
+    private ResyncScheduler getResyncScheduler() {
+        return new ResyncScheduler(accuracyTarget, minResyncInterval);
+    }
+
+    private boolean isResyncDue() {
+        return getResyncScheduler().getResyncDelay(getSnapshot(), getLoadedDriftEstimate(), clock.elapsedRealtime()) == 0;
+    }
+
+    /**
+     * This function schedules a resync for when the error bound of the current time reaches
+     * the accuracy target. The resync goes through the same providers as the first sync.
+     */
+    private void scheduleResync() {
+        if (resyncDisposable != null) {
+            resyncDisposable.dispose();
+        }
+
+        long resyncDelay = getResyncScheduler().getResyncDelay(getSnapshot(), getLoadedDriftEstimate(), clock.elapsedRealtime());
+        LogUtils.d(TAG, "Next resync in " + resyncDelay / 1000 + " second(s).");
+
+        resyncDisposable = Single.timer(resyncDelay, TimeUnit.MILLISECONDS)
+                .observeOn(scheduler)
+                .subscribe(ignored -> {
+                    LogUtils.v(TAG, "Error bound reached the accuracy target. Trying to resynchronize...");
+                    startSync();
+                });
+    }
+
+    /**
+     * This function returns the error bound of the current time: the error of the last sync
+     * plus the possible drift of the clock since then.
+     *
+     * @return error bound in milliseconds, or {@link #NOT_INITIALIZED} if the engine is not initialized yet
+     */
+    public long getErrorBound() {
+        TimeSnapshot timeSnapshot = getSnapshot();
+        long deviceUptime = clock.elapsedRealtime();
+
+        if (!timeSnapshot.isValid(deviceUptime)) {
+            return NOT_INITIALIZED;
+        }
+
+        return getResyncScheduler().getErrorBound(timeSnapshot, getLoadedDriftEstimate(), deviceUptime);
+    }
+
+    /**
+     * @return true if a valid time is available
+     */
+    public boolean isInitialized() {
+        // checks both that boot time is stored and that boot time has not changed (simple check)
+        return getSnapshot().isValid(clock.elapsedRealtime());
+    }
+
+    /**
+     * This function returns current reliable time in milliseconds without allocating any object.
+     *
+     * @return current reliable time in milliseconds since epoch
+     * @throws IllegalStateException if the engine is not initialized yet
+     */
+    public long nowMillis() throws IllegalStateException {
+        long now = tryNowMillis();
+
+        if (now == NOT_INITIALIZED) {
+            throw new IllegalStateException("You need to init RealTime at least once.");
+        }
+
+        return now;
+    }
+
+    /**
+     * This function returns current reliable time in milliseconds, or {@link #NOT_INITIALIZED}
+     * if the engine is not initialized yet.
+     *
+     * @return current reliable time in milliseconds since epoch or {@link #NOT_INITIALIZED}
+     */
+    public long tryNowMillis() {
+        TimeSnapshot timeSnapshot = getSnapshot();
+        long deviceUptime = clock.elapsedRealtime();
+
+        if (!timeSnapshot.isValid(deviceUptime)) {
+            return NOT_INITIALIZED;
+        }
+
+        return timeSnapshot.timeAt(deviceUptime);
+    }
+
+    /**
+     * This function returns current reliable time in nanoseconds without allocating any object.
+     * The resolution is that of the monotonic clock, so it can order events which happen within
+     * the same millisecond. The accuracy is still limited by {@link #getErrorBound()}.
+     *
+     * @return current reliable time in nanoseconds since epoch
+     * @throws IllegalStateException if the engine is not initialized yet
+     */
+    public long nowNanos() throws IllegalStateException {
+        long now = tryNowNanos();
+
+        if (now == NOT_INITIALIZED) {
+            throw new IllegalStateException("You need to init RealTime at least once.");
+        }
+
+        return now;
+    }
+
+    /**
+     * This function returns current reliable time in nanoseconds, or {@link #NOT_INITIALIZED}
+     * if the engine is not initialized yet.
+     *
+     * @return current reliable time in nanoseconds since epoch or {@link #NOT_INITIALIZED}
+     */
+    public long tryNowNanos() {
+        TimeSnapshot timeSnapshot = getSnapshot();
+        long deviceUptimeNanos = clock.elapsedRealtimeNanos();
+
+        if (!timeSnapshot.isValid(deviceUptimeNanos / 1_000_000)) {
+            return NOT_INITIALIZED;
+        }
+
+        return timeSnapshot.timeNanosAt(deviceUptimeNanos);
+    }
+
+    /**
+     * This function returns current reliable time as an instant with nanosecond resolution. The
+     * instant is the only object it allocates.
+     *
+     * @return current reliable time
+     * @throws IllegalStateException if the engine is not initialized yet
+     */
+    public Instant nowInstant() throws IllegalStateException {
+        long now = nowNanos();
+        return Instant.ofEpochSecond(Math.floorDiv(now, 1_000_000_000L), Math.floorMod(now, 1_000_000_000L));
+    }
+
+    /**
+     * This function returns the in-memory snapshot of the stored time. The storage is read only
+     * once, either by {@link #preload(Runnable)} or the first time this function is called.
+     *
+     * @return current time snapshot, or {@link TimeSnapshot#EMPTY} if a preloaded snapshot is not
+     * loaded within the snapshot load timeout
+     */
+    public TimeSnapshot getSnapshot() {
+        TimeSnapshot timeSnapshot = snapshot;
+        if (timeSnapshot != null) return timeSnapshot;
+
+        CountDownLatch latch = snapshotLoaded;
+        return latch == null ? loadSnapshot() : awaitSnapshot(latch);
+    }
+
+    private synchronized TimeSnapshot loadSnapshot() {
+        TimeSnapshot timeSnapshot = snapshot;
+
+        if (timeSnapshot == null) {
+            timeSnapshot = snapshotStorage.read();
+            if (timeSnapshot == null) timeSnapshot = TimeSnapshot.EMPTY;
+
+            snapshot = timeSnapshot;
+
+            // a time from a previous boot is not valid anymore
+            if (timeSnapshot.isValid(clock.elapsedRealtime())) {
+                stateEvents.onNext(SyncEvent.initialized(null));
+            } else if (!timeSnapshot.isEmpty()) {
+                stateEvents.onNext(SyncEvent.invalidated());
+            }
+        }
+
+        return timeSnapshot;
+    }
+
+    private TimeSnapshot awaitSnapshot(CountDownLatch latch) {
+        try {
+            if (!latch.await(snapshotLoadTimeout, TimeUnit.MILLISECONDS)) {
+                LogUtils.w(TAG, "Snapshot is not loaded within " + snapshotLoadTimeout + "ms.");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        // not published yet, so it is not initialized for now
+        TimeSnapshot timeSnapshot = snapshot;
+        return timeSnapshot == null ? TimeSnapshot.EMPTY : timeSnapshot;
+    }
+
+    /**
+     * This function returns the estimated frequency error of the monotonic clock. The estimate is
+     * based on successive syncs and is used to correct the current time between syncs, once it
+     * is precise enough.
+     *
+     * @return drift estimate, or {@link DriftEstimate#UNKNOWN} if there are not enough syncs yet
+     */
+    public DriftEstimate getDriftEstimate() {
+        return getLoadedDriftEstimate();
+    }
+
+    /**
+     * With {@link #preload(Runnable)}, the drift file is loaded on the cache thread along with the
+     * snapshot, so readers take the estimate it published instead of waiting for the file behind
+     * it. Until it is loaded, the estimate is unknown. Otherwise it is loaded on first use.
+     */
+    private DriftEstimate getLoadedDriftEstimate() {
+        return snapshotLoaded != null ? driftEstimator.peekEstimate() : driftEstimator.getEstimate();
+    }
+
+    /**
+     * This function returns the metrics of the engine: requests, retries and latencies of every
+     * host and the result of every sync. Exporters added to it are called after every sync.
+     *
+     * @return metrics registry of the engine
+     */
+    public RealTimeMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * This function clears the stored time, e.g. after a reboot invalidated it.
+     */
+    public void clearCachedInfo() {
+        snapshot = TimeSnapshot.EMPTY;
+        writeSnapshot(TimeSnapshot.EMPTY);
+        stateEvents.onNext(SyncEvent.invalidated());
+
+        LogUtils.d(TAG, "RealTime disk cache cleared.");
+    }
+
+    /**
+     * This function releases the engine. The socket and thread of NTP requests are closed right
+     * away, and the running sync, its requests and timers are canceled on the engine scheduler.
+     * Syncs of a closed engine fail, but the last time can still be read.
+     */
+    @Override
+    public void close() {
+        synchronized (this) {
+            if (closed) return;
+            closed = true;
+
+            if (sntpClient != null) {
+                sntpClient.close();
+                sntpClient = null;
+            }
+        }
+
+        scheduler.scheduleDirect(this::release);
+    }
+
+    private void release() {
+        cancelRequests();
+        clearSamples();
+        stopObservingConnectivity();
+
+        if (resyncDisposable != null) {
+            resyncDisposable.dispose();
+            resyncDisposable = null;
+        }
+
+        if (session != null) {
+            SingleSubject<TimeSample> closedSession = session;
+            session = null;
+            setSyncState(SyncState.IDLE);
+
+            closedSession.onError(new IllegalStateException("RealTimeEngine is closed."));
+        }
+
+        // pending snapshot writes still complete
+        cacheExecutor.shutdown();
+    }
+
+    private void writeSnapshot(TimeSnapshot timeSnapshot) {
+        cacheExecutor.execute(() -> {
+            try {
+                snapshotStorage.write(timeSnapshot);
+            } catch (IOException e) {
+                LogUtils.w(TAG, "Couldn't write snapshot: " + e.getMessage());
+            }
+        });
+    }
+
+    /**
+     * This function saves state on the cache thread, in order with the other storage reads and
+     * writes. Files are resolved and written there, so any failure is only logged.
+     */
+    private void saveInBackground(Runnable save, String name) {
+        cacheExecutor.execute(() -> {
+            try {
+                save.run();
+            } catch (RuntimeException e) {
+                LogUtils.w(TAG, "Couldn't save " + name + ": ", e);
+            }
+        });
+    }
+
+    private synchronized CircuitBreaker getCircuitBreaker(String host) {
+        CircuitBreaker circuitBreaker = circuitBreakers.get(host);
+
+        if (circuitBreaker == null) {
+            circuitBreaker = new CircuitBreaker(host, clock);
+            circuitBreakers.put(host, circuitBreaker);
+        }
+
+        return circuitBreaker;
+    }
+
+    private synchronized SntpClient getSntpClient() throws IOException {
+        if (closed) {
+            throw new IOException("RealTimeEngine is closed.");
+        }
+
+        if (sntpClient == null) {
+            sntpClient = new SntpClient(clock);
+        }
+
+        return sntpClient;
+    }
+
+    private RetryWithDelay buildRetryWithDelay(TimeSource source, String host, CircuitBreaker circuitBreaker) {
+        return RetryWithDelay.builder()
+                .retryDelayStrategy(RetryDelayStrategy.DECORRELATED_JITTER)
+                .maxRetries(MAX_RETRIES_PER_HOST)
+                .retryDelaySeconds(1)
+                .mexDelaySeconds(30)
+                .host(host)
+                .circuitBreaker(circuitBreaker)
+                .retryBudget(retryBudget)
+                .retryListener((retryHost, retryCount, delay) -> metrics.recordRetry(source, retryHost))
+                .build();
+    }
+
+    /**
+     * This function requests headers from provided server url and extracts Date header from response.
+     * We use RxJava to manage http request calls and use retry capability
+     */
+    private void requestTimeServer(String timeServerHost) {
+        requestStartUptimes.put(timeServerHost, clock.elapsedRealtime());
+
+        CircuitBreaker circuitBreaker = getCircuitBreaker(timeServerHost);
+
+        Disposable disposable = Single
+                .<TimeSample>create(emitter -> emitter.onSuccess(fetchTimeServer(timeServerHost, emitter)))
+                .doOnSubscribe(ignored -> metrics.recordAttempt(TimeSource.TIME_SERVER, timeServerHost))
+                .doOnSuccess(sample -> {
+                    circuitBreaker.onSuccess();
+                    hostHealth.recordSuccess(timeServerHost, sample.getRoundTripDelay());
+                    metrics.recordSuccess(TimeSource.TIME_SERVER, timeServerHost, sample.getRoundTripDelay());
+                })
+                .doOnError(throwable -> {
+                    hostHealth.recordFailure(timeServerHost);
+                    metrics.recordFailure(TimeSource.TIME_SERVER, timeServerHost);
+                })
+                .retryWhen(buildRetryWithDelay(TimeSource.TIME_SERVER, timeServerHost, circuitBreaker))
+                .doOnDispose(() -> LogUtils.d(TAG, "Time server request canceled."))
+                .subscribeOn(Schedulers.io())
+                .observeOn(scheduler)
+                .subscribe(this::onSample, throwable -> {
+                    LogUtils.w(TAG, "Exception while requesting time from server: ", throwable);
+                    onRequestFailed(timeServerHost);
+                });
+
+        disposables.add(disposable);
+    }
+
+    /**
+     * This function will send a HEAD request to provided server url and extracts Date header
+     * from response. The response body is never transferred, and the connection is released
+     * instead of disconnected, so it is kept alive and reused by the next attempt.
+     * <p>
+     * Server generates the Date header somewhere between sending the request and receiving
+     * the response, so the time is anchored at the midpoint of the round trip.
+     *
+     * @param emitter emitter of the request, used to disconnect the request when it is canceled
+     * @return current time of server anchored to the midpoint of the request round trip
+     * @throws IOException throws IOException if we couldn't connect to server or
+     *                     date header is not formed in correct datetime format
+     */
+    private TimeSample fetchTimeServer(String timeServerHost, SingleEmitter<TimeSample> emitter) throws IOException {
+        LogUtils.d(TAG, "Fetching time from time server: " + timeServerHost + " ...");
+
+        HttpURLConnection connection = (HttpURLConnection) new URL(timeServerHost).openConnection();
+        emitter.setCancellable(connection::disconnect);
+
+        try {
+            connection.setRequestMethod("HEAD");
+            connection.setUseCaches(false);
+            connection.setInstanceFollowRedirects(false);
+            connection.setConnectTimeout((int) TIME_SERVER_TIMEOUT);
+            connection.setReadTimeout((int) TIME_SERVER_TIMEOUT);
+
+            long requestUptimeNanos = clock.elapsedRealtimeNanos();
+            connection.getResponseCode();
+            long responseUptimeNanos = clock.elapsedRealtimeNanos();
+
+            String dateHeader = connection.getHeaderField("Date");
+            long date = HttpDateParser.parse(dateHeader);
+
+            // release connection to the pool so it can be reused
+            closeQuietly(connection);
+
+            if (date == HttpDateParser.INVALID_DATE) {
+                throw new IOException("Invalid Date header from " + timeServerHost + ": " + dateHeader);
+            }
+
+            long roundTripDelayNanos = responseUptimeNanos - requestUptimeNanos;
+            long roundTripDelay = roundTripDelayNanos / 1_000_000;
+            long deviceUptimeNanos = requestUptimeNanos + roundTripDelayNanos / 2;
+
+            // Date header is truncated to seconds, so the middle of that second is the best estimate
+            long time = date + DATE_HEADER_RESOLUTION / 2;
+
+            LogUtils.i(TAG, "Time from " + timeServerHost + ": " + new Date(time) + ", delay: " + roundTripDelay + "ms");
+
+            return new TimeSample(TimeSource.TIME_SERVER, timeServerHost, time, deviceUptimeNanos / 1_000_000,
+                    deviceUptimeNanos, roundTripDelay, DATE_HEADER_RESOLUTION / 2 + roundTripDelay / 2);
+
+        } catch (IOException e) {
+            LogUtils.w(TAG, e.getClass().getCanonicalName() + ":" + e.getMessage());
+            connection.disconnect();
+            throw e;
+        }
+    }
+
+    private static void closeQuietly(HttpURLConnection connection) {
+        try {
+            InputStream inputStream = connection.getErrorStream();
+            if (inputStream == null) inputStream = connection.getInputStream();
+            inputStream.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    /**
+     * This function requests current time from provided NTP server using the shared SntpClient.
+     * The host name is resolved on an io thread, then a burst of requests is sent one after
+     * another without blocking any thread while waiting for responses.
+     * We use RxJava to manage requests and use retry capability
+     */
+    private void requestNtpTime(String ntpServerHost) {
+        requestStartUptimes.put(ntpServerHost, clock.elapsedRealtime());
+
+        CircuitBreaker circuitBreaker = getCircuitBreaker(ntpServerHost);
+
+        Disposable disposable = Single
+                .fromCallable(() -> resolveNtpServer(ntpServerHost))
+                .subscribeOn(Schedulers.io())
+                .flatMap(address -> fetchNtpTime(ntpServerHost, address))
+                .doOnSubscribe(ignored -> metrics.recordAttempt(TimeSource.NTP_SERVER, ntpServerHost))
+                .doOnSuccess(sample -> {
+                    circuitBreaker.onSuccess();
+                    hostHealth.recordSuccess(ntpServerHost, sample.getRoundTripDelay());
+                    metrics.recordSuccess(TimeSource.NTP_SERVER, ntpServerHost, sample.getRoundTripDelay());
+                })
+                .doOnError(throwable -> {
+                    hostHealth.recordFailure(ntpServerHost);
+                    metrics.recordFailure(TimeSource.NTP_SERVER, ntpServerHost);
+                })
+                .retryWhen(buildRetryWithDelay(TimeSource.NTP_SERVER, ntpServerHost, circuitBreaker))
+                .doOnDispose(() -> LogUtils.d(TAG, "Ntp request canceled."))
+                .observeOn(scheduler)
+                .subscribe(this::onSample, throwable -> {
+                    LogUtils.w(TAG, "Exception while requesting Ntp time: ", throwable);
+                    onRequestFailed(ntpServerHost);
+                });
+
+        disposables.add(disposable);
+    }
+
+    private InetSocketAddress resolveNtpServer(String ntpServerHost) throws UnknownHostException {
+        LogUtils.d(TAG, "Fetching time from Ntp server: " + ntpServerHost + " ...");
+
+        try {
+            return new InetSocketAddress(dnsCache.resolve(getNtpHostName(ntpServerHost)), getNtpPort(ntpServerHost));
+        } catch (UnknownHostException e) {
+            LogUtils.w(TAG, e.getClass().getCanonicalName() + ":" + e.getMessage());
+            throw e;
+        }
+    }
+
+    /**
+     * @return index of the colon before the port in "host:port" or "[ipv6]:port", or -1 if there is no port
+     */
+    private static int getPortSeparator(String ntpServerHost) {
+        int separator = ntpServerHost.lastIndexOf(':');
+        if (separator == -1) return -1;
+
+        boolean bracketed = ntpServerHost.startsWith("[") && separator > 0 && ntpServerHost.charAt(separator - 1) == ']';
+        return bracketed || ntpServerHost.indexOf(':') == separator ? separator : -1;
+    }
+
+    private static String getNtpHostName(String ntpServerHost) {
+        int separator = getPortSeparator(ntpServerHost);
+        if (separator == -1) return ntpServerHost;
+
+        String hostName = ntpServerHost.substring(0, separator);
+        return hostName.startsWith("[") ? hostName.substring(1, hostName.length() - 1) : hostName;
+    }
+
+    private static int getNtpPort(String ntpServerHost) throws UnknownHostException {
+        int separator = getPortSeparator(ntpServerHost);
+        if (separator == -1) return SntpPacket.NTP_PORT;
+
+        try {
+            return Integer.parseInt(ntpServerHost.substring(separator + 1));
+        } catch (NumberFormatException e) {
+            throw new UnknownHostException("Invalid port of NTP server: " + ntpServerHost);
+        }
+    }
+
+    /**
+     * This function will fetch time from NTP server. It requests a burst of samples, one after
+     * another, and keeps the sample with the minimum round trip delay, because it has the
+     * lowest error.
+     *
+     * @return current time we got from NTP server anchored to the clock reading at which the
+     * best response was received
+     */
+    private Single<TimeSample> fetchNtpTime(String ntpServerHost, InetSocketAddress address) {
+        return Flowable.range(0, ntpSampleCount)
+                .concatMapMaybe(i -> requestNtpSample(ntpServerHost, address)
+                        .doOnError(e -> LogUtils.w(TAG, e.getClass().getCanonicalName() + ":" + e.getMessage()))
+                        .onErrorComplete())
+                .reduce((first, second) -> second.getRoundTripDelay() < first.getRoundTripDelay() ? second : first)
+                .switchIfEmpty(Single.error(new IOException("No valid response from " + ntpServerHost)))
+                .doOnSuccess(sample -> LogUtils.i(TAG, "Time from " + ntpServerHost + ": " + new Date(sample.getTime()) +
+                        ", delay: " + sample.getRoundTripDelay() + "ms"));
+    }
+
+    private Maybe<TimeSample> requestNtpSample(String ntpServerHost, InetSocketAddress address) {
+        return Maybe.<TimeSample>create(emitter -> {
+                    SntpClient client = getSntpClient();
+
+                    long requestId = client.send(address, new SntpClient.Callback() {
+                        @Override
+                        public void onResponse(long time, long deviceUptimeNanos, long roundTripDelay) {
+                            emitter.onSuccess(new TimeSample(TimeSource.NTP_SERVER, ntpServerHost, time,
+                                    deviceUptimeNanos / 1_000_000, deviceUptimeNanos, roundTripDelay, roundTripDelay / 2 + 1));
+                        }
+
+                        @Override
+                        public void onError(IOException exception) {
+                            emitter.tryOnError(exception);
+                        }
+                    });
+
+                    emitter.setCancellable(() -> client.cancel(requestId));
+                })
+                .timeout(ntpTimeout, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * This function adds a sample from a source outside the engine. The sample must be anchored
+     * to the same monotonic clock the engine uses.
+     *
+     * @param sample time sample received from the source
+     */
+    public void addSample(TimeSample sample) {
+        if (sample != null) {
+            metrics.recordSuccess(sample.getSource(), sample.getHost());
+        }
+
+        scheduler.scheduleDirect(() -> onSample(sample));
+    }
+
+    /**
+     * This function collects samples received from providers. The first sample opens the
+     * selection window, and every sample runs the selection again so the time can be set as
+     * soon as enough samples agree. Samples which arrive when no sync is running, e.g. late or
+     * hedged replies, are dropped, so they never set the time without a quorum.
+     *
+     * @param sample time sample received from a provider
+     */
+    private void onSample(TimeSample sample) {
+        if (sample == null || sample.getTime() == 0) return;
+
+        if (session == null) {
+            LogUtils.v(TAG, "No sync is running, dropping sample: " + sample);
+            return;
+        }
+
+        LogUtils.v(TAG, "Received sample: " + sample);
+        samples.add(sample);
+        sampleEvents.onNext(SyncEvent.sample(sample));
+
+        Long requestStartUptime = requestStartUptimes.remove(sample.getHost());
+        if (requestStartUptime != null) {
+            requestLatencies.record(clock.elapsedRealtime() - requestStartUptime);
+        }
+
+        if (selectionWindowDisposable == null) {
+            selectionWindowDisposable = Single.timer(selectionWindow, TimeUnit.MILLISECONDS)
+                    .observeOn(scheduler)
+                    .subscribe(ignored -> onSelectionWindowClosed());
+        }
+
+        Selection selection = TimeSampleSelector.select(samples, getSelectionQuorum());
+
+        if (selection != null) {
+            LogUtils.d(TAG, selection.getTruechimers().size() + " samples agree. Selected sample: " + selection.getSample());
+            commitSelection(selection);
+        } else {
+            // more samples are needed, so there is no reason to wait for the hedge delay
+            launchNextRequest();
+        }
+    }
+
+    /**
+     * This function is called when selection window is closed without reaching the quorum.
+     * We use the time most of received samples agree on.
+     */
+    private void onSelectionWindowClosed() {
+        selectionWindowDisposable = null;
+        if (session == null) return;
+
+        Selection selection = TimeSampleSelector.select(samples);
+        if (selection == null) return;
+
+        if (!selection.hasMajority(samples.size())) {
+            LogUtils.w(TAG, "Selection window closed without a majority among " + samples.size() + " samples.");
+        }
+
+        LogUtils.d(TAG, "Selection window closed. Selected sample: " + selection.getSample());
+        commitSelection(selection);
+    }
+
+    private void commitSelection(Selection selection) {
+        for (TimeSample falseticker : selection.getFalsetickers()) {
+            LogUtils.w(TAG, "Rejected falseticker: " + falseticker);
+        }
+
+        // remember how far each host was from the selected time
+        long selectedBootTime = selection.getSample().getBootTime();
+        for (TimeSample sample : samples) {
+            if (sample.getSource() != TimeSource.GPS_PROVIDER) {
+                hostHealth.recordOffsetDeviation(sample.getHost(), Math.abs(sample.getBootTime() - selectedBootTime));
+            }
+        }
+
+        saveInBackground(hostHealth::save, "host health");
+
+        clearSamples();
+        setTime(selection.getSample());
+    }
+
+    /**
+     * This function drops the samples of the session and closes its selection window
+     */
+    private void clearSamples() {
+        samples.clear();
+
+        if (selectionWindowDisposable != null) {
+            selectionWindowDisposable.dispose();
+            selectionWindowDisposable = null;
+        }
+    }
+
+    /**
+     * This function is called when a source outside the engine failed. The samples received so
+     * far may reach the quorum of the remaining sources, otherwise the sync ends if no source
+     * is left to wait for.
+     */
+    private void onExternalSourceRemoved() {
+        if (session == null || activeExternalSources == 0) return;
+
+        activeExternalSources--;
+        LogUtils.v(TAG, "External source removed, " + activeExternalSources + " left.");
+
+        Selection selection = TimeSampleSelector.select(samples, getSelectionQuorum());
+
+        if (selection != null) {
+            commitSelection(selection);
+        } else if (samples.isEmpty() && activeExternalSources == 0 && ntpServerHosts.isEmpty() && timeServerHosts.isEmpty()) {
+            LogUtils.w(TAG, "No time source is left, ending the sync.");
+
+            SingleSubject<TimeSample> failedSession = session;
+            session = null;
+            clearSamples();
+            setSyncState(SyncState.IDLE);
+
+            failedSession.onError(new IOException("No time source is left."));
+        }
+    }
+
+    private int getSelectionQuorum() {
+        if (selectionQuorum > 0) return selectionQuorum;
+
+        // external sources only count while a sync is running and they haven't failed
+        int externalSources = session != null ? activeExternalSources : externalSourceCount;
+        int sourceCount = ntpServerHosts.size() + timeServerHosts.size() + externalSources;
+
+        return Math.max(1, Math.min(2, sourceCount));
+    }
+
+    /**
+     * This function will set time and write it to the snapshot storage.
+     *
+     * @param sample reliable time sample
+     */
+    private void setTime(TimeSample sample) {
+        if (sample == null || sample.getTime() == 0) return;
+
+        long time = sample.getTime();
+        long deviceUptime = sample.getDeviceUptime();
+        long bootTime = time - deviceUptime;
+        TimeSnapshot previousSnapshot = getSnapshot();
+
+        // every sync is a point on the line of boot time over uptime, its slope is the drift
+        driftEstimator.addAnchor(deviceUptime, time, sample.getErrorBound());
+        saveInBackground(driftEstimator::save, "drift history");
+
+        // publish new snapshot for readers and write it to storage
+        TimeSnapshot timeSnapshot = new TimeSnapshot(time, bootTime, deviceUptime, driftEstimator.getCorrection(),
+                sample.getErrorBound(), sample.getBootTimeNanos(), sample.getDeviceUptimeNanos());
+        snapshot = timeSnapshot;
+        writeSnapshot(timeSnapshot);
+
+        stopObservingConnectivity();
+
+        // Unsubscribe from all network providers
+        cancelRequests();
+
+        scheduleResync();
+
+        // positive offset means the device clock is behind
+        long syncUptime = clock.elapsedRealtime();
+        metrics.recordSync(sample, sample.timeAt(syncUptime) - System.currentTimeMillis(), syncUptime);
+
+        // end the session, everyone who joined it gets the same sample
+        SingleSubject<TimeSample> finishedSession = session;
+        session = null;
+        setSyncState(SyncState.IDLE);
+
+        if (finishedSession != null) {
+            finishedSession.onSuccess(sample);
+        }
+
+        if (previousSnapshot.isValid(syncUptime)) {
+            long delta = timeSnapshot.timeAt(syncUptime) - previousSnapshot.timeAt(syncUptime);
+            stateEvents.onNext(SyncEvent.corrected(sample, delta));
+        } else {
+            stateEvents.onNext(SyncEvent.initialized(sample));
+        }
+
+        if (listener != null) {
+            listener.onTimeSet(sample);
+        }
+    }
+
+    /**
+     * This function resolves all hosts in parallel, so requests don't have to wait for lookups
+     * one by one. Failed lookups from while we were offline are discarded first.
+     */
+    private void prefetchHosts() {
+        List<String> hosts = new ArrayList<>();
+        for (String ntpServerHost : ntpServerHosts) hosts.add(getNtpHostName(ntpServerHost));
+        hosts.addAll(timeServerHosts);
+
+        dnsCache.clearNegativeEntries();
+        dnsCache.prefetch(hosts);
+    }
+
+    /**
+     * This function queues requests to all network providers, NTP servers first because they
+     * are the most accurate, and starts them either one by one or all at once. Hosts of each
+     * provider are ordered by how they performed in previous syncs, and hosts with an open
+     * circuit are left out. Hosts which already answered in this sync are not requested again,
+     * so a sync interrupted by a connection loss resumes where it was.
+     */
+    private void startRequests() {
+        cancelRequests();
+        requestsActive = true;
+
+        for (String ntpServerHost : hostHealth.rank(ntpServerHosts)) {
+            if (hasSample(ntpServerHost) || isCircuitOpen(ntpServerHost)) continue;
+            pendingRequests.add(() -> requestNtpTime(ntpServerHost));
+        }
+
+        for (String timeServerHost : hostHealth.rank(timeServerHosts)) {
+            if (hasSample(timeServerHost) || isCircuitOpen(timeServerHost)) continue;
+            pendingRequests.add(() -> requestTimeServer(timeServerHost));
+        }
+
+        if (hedgedRequestsEnabled) {
+            launchNextRequest();
+        } else {
+            while (!pendingRequests.isEmpty()) {
+                pendingRequests.remove(0).run();
+            }
+        }
+
+        // every host may have an open circuit
+        if (requestStartUptimes.isEmpty()) {
+            scheduleRequestRound();
+        }
+    }
+
+    /**
+     * This function is called when a host gave up after its retries. The next host is requested
+     * right away, and when no host is left, all of them are tried again after a while.
+     */
+    private void onRequestFailed(String host) {
+        requestStartUptimes.remove(host);
+        launchNextRequest();
+
+        if (requestStartUptimes.isEmpty()) {
+            scheduleRequestRound();
+        }
+    }
+
+    private void scheduleRequestRound() {
+        if (requestRoundDisposable != null) {
+            requestRoundDisposable.dispose();
+        }
+
+        LogUtils.i(TAG, "No host answered. Requesting all hosts again in " + REQUEST_ROUND_DELAY / 1000 + " second(s).");
+
+        requestRoundDisposable = Single.timer(REQUEST_ROUND_DELAY, TimeUnit.MILLISECONDS)
+                .observeOn(scheduler)
+                .subscribe(ignored -> {
+                    requestRoundDisposable = null;
+                    if (requestsActive) startRequests();
+                });
+    }
+
+    private boolean hasSample(String host) {
+        for (TimeSample sample : samples) {
+            if (host.equals(sample.getHost())) return true;
+        }
+
+        return false;
+    }
+
+    private boolean isCircuitOpen(String host) {
+        if (getCircuitBreaker(host).allowRequest()) return false;
+
+        LogUtils.v(TAG, "Circuit of " + host + " is open, skipping it.");
+        return true;
+    }
+
+    /**
+     * This function starts the next queued request and schedules the one after it to start
+     * if no answer arrives within the hedge delay.
+     */
+    private void launchNextRequest() {
+        if (hedgeDelayDisposable != null) {
+            hedgeDelayDisposable.dispose();
+            hedgeDelayDisposable = null;
+        }
+
+        if (pendingRequests.isEmpty()) return;
+
+        pendingRequests.remove(0).run();
+
+        if (!pendingRequests.isEmpty()) {
+            long hedgeDelay = Math.max(MIN_HEDGE_DELAY, Math.min(MAX_HEDGE_DELAY,
+                    requestLatencies.percentile(HEDGE_DELAY_PERCENTILE, DEFAULT_HEDGE_DELAY)));
+
+            hedgeDelayDisposable = Single.timer(hedgeDelay, TimeUnit.MILLISECONDS)
+                    .observeOn(scheduler)
+                    .subscribe(ignored -> {
+                        LogUtils.v(TAG, "No answer within " + hedgeDelay + "ms, requesting next host.");
+                        launchNextRequest();
+                    });
+        }
+    }
+
+    /**
+     * This function cancels running requests and the ones waiting to be started
+     */
+    private void cancelRequests() {
+        requestsActive = false;
+        pendingRequests.clear();
+        requestStartUptimes.clear();
+
+        if (hedgeDelayDisposable != null) {
+            hedgeDelayDisposable.dispose();
+            hedgeDelayDisposable = null;
+        }
+
+        if (requestRoundDisposable != null) {
+            requestRoundDisposable.dispose();
+            requestRoundDisposable = null;
+        }
+
+        disposables.clear();
+    }
+
+    /**
+     * Here we define a connectivity listener to notify when network state changes. If we have a
+     * network connection, we try to request time from NTP or time servers.
+     * <p>
+     * Connectivity often flaps, e.g. on trains, so changes are smoothed: running requests are
+     * only canceled when the connection stays lost for the grace period, and a connection which
+     * comes back after a loss is only used once it has been stable for a while.
+     */
+    private final ConnectivitySignal.Listener connectivityListener = this::onConnectivityChanged;
+
+    private void onConnectivityChanged(boolean connected) {
+        // the signal may call back on any thread
+        scheduler.scheduleDirect(() -> {
+            if (!connectivityObserved) return;
+
+            disposeConnectivityTimer();
+
+            if (connected) {
+                if (requestsActive) {
+                    LogUtils.i(TAG, "Network connection is back, running requests continue.");
+                } else if (connectionLost) {
+                    LogUtils.i(TAG, "Network connection is back, waiting for it to be stable.");
+                    connectivityDisposable = startConnectivityTimer(RECONNECT_DEBOUNCE, this::onConnectionAvailable);
+                } else {
+                    onConnectionAvailable();
+                }
+
+            } else {
+                connectionLost = true;
+
+                if (requestsActive) {
+                    LogUtils.i(TAG, "Network connection has lost. Requests are canceled if it doesn't come back soon.");
+                    connectivityDisposable = startConnectivityTimer(DISCONNECT_GRACE_PERIOD, this::onConnectionLost);
+                }
+            }
+        });
+    }
+
+    private void onConnectionAvailable() {
+        LogUtils.i(TAG, "Network connection is available.");
+
+        setSyncState(SyncState.REQUESTING);
+        prefetchHosts();
+        startRequests();
+    }
+
+    private void onConnectionLost() {
+        LogUtils.i(TAG, "Network connection is still lost. Canceling requests.");
+
+        setSyncState(SyncState.WAITING_FOR_CONNECTIVITY);
+        cancelRequests();
+    }
+
+    private Disposable startConnectivityTimer(long delay, Runnable action) {
+        return Single.timer(delay, TimeUnit.MILLISECONDS)
+                .observeOn(scheduler)
+                .subscribe(ignored -> {
+                    connectivityDisposable = null;
+                    if (connectivityObserved) action.run();
+                });
+    }
+
+    private void stopObservingConnectivity() {
+        if (connectivityObserved) {
+            connectivityObserved = false;
+            connectivitySignal.removeListener(connectivityListener);
+        }
+
+        disposeConnectivityTimer();
+    }
+
+    private void disposeConnectivityTimer() {
+        if (connectivityDisposable != null) {
+            connectivityDisposable.dispose();
+            connectivityDisposable = null;
+        }
+    }
+}
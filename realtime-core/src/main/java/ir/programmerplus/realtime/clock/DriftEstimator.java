@@ -0,0 +1,257 @@
+package ir.programmerplus.realtime.clock;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import ir.programmerplus.realtime.models.DriftEstimate;
+import ir.programmerplus.realtime.utils.LazyFile;
+import ir.programmerplus.realtime.utils.LogUtils;
+import ir.programmerplus.realtime.utils.SnapshotStore;
+
+/**
+ * DriftEstimator estimates the frequency error of the device uptime clock from successive sync
+ * anchors of the same boot. If the uptime clock runs at a slightly wrong rate, the boot time
+ * measured by each sync moves linearly with uptime, and the slope of that line is the drift.
+ * <p>
+ * The slope is estimated with the Theil-Sen estimator, the median of slopes between all pairs
+ * of anchors, so a few bad syncs don't affect it. Anchors are persisted, and the last estimate
+ * is kept after a reboot, because drift is a property of the device oscillator.
+ */
+public class DriftEstimator {
+
+    private static final String TAG = DriftEstimator.class.getSimpleName();
+
+    private static final int FILE_VERSION = 1;
+
+    private static final int MAX_ANCHORS = 32;
+
+    // pairs closer than this are dominated by sync errors
+    private static final long MIN_PAIR_SPAN = 30 * 60 * 1000;
+    // pairs whose sync errors alone could cause more than this drift are ignored
+    private static final double MAX_PAIR_NOISE = 20e-6;
+
+    // corrections are only applied when the estimate is plausible and precise enough
+    private static final double MAX_DRIFT = 500e-6;
+    private static final double MAX_UNCERTAINTY = 20e-6;
+
+    // tolerance used to tell whether two anchors belong to the same boot
+    private static final long SAME_BOOT_TOLERANCE = 1000;
+
+    private static class Anchor {
+        final long deviceUptime;
+        final long time;
+        final long errorBound;
+
+        Anchor(long deviceUptime, long time, long errorBound) {
+            this.deviceUptime = deviceUptime;
+            this.time = time;
+            this.errorBound = errorBound;
+        }
+
+        long bootTime() {
+            return time - deviceUptime;
+        }
+    }
+
+    private final LazyFile file;
+    private final List<Anchor> anchors = new ArrayList<>();
+    // published for readers which must not wait for the file to be loaded
+    private volatile DriftEstimate estimate = DriftEstimate.UNKNOWN;
+    private boolean loaded;
+
+    /**
+     * @param file file used to persist anchors and the last estimate
+     */
+    public DriftEstimator(File file) {
+        this(new LazyFile(file));
+    }
+
+    /**
+     * @param file file used to persist anchors and the last estimate, resolved on first use
+     */
+    public DriftEstimator(LazyFile file) {
+        this.file = file;
+    }
+
+    /**
+     * This function adds the anchor of a sync and updates the estimate. Anchors from previous
+     * boots are dropped, but the previous estimate is kept until a new one is available.
+     *
+     * @param deviceUptime device uptime of the anchor
+     * @param time         reliable time at the given uptime
+     * @param errorBound   error bound of the time in milliseconds
+     */
+    public synchronized void addAnchor(long deviceUptime, long time, long errorBound) {
+        load();
+
+        Anchor anchor = new Anchor(deviceUptime, time, errorBound);
+
+        if (!anchors.isEmpty() && !isSameBoot(anchors.get(anchors.size() - 1), anchor)) {
+            LogUtils.d(TAG, "Device has rebooted since last sync, drift history cleared.");
+            anchors.clear();
+        }
+
+        anchors.add(anchor);
+        if (anchors.size() > MAX_ANCHORS) anchors.remove(0);
+
+        DriftEstimate newEstimate = computeEstimate();
+        if (newEstimate.isKnown()) {
+            estimate = newEstimate;
+            LogUtils.d(TAG, "Estimated drift: " + estimate);
+        }
+    }
+
+    /**
+     * @return the latest drift estimate
+     */
+    public synchronized DriftEstimate getEstimate() {
+        load();
+        return estimate;
+    }
+
+    /**
+     * This function returns the latest estimate without loading the file or waiting for another
+     * thread which loads it.
+     *
+     * @return the latest drift estimate, or {@link DriftEstimate#UNKNOWN} if it is not loaded yet
+     */
+    public DriftEstimate peekEstimate() {
+        return estimate;
+    }
+
+    /**
+     * @return the drift as a fraction to correct elapsed uptime with, or 0 if the estimate is
+     * not reliable enough to be applied
+     */
+    public synchronized double getCorrection() {
+        load();
+
+        double drift = estimate.getDriftPpm() / 1e6;
+        double uncertainty = estimate.getUncertaintyPpm() / 1e6;
+
+        if (!estimate.isKnown() || Math.abs(drift) > MAX_DRIFT || uncertainty > MAX_UNCERTAINTY) {
+            return 0;
+        }
+
+        return drift;
+    }
+
+    private static boolean isSameBoot(Anchor previous, Anchor anchor) {
+        long elapsed = anchor.deviceUptime - previous.deviceUptime;
+        if (elapsed < 0) return false;
+
+        long tolerance = SAME_BOOT_TOLERANCE + previous.errorBound + anchor.errorBound + (long) (MAX_DRIFT * elapsed);
+        return Math.abs(anchor.bootTime() - previous.bootTime()) <= tolerance;
+    }
+
+    private DriftEstimate computeEstimate() {
+        List<Double> slopes = new ArrayList<>();
+        List<Double> noises = new ArrayList<>();
+
+        for (int i = 0; i < anchors.size(); i++) {
+            for (int j = i + 1; j < anchors.size(); j++) {
+                Anchor first = anchors.get(i);
+                Anchor second = anchors.get(j);
+
+                double span = second.deviceUptime - first.deviceUptime;
+                if (span < MIN_PAIR_SPAN) continue;
+
+                double noise = (first.errorBound + second.errorBound) / span;
+                if (noise > MAX_PAIR_NOISE) continue;
+
+                slopes.add((second.bootTime() - first.bootTime()) / span);
+                noises.add(noise);
+            }
+        }
+
+        if (slopes.isEmpty()) return DriftEstimate.UNKNOWN;
+
+        double drift = median(slopes);
+
+        List<Double> deviations = new ArrayList<>();
+        for (double slope : slopes) {
+            deviations.add(Math.abs(slope - drift));
+        }
+
+        // scaled median absolute deviation estimates the standard deviation of slopes
+        double spread = 1.4826 * median(deviations) / Math.sqrt(slopes.size());
+        double uncertainty = Math.max(median(noises), spread);
+
+        return new DriftEstimate(drift * 1e6, uncertainty * 1e6, slopes.size());
+    }
+
+    private static double median(List<Double> values) {
+        double[] sorted = new double[values.size()];
+        for (int i = 0; i < sorted.length; i++) sorted[i] = values.get(i);
+        Arrays.sort(sorted);
+
+        int middle = sorted.length / 2;
+        return sorted.length % 2 == 1 ? sorted[middle] : (sorted[middle - 1] + sorted[middle]) / 2;
+    }
+
+    private void load() {
+        if (loaded) return;
+        loaded = true;
+
+        File source;
+        try {
+            source = file.get();
+        } catch (IllegalStateException e) {
+            LogUtils.w(TAG, "Couldn't load drift history: " + e.getMessage());
+            return;
+        }
+
+        if (!source.exists()) return;
+
+        try (DataInputStream inputStream = new DataInputStream(new FileInputStream(source))) {
+            if (inputStream.readInt() != FILE_VERSION) return;
+
+            estimate = new DriftEstimate(inputStream.readDouble(), inputStream.readDouble(), inputStream.readInt());
+
+            int anchorCount = inputStream.readInt();
+            for (int i = 0; i < anchorCount; i++) {
+                anchors.add(new Anchor(inputStream.readLong(), inputStream.readLong(), inputStream.readLong()));
+            }
+
+        } catch (IOException e) {
+            LogUtils.w(TAG, "Couldn't load drift history: " + e.getMessage());
+        }
+    }
+
+    /**
+     * This function writes anchors and the last estimate to disk atomically
+     */
+    public synchronized void save() {
+        if (!loaded) return;
+
+        try {
+            ByteArrayOutputStream byteStream = new ByteArrayOutputStream();
+            DataOutputStream outputStream = new DataOutputStream(byteStream);
+
+            outputStream.writeInt(FILE_VERSION);
+            outputStream.writeDouble(estimate.getDriftPpm());
+            outputStream.writeDouble(estimate.getUncertaintyPpm());
+            outputStream.writeInt(estimate.getPairCount());
+
+            outputStream.writeInt(anchors.size());
+            for (Anchor anchor : anchors) {
+                outputStream.writeLong(anchor.deviceUptime);
+                outputStream.writeLong(anchor.time);
+                outputStream.writeLong(anchor.errorBound);
+            }
+
+            outputStream.flush();
+            SnapshotStore.writeAtomically(file.get(), byteStream.toByteArray(), byteStream.size());
+
+        } catch (IOException e) {
+            LogUtils.w(TAG, "Couldn't save drift history: " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package ir.programmerplus.realtime.clock;
+
+/**
+ * MonotonicClock is the uptime clock all samples and snapshots are anchored to. It must never go
+ * backwards or jump when the wall clock is changed, and should keep counting while the device
+ * sleeps, otherwise the time between syncs is underestimated.
+ */
+public interface MonotonicClock {
+
+    /**
+     * Clock based on {@link System#nanoTime()}, for plain JVMs. It starts at an arbitrary point in
+     * every process, so snapshots anchored to it are only valid within the same process and must
+     * be kept in memory: a snapshot stored by one process looks valid to the next one, but gives a
+     * wrong time. Drift anchors of a previous process look like a reboot and are dropped.
+     */
+    MonotonicClock SYSTEM = new MonotonicClock() {
+        @Override
+        public long elapsedRealtime() {
+            return System.nanoTime() / 1_000_000;
+        }
+
+        @Override
+        public long elapsedRealtimeNanos() {
+            return System.nanoTime();
+        }
+    };
+
+    /**
+     * @return milliseconds since an arbitrary fixed point, usually the boot of the device
+     */
+    long elapsedRealtime();
+
+    /**
+     * Clocks with a finer resolution should override this function. It must count from the same
+     * point as {@link #elapsedRealtime()}.
+     *
+     * @return nanoseconds since the same point as {@link #elapsedRealtime()}
+     */
+    default long elapsedRealtimeNanos() {
+        return elapsedRealtime() * 1_000_000;
+    }
+}
@@ -0,0 +1,74 @@
+package ir.programmerplus.realtime.clock;
+
+import ir.programmerplus.realtime.models.DriftEstimate;
+import ir.programmerplus.realtime.models.TimeSnapshot;
+
+/**
+ * ResyncScheduler decides when the cached time has to be synced again. It tracks an error bound
+ * for the current time: the error of the last sync plus the possible drift of the uptime clock
+ * multiplied by the time elapsed since that sync. A resync is due when the bound reaches the
+ * accuracy target, but never sooner than the minimum resync interval after the last sync.
+ */
+public class ResyncScheduler {
+
+    // drift assumed for uptime clocks we don't have an estimate for, typical crystals are within it
+    private static final double DEFAULT_DRIFT_BOUND = 50e-6;
+
+    private final long accuracyTarget;
+    private final long minResyncInterval;
+
+    /**
+     * @param accuracyTarget    maximum acceptable error bound in milliseconds
+     * @param minResyncInterval minimum time between two syncs in milliseconds
+     */
+    public ResyncScheduler(long accuracyTarget, long minResyncInterval) {
+        this.accuracyTarget = accuracyTarget;
+        this.minResyncInterval = minResyncInterval;
+    }
+
+    /**
+     * @param snapshot      current time snapshot
+     * @param driftEstimate current drift estimate
+     * @param deviceUptime  current device uptime
+     * @return error bound of the time at the given uptime in milliseconds
+     */
+    public long getErrorBound(TimeSnapshot snapshot, DriftEstimate driftEstimate, long deviceUptime) {
+        long elapsed = Math.max(0, deviceUptime - snapshot.getDeviceUptime());
+        return snapshot.getErrorBound() + (long) Math.ceil(elapsed * getDriftBound(snapshot, driftEstimate));
+    }
+
+    /**
+     * @param snapshot      current time snapshot
+     * @param driftEstimate current drift estimate
+     * @param deviceUptime  current device uptime
+     * @return milliseconds from the given uptime until a resync is due, 0 if it is due already
+     */
+    public long getResyncDelay(TimeSnapshot snapshot, DriftEstimate driftEstimate, long deviceUptime) {
+        long elapsed = Math.max(0, deviceUptime - snapshot.getDeviceUptime());
+        double driftBound = getDriftBound(snapshot, driftEstimate);
+
+        // time from the sync at which the error bound reaches the target
+        long margin = accuracyTarget - snapshot.getErrorBound();
+        long resyncAfter = margin <= 0 ? 0 : (long) Math.min(Long.MAX_VALUE / 2.0, margin / driftBound);
+
+        return Math.max(0, Math.max(resyncAfter, minResyncInterval) - elapsed);
+    }
+
+    /**
+     * When drift is corrected only its uncertainty remains, otherwise the whole estimated drift
+     * counts as error. Without an estimate we assume a typical oscillator.
+     */
+    private static double getDriftBound(TimeSnapshot snapshot, DriftEstimate driftEstimate) {
+        double uncertainty = driftEstimate.getUncertaintyPpm() / 1e6;
+
+        if (!driftEstimate.isKnown() || Double.isInfinite(uncertainty)) {
+            return DEFAULT_DRIFT_BOUND;
+        }
+
+        if (snapshot.getDrift() != 0) {
+            return Math.max(uncertainty, 1e-9);
+        }
+
+        return Math.abs(driftEstimate.getDriftPpm() / 1e6) + uncertainty;
+    }
+}
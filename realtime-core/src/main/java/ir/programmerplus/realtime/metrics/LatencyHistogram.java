@@ -0,0 +1,200 @@
+package ir.programmerplus.realtime.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import androidx.annotation.NonNull;
+
+/**
+ * LatencyHistogram records latencies in log-linear buckets, like HdrHistogram does: every power
+ * of two range is split into 16 linear sub-buckets, so any recorded value is known within about
+ * 6%, from one millisecond up to more than an hour, with a fixed set of counters.
+ * <p>
+ * Recording is lock-free and allocation-free, so it can be called from any thread on the request
+ * path. Readers take a {@link Snapshot}, which is an immutable copy of the counters.
+ */
+public class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    private static final int SUB_BUCKET_MASK = SUB_BUCKET_COUNT - 1;
+
+    // values are tracked up to 2^23 milliseconds, larger ones go to the last bucket
+    private static final int MAX_EXPONENT = 23;
+    private static final int BUCKET_COUNT = (MAX_EXPONENT - SUB_BUCKET_BITS + 2) * SUB_BUCKET_COUNT;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+    private final AtomicLong totalCount = new AtomicLong();
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * This function records a latency. Negative values are recorded as zero.
+     *
+     * @param value latency in milliseconds
+     */
+    public void record(long value) {
+        if (value < 0) value = 0;
+
+        counts.incrementAndGet(bucketIndex(value));
+        totalCount.incrementAndGet();
+        sum.addAndGet(value);
+
+        long currentMax;
+        while (value > (currentMax = max.get())) {
+            if (max.compareAndSet(currentMax, value)) break;
+        }
+    }
+
+    /**
+     * This function clears all recorded values
+     */
+    public void reset() {
+        for (int i = 0; i < BUCKET_COUNT; i++) counts.set(i, 0);
+        totalCount.set(0);
+        sum.set(0);
+        max.set(0);
+    }
+
+    /**
+     * @return an immutable copy of the recorded values
+     */
+    public Snapshot snapshot() {
+        long[] bucketCounts = new long[BUCKET_COUNT];
+        long count = 0;
+
+        // count is taken from the copied buckets, so percentiles are consistent with it
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            bucketCounts[i] = counts.get(i);
+            count += bucketCounts[i];
+        }
+
+        return new Snapshot(bucketCounts, count, sum.get(), max.get());
+    }
+
+    static int bucketIndex(long value) {
+        if (value < SUB_BUCKET_COUNT) return (int) value;
+
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        if (exponent > MAX_EXPONENT) return BUCKET_COUNT - 1;
+
+        int shift = exponent - SUB_BUCKET_BITS;
+        int subBucket = (int) (value >>> shift) & SUB_BUCKET_MASK;
+
+        return (shift + 1) * SUB_BUCKET_COUNT + subBucket;
+    }
+
+    /**
+     * @return the lowest value which is recorded in the given bucket
+     */
+    static long lowestValue(int index) {
+        if (index < SUB_BUCKET_COUNT) return index;
+
+        int shift = index / SUB_BUCKET_COUNT - 1;
+        int subBucket = index % SUB_BUCKET_COUNT;
+
+        return (long) (SUB_BUCKET_COUNT + subBucket) << shift;
+    }
+
+    /**
+     * Snapshot is an immutable copy of a histogram
+     */
+    public static class Snapshot {
+
+        private final long[] counts;
+        private final long count;
+        private final long sum;
+        private final long max;
+
+        Snapshot(long[] counts, long count, long sum, long max) {
+            this.counts = counts;
+            this.count = count;
+            this.sum = sum;
+            this.max = max;
+        }
+
+        /**
+         * @return number of recorded values
+         */
+        public long getCount() {
+            return count;
+        }
+
+        /**
+         * @return the largest recorded value in milliseconds
+         */
+        public long getMax() {
+            return max;
+        }
+
+        /**
+         * @return mean of recorded values in milliseconds, or 0 if nothing is recorded
+         */
+        public double getMean() {
+            return count == 0 ? 0 : (double) sum / count;
+        }
+
+        /**
+         * This function returns the value at the given percentile. Values are only known within
+         * their bucket, so the highest value of the bucket is returned.
+         *
+         * @param percentile percentile between 0 and 100
+         * @return value at the percentile in milliseconds, or 0 if nothing is recorded
+         */
+        public long getValueAtPercentile(double percentile) {
+            if (count == 0) return 0;
+
+            long rank = Math.max(1, (long) Math.ceil(Math.min(100, percentile) / 100 * count));
+            long seen = 0;
+
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+
+                if (seen >= rank) {
+                    long highestValue = i == counts.length - 1 ? max : lowestValue(i + 1) - 1;
+                    return Math.min(highestValue, max);
+                }
+            }
+
+            return max;
+        }
+
+        /**
+         * This function calls the visitor for every bucket which has recorded values, in
+         * ascending order, so exporters can convert the histogram to their own format.
+         *
+         * @param visitor visitor of buckets
+         */
+        public void forEachBucket(BucketVisitor visitor) {
+            for (int i = 0; i < counts.length; i++) {
+                if (counts[i] == 0) continue;
+
+                long highestValue = i == counts.length - 1 ? Long.MAX_VALUE : lowestValue(i + 1) - 1;
+                visitor.visit(lowestValue(i), highestValue, counts[i]);
+            }
+        }
+
+        @NonNull
+        @Override
+        public String toString() {
+            return "count=" + count +
+                    ", mean=" + Math.round(getMean()) +
+                    "ms, p50=" + getValueAtPercentile(50) +
+                    "ms, p90=" + getValueAtPercentile(90) +
+                    "ms, p99=" + getValueAtPercentile(99) +
+                    "ms, max=" + max + "ms";
+        }
+    }
+
+    /**
+     * Visitor of histogram buckets
+     */
+    public interface BucketVisitor {
+        /**
+         * @param lowestValue  lowest value of the bucket in milliseconds
+         * @param highestValue highest value of the bucket in milliseconds
+         * @param count        number of values recorded in the bucket
+         */
+        void visit(long lowestValue, long highestValue, long count);
+    }
+}
@@ -0,0 +1,228 @@
+package ir.programmerplus.realtime.metrics;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import androidx.annotation.NonNull;
+import ir.programmerplus.realtime.models.TimeSource;
+
+/**
+ * MetricsSnapshot is an immutable copy of {@link RealTimeMetrics} taken at one moment, which
+ * exporters can read at their own pace.
+ */
+public class MetricsSnapshot {
+
+    /**
+     * The value of durations and offsets which have not been measured yet
+     */
+    public static final long UNKNOWN = Long.MIN_VALUE;
+
+    /**
+     * Counters of a single host
+     */
+    public static class HostStats {
+
+        private final TimeSource source;
+        private final String host;
+        private final long attempts;
+        private final long successes;
+        private final long failures;
+        private final long retries;
+
+        HostStats(TimeSource source, String host, long attempts, long successes, long failures, long retries) {
+            this.source = source;
+            this.host = host;
+            this.attempts = attempts;
+            this.successes = successes;
+            this.failures = failures;
+            this.retries = retries;
+        }
+
+        public TimeSource getSource() {
+            return source;
+        }
+
+        public String getHost() {
+            return host;
+        }
+
+        public long getAttempts() {
+            return attempts;
+        }
+
+        public long getSuccesses() {
+            return successes;
+        }
+
+        public long getFailures() {
+            return failures;
+        }
+
+        public long getRetries() {
+            return retries;
+        }
+
+        @NonNull
+        @Override
+        public String toString() {
+            return source + " " + host + ": attempts=" + attempts + ", successes=" + successes +
+                    ", failures=" + failures + ", retries=" + retries;
+        }
+    }
+
+    private final long uptime;
+    private final List<HostStats> hosts;
+    private final Map<TimeSource, LatencyHistogram.Snapshot> latencies;
+    private final Map<TimeSource, Long> syncCounts;
+    private final long timeToFirstSync;
+    private final long lastOffset;
+    private final long lastErrorBound;
+    private final TimeSource lastSyncSource;
+    private final String lastSyncHost;
+
+    MetricsSnapshot(long uptime, List<HostStats> hosts, Map<TimeSource, LatencyHistogram.Snapshot> latencies,
+                    Map<TimeSource, Long> syncCounts, long timeToFirstSync, long lastOffset, long lastErrorBound,
+                    TimeSource lastSyncSource, String lastSyncHost) {
+        this.uptime = uptime;
+        this.hosts = Collections.unmodifiableList(hosts);
+        this.latencies = Collections.unmodifiableMap(latencies);
+        this.syncCounts = Collections.unmodifiableMap(syncCounts);
+        this.timeToFirstSync = timeToFirstSync;
+        this.lastOffset = lastOffset;
+        this.lastErrorBound = lastErrorBound;
+        this.lastSyncSource = lastSyncSource;
+        this.lastSyncHost = lastSyncHost;
+    }
+
+    /**
+     * @return monotonic clock reading at which the snapshot was taken
+     */
+    public long getUptime() {
+        return uptime;
+    }
+
+    /**
+     * @return counters of every host which has been requested
+     */
+    public List<HostStats> getHosts() {
+        return hosts;
+    }
+
+    /**
+     * @return number of requests sent to hosts of the provider, including retries
+     */
+    public long getAttempts(TimeSource source) {
+        long attempts = 0;
+        for (HostStats stats : hosts) if (stats.source == source) attempts += stats.attempts;
+        return attempts;
+    }
+
+    /**
+     * @return number of samples received from the provider
+     */
+    public long getSuccesses(TimeSource source) {
+        long successes = 0;
+        for (HostStats stats : hosts) if (stats.source == source) successes += stats.successes;
+        return successes;
+    }
+
+    /**
+     * @return number of failed requests to hosts of the provider
+     */
+    public long getFailures(TimeSource source) {
+        long failures = 0;
+        for (HostStats stats : hosts) if (stats.source == source) failures += stats.failures;
+        return failures;
+    }
+
+    /**
+     * @return number of retries scheduled for all hosts
+     */
+    public long getRetries() {
+        long retries = 0;
+        for (HostStats stats : hosts) retries += stats.retries;
+        return retries;
+    }
+
+    /**
+     * @return round trip latencies of successful requests to the provider
+     */
+    public LatencyHistogram.Snapshot getLatencies(TimeSource source) {
+        return latencies.get(source);
+    }
+
+    /**
+     * @return number of times a sample of the provider was selected as the time
+     */
+    public long getSyncCount(TimeSource source) {
+        Long count = syncCounts.get(source);
+        return count == null ? 0 : count;
+    }
+
+    /**
+     * @return number of syncs from all providers
+     */
+    public long getSyncCount() {
+        long count = 0;
+        for (long sourceCount : syncCounts.values()) count += sourceCount;
+        return count;
+    }
+
+    /**
+     * @return milliseconds from process start to the first sync, or {@link #UNKNOWN} if there
+     * has been no sync yet
+     */
+    public long getTimeToFirstSync() {
+        return timeToFirstSync;
+    }
+
+    /**
+     * @return offset of the device clock from the time selected by the last sync in
+     * milliseconds, positive if the device clock is behind, or {@link #UNKNOWN} if there has
+     * been no sync yet
+     */
+    public long getLastOffset() {
+        return lastOffset;
+    }
+
+    /**
+     * @return error bound of the time selected by the last sync in milliseconds, or
+     * {@link #UNKNOWN} if there has been no sync yet
+     */
+    public long getLastErrorBound() {
+        return lastErrorBound;
+    }
+
+    /**
+     * @return provider of the last selected time, or null if there has been no sync yet
+     */
+    public TimeSource getLastSyncSource() {
+        return lastSyncSource;
+    }
+
+    /**
+     * @return host of the last selected time, or null if there has been no sync yet
+     */
+    public String getLastSyncHost() {
+        return lastSyncHost;
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder("MetricsSnapshot(syncs=").append(getSyncCount())
+                .append(", timeToFirstSync=").append(timeToFirstSync == UNKNOWN ? "unknown" : timeToFirstSync + "ms")
+                .append(", lastSync=").append(lastSyncSource).append(' ').append(lastSyncHost)
+                .append(", lastOffset=").append(lastOffset == UNKNOWN ? "unknown" : lastOffset + "ms")
+                .append(", retries=").append(getRetries());
+
+        for (Map.Entry<TimeSource, LatencyHistogram.Snapshot> entry : latencies.entrySet()) {
+            if (entry.getValue().getCount() > 0) {
+                builder.append(", ").append(entry.getKey()).append(" latency: ").append(entry.getValue());
+            }
+        }
+
+        return builder.append(')').toString();
+    }
+}
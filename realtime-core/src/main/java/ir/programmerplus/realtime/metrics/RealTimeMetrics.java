@@ -0,0 +1,215 @@
+package ir.programmerplus.realtime.metrics;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+import ir.programmerplus.realtime.clock.MonotonicClock;
+import ir.programmerplus.realtime.models.TimeSample;
+import ir.programmerplus.realtime.models.TimeSource;
+import ir.programmerplus.realtime.utils.LogUtils;
+
+/**
+ * RealTimeMetrics counts what the sync engine does, so it can be aggregated across devices
+ * instead of being read from logs: attempts, successes, failures and retries of every host,
+ * round trip latencies of every provider, time to the first sync, and the source and measured
+ * device clock offset of every sync.
+ * <p>
+ * Recording only updates atomic counters and never allocates. Readers take a
+ * {@link MetricsSnapshot}, either on demand or through exporters which are called after every
+ * sync and whenever {@link #export()} is called, e.g. by a periodic telemetry job.
+ */
+public class RealTimeMetrics {
+
+    private static final String TAG = RealTimeMetrics.class.getSimpleName();
+
+    /**
+     * Exporter receives metrics snapshots to forward them to a telemetry pipeline
+     */
+    public interface Exporter {
+        /**
+         * Called after every sync and whenever {@link #export()} is called. It is called on the
+         * thread that triggered the export, so slow exporters should hand the snapshot off.
+         *
+         * @param snapshot metrics at the time of the export
+         */
+        void export(MetricsSnapshot snapshot);
+    }
+
+    private static class HostCounters {
+        final TimeSource source;
+        final AtomicLong attempts = new AtomicLong();
+        final AtomicLong successes = new AtomicLong();
+        final AtomicLong failures = new AtomicLong();
+        final AtomicLong retries = new AtomicLong();
+
+        HostCounters(TimeSource source) {
+            this.source = source;
+        }
+    }
+
+    private final MonotonicClock clock;
+    private final ConcurrentHashMap<String, HostCounters> hosts = new ConcurrentHashMap<>();
+    private final Map<TimeSource, LatencyHistogram> latencies = new EnumMap<>(TimeSource.class);
+    private final Map<TimeSource, AtomicLong> syncCounts = new EnumMap<>(TimeSource.class);
+    private final List<Exporter> exporters = new CopyOnWriteArrayList<>();
+
+    private volatile long startUptime;
+    private long timeToFirstSync = MetricsSnapshot.UNKNOWN;
+    private long lastOffset = MetricsSnapshot.UNKNOWN;
+    private long lastErrorBound = MetricsSnapshot.UNKNOWN;
+    private TimeSource lastSyncSource;
+    private String lastSyncHost;
+
+    /**
+     * @param clock monotonic clock durations are measured with
+     */
+    public RealTimeMetrics(MonotonicClock clock) {
+        this.clock = clock;
+        this.startUptime = clock.elapsedRealtime();
+
+        // maps are filled once, so they are only read afterwards
+        for (TimeSource source : TimeSource.values()) {
+            latencies.put(source, new LatencyHistogram());
+            syncCounts.put(source, new AtomicLong());
+        }
+    }
+
+    /**
+     * Sets the clock reading time to first sync is measured from. By default it is the time the
+     * metrics were created, platforms which know when the process started can set it instead.
+     *
+     * @param startUptime monotonic clock reading at process start
+     */
+    public void setStartUptime(long startUptime) {
+        this.startUptime = startUptime;
+    }
+
+    public void addExporter(Exporter exporter) {
+        exporters.add(exporter);
+    }
+
+    public void removeExporter(Exporter exporter) {
+        exporters.remove(exporter);
+    }
+
+    private HostCounters getHostCounters(TimeSource source, String host) {
+        HostCounters counters = hosts.get(host);
+
+        if (counters == null) {
+            HostCounters newCounters = new HostCounters(source);
+            counters = hosts.putIfAbsent(host, newCounters);
+            if (counters == null) counters = newCounters;
+        }
+
+        return counters;
+    }
+
+    /**
+     * This function records a request sent to a host, including retries
+     */
+    public void recordAttempt(TimeSource source, String host) {
+        getHostCounters(source, host).attempts.incrementAndGet();
+    }
+
+    /**
+     * This function records a sample received from a host
+     *
+     * @param latency round trip latency of the request in milliseconds
+     */
+    public void recordSuccess(TimeSource source, String host, long latency) {
+        getHostCounters(source, host).successes.incrementAndGet();
+        latencies.get(source).record(latency);
+    }
+
+    /**
+     * This function records a sample received from a source without a round trip, like GPS
+     */
+    public void recordSuccess(TimeSource source, String host) {
+        getHostCounters(source, host).successes.incrementAndGet();
+    }
+
+    /**
+     * This function records a failed request to a host
+     */
+    public void recordFailure(TimeSource source, String host) {
+        getHostCounters(source, host).failures.incrementAndGet();
+    }
+
+    /**
+     * This function records a retry scheduled by {@link ir.programmerplus.realtime.network.RetryWithDelay}
+     */
+    public void recordRetry(TimeSource source, String host) {
+        getHostCounters(source, host).retries.incrementAndGet();
+    }
+
+    /**
+     * This function records a sync and calls the exporters.
+     *
+     * @param sample     the selected sample
+     * @param offset     offset of the device clock from the selected time in milliseconds
+     * @param syncUptime monotonic clock reading at which the time was set
+     */
+    public void recordSync(TimeSample sample, long offset, long syncUptime) {
+        syncCounts.get(sample.getSource()).incrementAndGet();
+
+        synchronized (this) {
+            if (timeToFirstSync == MetricsSnapshot.UNKNOWN) {
+                timeToFirstSync = syncUptime - startUptime;
+            }
+
+            lastOffset = offset;
+            lastErrorBound = sample.getErrorBound();
+            lastSyncSource = sample.getSource();
+            lastSyncHost = sample.getHost();
+        }
+
+        export();
+    }
+
+    /**
+     * @return an immutable copy of current metrics
+     */
+    public MetricsSnapshot snapshot() {
+        List<MetricsSnapshot.HostStats> hostStats = new ArrayList<>();
+        for (Map.Entry<String, HostCounters> entry : hosts.entrySet()) {
+            HostCounters counters = entry.getValue();
+            hostStats.add(new MetricsSnapshot.HostStats(counters.source, entry.getKey(), counters.attempts.get(),
+                    counters.successes.get(), counters.failures.get(), counters.retries.get()));
+        }
+
+        Map<TimeSource, LatencyHistogram.Snapshot> latencySnapshots = new EnumMap<>(TimeSource.class);
+        Map<TimeSource, Long> syncCountValues = new EnumMap<>(TimeSource.class);
+        for (TimeSource source : TimeSource.values()) {
+            latencySnapshots.put(source, latencies.get(source).snapshot());
+            syncCountValues.put(source, syncCounts.get(source).get());
+        }
+
+        synchronized (this) {
+            return new MetricsSnapshot(clock.elapsedRealtime(), hostStats, latencySnapshots, syncCountValues,
+                    timeToFirstSync, lastOffset, lastErrorBound, lastSyncSource, lastSyncHost);
+        }
+    }
+
+    /**
+     * This function takes a snapshot and passes it to all exporters. A failing exporter doesn't
+     * keep the others from being called.
+     */
+    public void export() {
+        if (exporters.isEmpty()) return;
+
+        MetricsSnapshot snapshot = snapshot();
+
+        for (Exporter exporter : exporters) {
+            try {
+                exporter.export(snapshot);
+            } catch (RuntimeException e) {
+                LogUtils.w(TAG, "Metrics exporter failed: ", e);
+            }
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package ir.programmerplus.realtime.models;
+
+import androidx.annotation.NonNull;
+
+/**
+ * The estimated frequency error of the device uptime clock, in parts per million. A positive
+ * drift means the uptime clock runs slow, so reliable time advances faster than uptime.
+ */
+public final class DriftEstimate {
+
+    public static final DriftEstimate UNKNOWN = new DriftEstimate(0, Double.POSITIVE_INFINITY, 0);
+
+    private final double driftPpm;
+    private final double uncertaintyPpm;
+    private final int pairCount;
+
+    /**
+     * @param driftPpm       estimated drift in parts per million
+     * @param uncertaintyPpm estimated standard error of the drift in parts per million
+     * @param pairCount      number of sync pairs the estimate is based on
+     */
+    public DriftEstimate(double driftPpm, double uncertaintyPpm, int pairCount) {
+        this.driftPpm = driftPpm;
+        this.uncertaintyPpm = uncertaintyPpm;
+        this.pairCount = pairCount;
+    }
+
+    public double getDriftPpm() {
+        return driftPpm;
+    }
+
+    public double getUncertaintyPpm() {
+        return uncertaintyPpm;
+    }
+
+    public int getPairCount() {
+        return pairCount;
+    }
+
+    /**
+     * @return true if there is at least one usable pair of syncs
+     */
+    public boolean isKnown() {
+        return pairCount > 0;
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        return "DriftEstimate(driftPpm=" + driftPpm + ", uncertaintyPpm=" + uncertaintyPpm + ", pairCount=" + pairCount + ")";
+    }
+}
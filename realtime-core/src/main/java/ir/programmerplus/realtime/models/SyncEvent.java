@@ -0,0 +1,109 @@
+package ir.programmerplus.realtime.models;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * An event of the sync engine: the time became available, was corrected by a resync, was
+ * invalidated, or a provider returned a sample.
+ */
+public final class SyncEvent {
+
+    public enum Type {
+        /**
+         * A valid time became available, either from a sync or from the cache
+         */
+        INITIALIZED,
+        /**
+         * A resync replaced an already valid time, {@link #getDelta()} tells by how much
+         */
+        CORRECTED,
+        /**
+         * The time is not valid anymore, because the device rebooted or the cache was cleared
+         */
+        INVALIDATED,
+        /**
+         * A provider returned a sample. It may still be rejected by the selection.
+         */
+        SAMPLE
+    }
+
+    /**
+     * Listener of sync events
+     */
+    public interface Listener {
+        void onEvent(SyncEvent event);
+    }
+
+    private final Type type;
+    private final TimeSample sample;
+    private final long delta;
+
+    private SyncEvent(Type type, TimeSample sample, long delta) {
+        this.type = type;
+        this.sample = sample;
+        this.delta = delta;
+    }
+
+    /**
+     * @param sample the selected sample, or null if the time was loaded from the cache
+     */
+    public static SyncEvent initialized(@Nullable TimeSample sample) {
+        return new SyncEvent(Type.INITIALIZED, sample, 0);
+    }
+
+    /**
+     * @param sample the selected sample
+     * @param delta  the new time minus the previous time at the same moment, in milliseconds
+     */
+    public static SyncEvent corrected(TimeSample sample, long delta) {
+        return new SyncEvent(Type.CORRECTED, sample, delta);
+    }
+
+    public static SyncEvent invalidated() {
+        return new SyncEvent(Type.INVALIDATED, null, 0);
+    }
+
+    /**
+     * @param sample the sample returned by a provider
+     */
+    public static SyncEvent sample(TimeSample sample) {
+        return new SyncEvent(Type.SAMPLE, sample, 0);
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    /**
+     * @return the selected sample of INITIALIZED and CORRECTED events, the received sample of
+     * SAMPLE events, or null
+     */
+    @Nullable
+    public TimeSample getSample() {
+        return sample;
+    }
+
+    /**
+     * @return how far a CORRECTED event moved the time in milliseconds, positive if the time was
+     * moved forward, or 0 for other events
+     */
+    public long getDelta() {
+        return delta;
+    }
+
+    /**
+     * @return true if the event changes whether and which time is available, false for samples
+     */
+    public boolean isStateChange() {
+        return type != Type.SAMPLE;
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        return "SyncEvent(" + type +
+                (type == Type.CORRECTED ? ", delta=" + delta + "ms" : "") +
+                (sample != null ? ", sample=" + sample : "") + ")";
+    }
+}
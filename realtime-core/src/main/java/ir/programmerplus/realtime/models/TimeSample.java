@@ -0,0 +1,113 @@
+package ir.programmerplus.realtime.models;
+
+import androidx.annotation.NonNull;
+
+/**
+ * A single time measurement received from one of the time providers. The measured time is
+ * anchored to the device uptime at which it was valid, so it doesn't matter how long it takes
+ * until the sample is processed.
+ */
+public final class TimeSample {
+
+    private final TimeSource source;
+    private final String host;
+    private final long time;
+    private final long deviceUptime;
+    private final long deviceUptimeNanos;
+    private final long roundTripDelay;
+    private final long errorBound;
+
+    /**
+     * @param source         provider type this sample was received from
+     * @param host           host name of the provider, or the location provider name
+     * @param time           reliable time at the given device uptime
+     * @param deviceUptime   device uptime (elapsed realtime) the time belongs to
+     * @param roundTripDelay network round trip delay of the measurement, or 0 if unknown
+     * @param errorBound     maximum error of the measured time in milliseconds, in either direction
+     */
+    public TimeSample(TimeSource source, String host, long time, long deviceUptime, long roundTripDelay, long errorBound) {
+        this(source, host, time, deviceUptime, deviceUptime * 1_000_000, roundTripDelay, errorBound);
+    }
+
+    /**
+     * @param source            provider type this sample was received from
+     * @param host              host name of the provider, or the location provider name
+     * @param time              reliable time at the given device uptime
+     * @param deviceUptime      device uptime (elapsed realtime) the time belongs to
+     * @param deviceUptimeNanos the same device uptime in nanoseconds, as read from the clock
+     * @param roundTripDelay    network round trip delay of the measurement, or 0 if unknown
+     * @param errorBound        maximum error of the measured time in milliseconds, in either direction
+     */
+    public TimeSample(TimeSource source, String host, long time, long deviceUptime, long deviceUptimeNanos,
+                      long roundTripDelay, long errorBound) {
+        this.source = source;
+        this.host = host;
+        this.time = time;
+        this.deviceUptime = deviceUptime;
+        this.deviceUptimeNanos = deviceUptimeNanos;
+        this.roundTripDelay = roundTripDelay;
+        this.errorBound = errorBound;
+    }
+
+    public TimeSource getSource() {
+        return source;
+    }
+
+    public String getHost() {
+        return host;
+    }
+
+    public long getTime() {
+        return time;
+    }
+
+    public long getDeviceUptime() {
+        return deviceUptime;
+    }
+
+    public long getDeviceUptimeNanos() {
+        return deviceUptimeNanos;
+    }
+
+    public long getRoundTripDelay() {
+        return roundTripDelay;
+    }
+
+    public long getErrorBound() {
+        return errorBound;
+    }
+
+    /**
+     * The boot time doesn't depend on the uptime at which the sample was taken, so it can be used
+     * to compare samples that were received at different moments.
+     *
+     * @return reliable time at the moment of device boot according to this sample
+     */
+    public long getBootTime() {
+        return time - deviceUptime;
+    }
+
+    /**
+     * @return reliable time at the moment of device boot in nanoseconds since epoch, anchored to
+     * the nanosecond uptime of this sample
+     */
+    public long getBootTimeNanos() {
+        return time * 1_000_000 - deviceUptimeNanos;
+    }
+
+    /**
+     * @param deviceUptime current device uptime
+     * @return reliable time at the given device uptime
+     */
+    public long timeAt(long deviceUptime) {
+        return time + (deviceUptime - this.deviceUptime);
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        return "TimeSample(source=" + source + ", host=" + host + ", time=" + time +
+                ", deviceUptime=" + deviceUptime + ", roundTripDelay=" + roundTripDelay +
+                ", errorBound=" + errorBound + ")";
+    }
+}
@@ -0,0 +1,124 @@
+package ir.programmerplus.realtime.models;
+
+/**
+ * An immutable view of the cached reliable time anchor. RealTime publishes a new instance every
+ * time it syncs or clears its cache, so readers only need a single volatile read to get a
+ * consistent set of values.
+ */
+public final class TimeSnapshot {
+
+    public static final TimeSnapshot EMPTY = new TimeSnapshot(0, 0, 0);
+
+    private final long time;
+    private final long bootTime;
+    private final long deviceUptime;
+    private final double drift;
+    private final long errorBound;
+    private final long bootTimeNanos;
+    private final long deviceUptimeNanos;
+
+    /**
+     * @param time         reliable time at the moment of sync
+     * @param bootTime     reliable time at the moment of device boot
+     * @param deviceUptime device uptime (elapsed realtime) at the moment of sync
+     */
+    public TimeSnapshot(long time, long bootTime, long deviceUptime) {
+        this(time, bootTime, deviceUptime, 0, 0);
+    }
+
+    /**
+     * @param time         reliable time at the moment of sync
+     * @param bootTime     reliable time at the moment of device boot
+     * @param deviceUptime device uptime (elapsed realtime) at the moment of sync
+     * @param drift        frequency error of the uptime clock as a fraction, used to correct elapsed uptime
+     * @param errorBound   error bound of the time at the moment of sync in milliseconds
+     */
+    public TimeSnapshot(long time, long bootTime, long deviceUptime, double drift, long errorBound) {
+        this(time, bootTime, deviceUptime, drift, errorBound, bootTime * 1_000_000, deviceUptime * 1_000_000);
+    }
+
+    /**
+     * @param time              reliable time at the moment of sync
+     * @param bootTime          reliable time at the moment of device boot
+     * @param deviceUptime      device uptime (elapsed realtime) at the moment of sync
+     * @param drift             frequency error of the uptime clock as a fraction, used to correct elapsed uptime
+     * @param errorBound        error bound of the time at the moment of sync in milliseconds
+     * @param bootTimeNanos     reliable time at the moment of device boot in nanoseconds since epoch
+     * @param deviceUptimeNanos device uptime at the moment of sync in nanoseconds
+     */
+    public TimeSnapshot(long time, long bootTime, long deviceUptime, double drift, long errorBound,
+                        long bootTimeNanos, long deviceUptimeNanos) {
+        this.time = time;
+        this.bootTime = bootTime;
+        this.deviceUptime = deviceUptime;
+        this.drift = drift;
+        this.errorBound = errorBound;
+        this.bootTimeNanos = bootTimeNanos;
+        this.deviceUptimeNanos = deviceUptimeNanos;
+    }
+
+    public long getTime() {
+        return time;
+    }
+
+    public long getBootTime() {
+        return bootTime;
+    }
+
+    public long getDeviceUptime() {
+        return deviceUptime;
+    }
+
+    public double getDrift() {
+        return drift;
+    }
+
+    public long getErrorBound() {
+        return errorBound;
+    }
+
+    public long getBootTimeNanos() {
+        return bootTimeNanos;
+    }
+
+    public long getDeviceUptimeNanos() {
+        return deviceUptimeNanos;
+    }
+
+    /**
+     * @return true if any of the anchor values is missing
+     */
+    public boolean isEmpty() {
+        return time == 0 || bootTime == 0 || deviceUptime == 0;
+    }
+
+    /**
+     * This function checks if the anchor can still be used at the given device uptime. After a
+     * reboot the uptime starts from zero again and the anchor is no longer valid.
+     *
+     * @param deviceUptime current device uptime
+     * @return true if the anchor is valid
+     */
+    public boolean isValid(long deviceUptime) {
+        return bootTime != 0 && deviceUptime >= this.deviceUptime;
+    }
+
+    /**
+     * @param deviceUptime current device uptime
+     * @return reliable time at the given device uptime, corrected for the uptime clock drift
+     */
+    public long timeAt(long deviceUptime) {
+        long elapsed = deviceUptime - this.deviceUptime;
+        return time + elapsed + (long) (elapsed * drift);
+    }
+
+    /**
+     * @param deviceUptimeNanos current device uptime in nanoseconds
+     * @return reliable time at the given device uptime in nanoseconds since epoch, corrected for
+     * the uptime clock drift
+     */
+    public long timeNanosAt(long deviceUptimeNanos) {
+        long elapsed = deviceUptimeNanos - this.deviceUptimeNanos;
+        return bootTimeNanos + this.deviceUptimeNanos + elapsed + (long) (elapsed * drift);
+    }
+}
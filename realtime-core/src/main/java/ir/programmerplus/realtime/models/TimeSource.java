@@ -0,0 +1,7 @@
+package ir.programmerplus.realtime.models;
+
+public enum TimeSource {
+    NTP_SERVER,
+    TIME_SERVER,
+    GPS_PROVIDER
+}
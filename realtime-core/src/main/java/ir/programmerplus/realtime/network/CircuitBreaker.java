@@ -0,0 +1,118 @@
+package ir.programmerplus.realtime.network;
+
+import ir.programmerplus.realtime.clock.MonotonicClock;
+import ir.programmerplus.realtime.utils.LogUtils;
+
+/**
+ * CircuitBreaker stops requests to a host after it fails several times in a row. While the
+ * circuit is open, requests are not allowed until the open duration passes. Then it becomes
+ * half-open and a single trial request is let through, while the rest are rejected until its
+ * result is recorded: if it succeeds the circuit closes, otherwise it opens again.
+ */
+public class CircuitBreaker {
+
+    private static final String TAG = CircuitBreaker.class.getSimpleName();
+
+    private static final int DEFAULT_FAILURE_THRESHOLD = 5;
+    private static final long DEFAULT_OPEN_DURATION = 60 * 1000;
+
+    public enum State {
+        CLOSED,
+        OPEN,
+        HALF_OPEN
+    }
+
+    private final String host;
+    private final MonotonicClock clock;
+    private final int failureThreshold;
+    private final long openDuration;
+
+    private State state = State.CLOSED;
+    private int consecutiveFailures;
+    private long openedAt;
+    private boolean trialInFlight;
+    private long trialStartedAt;
+
+    /**
+     * @param host  host name, used for logging
+     * @param clock clock used to measure the open duration
+     */
+    public CircuitBreaker(String host, MonotonicClock clock) {
+        this(host, clock, DEFAULT_FAILURE_THRESHOLD, DEFAULT_OPEN_DURATION);
+    }
+
+    /**
+     * @param host             host name, used for logging
+     * @param clock            clock used to measure the open duration
+     * @param failureThreshold number of consecutive failures which opens the circuit
+     * @param openDuration     milliseconds the circuit stays open before a trial request is allowed
+     */
+    public CircuitBreaker(String host, MonotonicClock clock, int failureThreshold, long openDuration) {
+        this.host = host;
+        this.clock = clock;
+        this.failureThreshold = failureThreshold;
+        this.openDuration = openDuration;
+    }
+
+    public synchronized State getState() {
+        if (state == State.OPEN && getRemainingOpenTime() == 0) {
+            state = State.HALF_OPEN;
+            trialInFlight = false;
+        }
+
+        return state;
+    }
+
+    /**
+     * This function lets every request through while the circuit is closed, and only the trial
+     * request while it is half-open. A trial whose result is never recorded, e.g. because it was
+     * canceled, stops blocking other requests after the open duration.
+     *
+     * @return true if a request may be sent now
+     */
+    public synchronized boolean allowRequest() {
+        State current = getState();
+        if (current == State.CLOSED) return true;
+        if (current == State.OPEN) return false;
+
+        if (trialInFlight && clock.elapsedRealtime() - trialStartedAt < openDuration) return false;
+
+        trialInFlight = true;
+        trialStartedAt = clock.elapsedRealtime();
+        return true;
+    }
+
+    /**
+     * @return milliseconds until the circuit becomes half-open, or 0 if it is not open
+     */
+    public synchronized long getRemainingOpenTime() {
+        if (state != State.OPEN) return 0;
+
+        return Math.max(0, openedAt + openDuration - clock.elapsedRealtime());
+    }
+
+    public synchronized void onSuccess() {
+        if (state != State.CLOSED) {
+            LogUtils.d(TAG, "Circuit of " + host + " is closed.");
+        }
+
+        state = State.CLOSED;
+        consecutiveFailures = 0;
+        trialInFlight = false;
+    }
+
+    public synchronized void onFailure() {
+        consecutiveFailures++;
+
+        // a failed trial request opens the circuit again right away
+        if (getState() == State.HALF_OPEN || consecutiveFailures >= failureThreshold) {
+            if (state != State.OPEN) {
+                LogUtils.d(TAG, "Circuit of " + host + " is open after " + consecutiveFailures + " failures.");
+            }
+
+            state = State.OPEN;
+            openedAt = clock.elapsedRealtime();
+            trialInFlight = false;
+        }
+    }
+}
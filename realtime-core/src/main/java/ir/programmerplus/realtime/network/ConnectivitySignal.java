@@ -0,0 +1,33 @@
+package ir.programmerplus.realtime.network;
+
+/**
+ * ConnectivitySignal tells the engine when network providers can be requested. Listeners are
+ * called with the current state right after they are added, and again whenever it changes.
+ */
+public interface ConnectivitySignal {
+
+    /**
+     * Signal for environments which are always online, like backend services
+     */
+    ConnectivitySignal ALWAYS_CONNECTED = new ConnectivitySignal() {
+        @Override
+        public void addListener(Listener listener) {
+            listener.onConnectivityChanged(true);
+        }
+
+        @Override
+        public void removeListener(Listener listener) {
+        }
+    };
+
+    interface Listener {
+        /**
+         * @param connected true if network connection is available
+         */
+        void onConnectivityChanged(boolean connected);
+    }
+
+    void addListener(Listener listener);
+
+    void removeListener(Listener listener);
+}
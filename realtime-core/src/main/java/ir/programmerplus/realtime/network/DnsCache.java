@@ -0,0 +1,281 @@
+package ir.programmerplus.realtime.network;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.URL;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import io.reactivex.Completable;
+import io.reactivex.Flowable;
+import io.reactivex.schedulers.Schedulers;
+import ir.programmerplus.realtime.clock.MonotonicClock;
+import ir.programmerplus.realtime.utils.LazyFile;
+import ir.programmerplus.realtime.utils.LogUtils;
+import ir.programmerplus.realtime.utils.SnapshotStore;
+
+/**
+ * DnsCache keeps resolved addresses of provider hosts, so retries don't have to wait for the
+ * same lookup again and again. Successful lookups are kept for {@link #POSITIVE_TTL} and failed
+ * ones for {@link #NEGATIVE_TTL}. Platform resolvers don't expose record TTLs, so these are
+ * fixed values.
+ * <p>
+ * The last good addresses are also written to disk. After process start they are used for the
+ * first attempt right away, while a fresh lookup runs in the background. A failed lookup never
+ * replaces them: they are served stale until a later lookup succeeds, so one transient DNS
+ * failure doesn't take a working host away.
+ */
+public class DnsCache {
+
+    private static final String TAG = DnsCache.class.getSimpleName();
+
+    private static final long POSITIVE_TTL = 5 * 60 * 1000;
+    private static final long NEGATIVE_TTL = 30 * 1000;
+
+    private static final int FILE_VERSION = 1;
+
+    private static class Entry {
+        // last good addresses, kept when a later lookup fails
+        final InetAddress[] addresses;
+        final UnknownHostException error;
+        final long expiresAt;
+
+        Entry(InetAddress[] addresses, UnknownHostException error, long expiresAt) {
+            this.addresses = addresses;
+            this.error = error;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    private final LazyFile file;
+    private final MonotonicClock clock;
+    private final ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Object> locks = new ConcurrentHashMap<>();
+    private boolean loaded;
+
+    /**
+     * @param file  file used to persist last good addresses
+     * @param clock clock used to expire cached lookups
+     */
+    public DnsCache(File file, MonotonicClock clock) {
+        this(new LazyFile(file), clock);
+    }
+
+    /**
+     * @param file  file used to persist last good addresses, resolved on first use
+     * @param clock clock used to expire cached lookups
+     */
+    public DnsCache(LazyFile file, MonotonicClock clock) {
+        this.file = file;
+        this.clock = clock;
+    }
+
+    /**
+     * This function returns an address of the host. Cached results are used as long as they are
+     * not expired, and concurrent lookups of the same host wait for a single lookup.
+     *
+     * @param host host name
+     * @return resolved address, or the last good one if the host can't be resolved now
+     * @throws UnknownHostException if the host couldn't be resolved now or within the negative TTL,
+     *                              and it has never been resolved before
+     */
+    public InetAddress resolve(String host) throws UnknownHostException {
+        load();
+
+        Entry entry = entries.get(host);
+
+        if (entry != null && clock.elapsedRealtime() < entry.expiresAt) {
+            if (entry.addresses == null) throw entry.error;
+            return entry.addresses[0];
+        }
+
+        // stale addresses, loaded from disk or kept after a failure, are used once and refreshed in the background
+        if (entry != null && entry.expiresAt == 0 && entry.addresses != null) {
+            LogUtils.v(TAG, "Using stale address of " + host);
+            prefetch(host);
+            return entry.addresses[0];
+        }
+
+        return lookup(host).addresses[0];
+    }
+
+    /**
+     * This function resolves all hosts in parallel in the background. Time server hosts may be
+     * passed as URLs, which warms up the platform resolver for their connections.
+     *
+     * @param hosts host names or URLs
+     */
+    public void prefetch(Collection<String> hosts) {
+        //noinspection ResultOfMethodCallIgnored
+        Flowable.fromIterable(hosts)
+                .flatMapCompletable(this::prefetchCompletable)
+                .subscribe(() -> {
+                }, throwable -> LogUtils.w(TAG, "Exception while prefetching hosts: ", throwable));
+    }
+
+    private void prefetch(String host) {
+        //noinspection ResultOfMethodCallIgnored
+        prefetchCompletable(host).subscribe();
+    }
+
+    private Completable prefetchCompletable(String host) {
+        return Completable.fromAction(() -> lookup(toHostName(host)))
+                .subscribeOn(Schedulers.io())
+                .onErrorComplete();
+    }
+
+    /**
+     * This function removes failed lookups, so hosts are resolved again as soon as network
+     * connection becomes available. Last good addresses of failed hosts are kept stale.
+     */
+    public void clearNegativeEntries() {
+        for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+            Entry value = entry.getValue();
+            if (value.error == null) continue;
+
+            if (value.addresses == null) {
+                entries.remove(entry.getKey(), value);
+            } else {
+                entries.replace(entry.getKey(), value, new Entry(value.addresses, null, 0));
+            }
+        }
+    }
+
+    private Entry lookup(String host) throws UnknownHostException {
+        load();
+
+        Object lock = locks.get(host);
+        if (lock == null) {
+            Object newLock = new Object();
+            lock = locks.putIfAbsent(host, newLock);
+            if (lock == null) lock = newLock;
+        }
+
+        synchronized (lock) {
+            // another thread may have resolved the host while we were waiting
+            Entry entry = entries.get(host);
+            if (entry != null && clock.elapsedRealtime() < entry.expiresAt) {
+                if (entry.addresses == null) throw entry.error;
+                return entry;
+            }
+
+            try {
+                InetAddress[] addresses = InetAddress.getAllByName(host);
+                entry = new Entry(addresses, null, clock.elapsedRealtime() + POSITIVE_TTL);
+                entries.put(host, entry);
+
+                save();
+                return entry;
+
+            } catch (UnknownHostException e) {
+                LogUtils.w(TAG, "Couldn't resolve " + host + ": " + e.getMessage());
+
+                // serve stale: the last good addresses are kept until a lookup succeeds again
+                InetAddress[] lastAddresses = entry != null ? entry.addresses : null;
+                Entry failedEntry = new Entry(lastAddresses, e, clock.elapsedRealtime() + NEGATIVE_TTL);
+                entries.put(host, failedEntry);
+
+                if (lastAddresses == null) throw e;
+
+                LogUtils.v(TAG, "Using stale address of " + host);
+                return failedEntry;
+            }
+        }
+    }
+
+    private static String toHostName(String host) {
+        if (!host.contains("://")) return host;
+
+        try {
+            return new URL(host).getHost();
+        } catch (IOException e) {
+            return host;
+        }
+    }
+
+    /**
+     * This function loads persisted addresses once. They are marked as expired, so they are only
+     * used until a fresh lookup completes.
+     */
+    private synchronized void load() {
+        if (loaded) return;
+        loaded = true;
+
+        File source;
+        try {
+            source = file.get();
+        } catch (IllegalStateException e) {
+            LogUtils.w(TAG, "Couldn't load persisted addresses: " + e.getMessage());
+            return;
+        }
+
+        if (!source.exists()) return;
+
+        try (DataInputStream inputStream = new DataInputStream(new FileInputStream(source))) {
+            if (inputStream.readInt() != FILE_VERSION) return;
+
+            int hostCount = inputStream.readInt();
+            for (int i = 0; i < hostCount; i++) {
+                String host = inputStream.readUTF();
+                InetAddress[] addresses = new InetAddress[inputStream.readInt()];
+
+                for (int j = 0; j < addresses.length; j++) {
+                    byte[] address = new byte[inputStream.readUnsignedByte()];
+                    inputStream.readFully(address);
+                    addresses[j] = InetAddress.getByAddress(host, address);
+                }
+
+                if (addresses.length > 0) {
+                    entries.putIfAbsent(host, new Entry(addresses, null, 0));
+                }
+            }
+
+        } catch (IOException e) {
+            LogUtils.w(TAG, "Couldn't load persisted addresses: " + e.getMessage());
+        }
+    }
+
+    private synchronized void save() {
+        try {
+            ByteArrayOutputStream byteStream = new ByteArrayOutputStream();
+            DataOutputStream outputStream = new DataOutputStream(byteStream);
+
+            List<Map.Entry<String, Entry>> resolvedEntries = new ArrayList<>();
+            for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+                if (entry.getValue().addresses != null) resolvedEntries.add(entry);
+            }
+
+            outputStream.writeInt(FILE_VERSION);
+            outputStream.writeInt(resolvedEntries.size());
+
+            for (Map.Entry<String, Entry> entry : resolvedEntries) {
+                InetAddress[] addresses = entry.getValue().addresses;
+
+                outputStream.writeUTF(entry.getKey());
+                outputStream.writeInt(addresses.length);
+
+                for (InetAddress address : addresses) {
+                    byte[] bytes = address.getAddress();
+                    outputStream.writeByte(bytes.length);
+                    outputStream.write(bytes);
+                }
+            }
+
+            outputStream.flush();
+            SnapshotStore.writeAtomically(file.get(), byteStream.toByteArray(), byteStream.size());
+
+        } catch (IOException e) {
+            LogUtils.w(TAG, "Couldn't persist addresses: " + e.getMessage());
+        }
+    }
+}
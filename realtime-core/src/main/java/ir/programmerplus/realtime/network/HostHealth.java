@@ -0,0 +1,254 @@
+package ir.programmerplus.realtime.network;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import ir.programmerplus.realtime.clock.MonotonicClock;
+import ir.programmerplus.realtime.utils.LazyFile;
+import ir.programmerplus.realtime.utils.LogUtils;
+import ir.programmerplus.realtime.utils.SnapshotStore;
+
+/**
+ * HostHealth remembers how each provider host behaved in previous syncs: an exponentially
+ * weighted moving average of its round trip latency, its success and failure counts, and how
+ * far its samples were from the selected time. Stats are persisted, so hosts that are slow,
+ * blocked or wrong are tried last after a restart as well. Skip periods are measured with the
+ * monotonic clock, and the time since the last failure is persisted instead of the failure
+ * time, so moving the device clock doesn't end or extend them.
+ */
+public class HostHealth {
+
+    private static final String TAG = HostHealth.class.getSimpleName();
+
+    private static final int FILE_VERSION = 2;
+
+    private static final double EWMA_WEIGHT = 0.25;
+
+    // latency assumed for hosts we don't know anything about yet
+    private static final double DEFAULT_LATENCY = 1000;
+
+    // hosts failing this many times in a row are tried last for a while
+    private static final int SKIP_FAILURE_THRESHOLD = 3;
+    private static final long SKIP_BASE_DURATION = 60 * 1000;
+    private static final long SKIP_MAX_DURATION = 24 * 60 * 60 * 1000;
+
+    private static class Stats {
+        double latency = DEFAULT_LATENCY;
+        double offsetDeviation;
+        long successCount;
+        long failureCount;
+        int consecutiveFailures;
+        long lastFailureUptime;
+
+        /**
+         * Expected cost of requesting the host, latency divided by the smoothed success rate,
+         * plus the usual deviation of its samples from the selected time.
+         */
+        double score() {
+            double successRate = (successCount + 1.0) / (successCount + failureCount + 2.0);
+            return latency / successRate + offsetDeviation;
+        }
+
+        boolean isSkipped(long uptime) {
+            if (consecutiveFailures < SKIP_FAILURE_THRESHOLD) return false;
+
+            int exponent = Math.min(consecutiveFailures - SKIP_FAILURE_THRESHOLD, 20);
+            long skipDuration = Math.min(SKIP_MAX_DURATION, SKIP_BASE_DURATION << exponent);
+
+            return uptime - lastFailureUptime < skipDuration;
+        }
+    }
+
+    private final LazyFile file;
+    private final MonotonicClock clock;
+    private final Map<String, Stats> stats = new HashMap<>();
+    private boolean loaded;
+
+    /**
+     * @param file  file used to persist host stats
+     * @param clock clock used to measure skip periods
+     */
+    public HostHealth(File file, MonotonicClock clock) {
+        this(new LazyFile(file), clock);
+    }
+
+    /**
+     * @param file  file used to persist host stats, resolved on first use
+     * @param clock clock used to measure skip periods
+     */
+    public HostHealth(LazyFile file, MonotonicClock clock) {
+        this.file = file;
+        this.clock = clock;
+    }
+
+    /**
+     * @param host    host name
+     * @param latency round trip latency of the successful request
+     */
+    public synchronized void recordSuccess(String host, long latency) {
+        Stats hostStats = getStats(host);
+
+        hostStats.latency = hostStats.successCount == 0 ? latency : ewma(hostStats.latency, latency);
+        hostStats.successCount++;
+        hostStats.consecutiveFailures = 0;
+    }
+
+    /**
+     * @param host host name
+     */
+    public synchronized void recordFailure(String host) {
+        Stats hostStats = getStats(host);
+
+        hostStats.failureCount++;
+        hostStats.consecutiveFailures++;
+        hostStats.lastFailureUptime = clock.elapsedRealtime();
+    }
+
+    /**
+     * @param host      host name
+     * @param deviation absolute difference between the host's sample and the selected time
+     */
+    public synchronized void recordOffsetDeviation(String host, long deviation) {
+        Stats hostStats = getStats(host);
+        hostStats.offsetDeviation = ewma(hostStats.offsetDeviation, deviation);
+    }
+
+    /**
+     * This function orders hosts by their expected cost, the best one first. Hosts that failed
+     * several times in a row are moved to the end of the list until their skip period, which
+     * doubles with every failure, is over. Hosts with equal stats keep their original order.
+     *
+     * @param hosts hosts to order
+     * @return ordered hosts
+     */
+    public synchronized List<String> rank(Collection<String> hosts) {
+        load();
+
+        long uptime = clock.elapsedRealtime();
+        List<String> available = new ArrayList<>();
+        List<String> skipped = new ArrayList<>();
+
+        for (String host : hosts) {
+            Stats hostStats = stats.get(host);
+
+            if (hostStats != null && hostStats.isSkipped(uptime)) {
+                LogUtils.v(TAG, "Host " + host + " failed " + hostStats.consecutiveFailures + " times in a row, trying it last.");
+                skipped.add(host);
+            } else {
+                available.add(host);
+            }
+        }
+
+        Collections.sort(available, (first, second) -> Double.compare(score(first), score(second)));
+        Collections.sort(skipped, (first, second) -> Double.compare(score(first), score(second)));
+
+        available.addAll(skipped);
+        return available;
+    }
+
+    private double score(String host) {
+        Stats hostStats = stats.get(host);
+        return hostStats == null ? new Stats().score() : hostStats.score();
+    }
+
+    private Stats getStats(String host) {
+        load();
+
+        Stats hostStats = stats.get(host);
+        if (hostStats == null) {
+            hostStats = new Stats();
+            stats.put(host, hostStats);
+        }
+
+        return hostStats;
+    }
+
+    private static double ewma(double average, double value) {
+        return average + EWMA_WEIGHT * (value - average);
+    }
+
+    private void load() {
+        if (loaded) return;
+        loaded = true;
+
+        File source;
+        try {
+            source = file.get();
+        } catch (IllegalStateException e) {
+            LogUtils.w(TAG, "Couldn't load host stats: " + e.getMessage());
+            return;
+        }
+
+        if (!source.exists()) return;
+
+        try (DataInputStream inputStream = new DataInputStream(new FileInputStream(source))) {
+            if (inputStream.readInt() != FILE_VERSION) return;
+
+            // time between the save and this load is unknown, so skip periods resume where they were
+            long uptime = clock.elapsedRealtime();
+
+            int hostCount = inputStream.readInt();
+            for (int i = 0; i < hostCount; i++) {
+                String host = inputStream.readUTF();
+
+                Stats hostStats = new Stats();
+                hostStats.latency = inputStream.readDouble();
+                hostStats.offsetDeviation = inputStream.readDouble();
+                hostStats.successCount = inputStream.readLong();
+                hostStats.failureCount = inputStream.readLong();
+                hostStats.consecutiveFailures = inputStream.readInt();
+                hostStats.lastFailureUptime = uptime - inputStream.readLong();
+
+                stats.put(host, hostStats);
+            }
+
+        } catch (IOException e) {
+            LogUtils.w(TAG, "Couldn't load host stats: " + e.getMessage());
+        }
+    }
+
+    /**
+     * This function writes host stats to disk atomically
+     */
+    public synchronized void save() {
+        if (!loaded) return;
+
+        try {
+            ByteArrayOutputStream byteStream = new ByteArrayOutputStream();
+            DataOutputStream outputStream = new DataOutputStream(byteStream);
+
+            long uptime = clock.elapsedRealtime();
+
+            outputStream.writeInt(FILE_VERSION);
+            outputStream.writeInt(stats.size());
+
+            for (Map.Entry<String, Stats> entry : stats.entrySet()) {
+                Stats hostStats = entry.getValue();
+
+                outputStream.writeUTF(entry.getKey());
+                outputStream.writeDouble(hostStats.latency);
+                outputStream.writeDouble(hostStats.offsetDeviation);
+                outputStream.writeLong(hostStats.successCount);
+                outputStream.writeLong(hostStats.failureCount);
+                outputStream.writeInt(hostStats.consecutiveFailures);
+                outputStream.writeLong(uptime - hostStats.lastFailureUptime);
+            }
+
+            outputStream.flush();
+            SnapshotStore.writeAtomically(file.get(), byteStream.toByteArray(), byteStream.size());
+
+        } catch (IOException e) {
+            LogUtils.w(TAG, "Couldn't save host stats: " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,162 @@
+package ir.programmerplus.realtime.network;
+
+/**
+ * HttpDateParser parses HTTP "Date" header values. All HTTP/1.1 servers are required to send the
+ * RFC 1123 format, for example "Sun, 06 Nov 1994 08:49:37 GMT", but recipients must also accept
+ * the obsolete RFC 850 format, "Sunday, 06-Nov-94 08:49:37 GMT", and the ANSI C asctime()
+ * format, "Sun Nov  6 08:49:37 1994", which some old servers and proxies still send.
+ * <p>
+ * Unlike {@link java.text.SimpleDateFormat}, it is stateless and thread-safe, and it doesn't
+ * allocate any object while parsing.
+ */
+public abstract class HttpDateParser {
+
+    /**
+     * The value returned by {@link #parse(CharSequence)} when the date is not valid
+     */
+    public static final long INVALID_DATE = Long.MIN_VALUE;
+
+    private static final String MONTHS = "JanFebMarAprMayJunJulAugSepOctNovDec";
+
+    private static final int IMF_FIXDATE_LENGTH = 29;
+    private static final int ASCTIME_LENGTH = 24;
+
+    // "06-Nov-94 08:49:37 GMT" after the day name and ", "
+    private static final int RFC_850_DATE_LENGTH = 22;
+    // "Monday" to "Wednesday"
+    private static final int MIN_DAY_NAME_LENGTH = 6;
+    private static final int MAX_DAY_NAME_LENGTH = 9;
+
+    // two digit years below this are in the 21st century
+    private static final int TWO_DIGIT_YEAR_PIVOT = 70;
+
+    /**
+     * @param value header value
+     * @return milliseconds since epoch, or {@link #INVALID_DATE} if value is not a valid HTTP date
+     */
+    public static long parse(CharSequence value) {
+        if (value == null) return INVALID_DATE;
+
+        if (value.length() == IMF_FIXDATE_LENGTH && value.charAt(3) == ',') {
+            return parseImfFixdate(value);
+        } else if (value.length() == ASCTIME_LENGTH) {
+            return parseAsctime(value);
+        } else {
+            return parseRfc850(value);
+        }
+    }
+
+    /**
+     * Sun, 06 Nov 1994 08:49:37 GMT
+     */
+    private static long parseImfFixdate(CharSequence value) {
+        if (value.charAt(4) != ' ' || value.charAt(7) != ' ' || value.charAt(11) != ' ' ||
+                !isTimeOfDay(value, 17) || value.charAt(25) != ' ' || !isGmt(value, 26)) {
+            return INVALID_DATE;
+        }
+
+        return toMillis(parseDigits(value, 12, 4), parseMonth(value, 8), parseDigits(value, 5, 2),
+                parseDigits(value, 17, 2), parseDigits(value, 20, 2), parseDigits(value, 23, 2));
+    }
+
+    /**
+     * Sunday, 06-Nov-94 08:49:37 GMT
+     */
+    private static long parseRfc850(CharSequence value) {
+        int start = value.length() - RFC_850_DATE_LENGTH;
+        int comma = start - 2;
+
+        if (comma < MIN_DAY_NAME_LENGTH || comma > MAX_DAY_NAME_LENGTH ||
+                value.charAt(comma) != ',' || value.charAt(comma + 1) != ' ' ||
+                value.charAt(start + 2) != '-' || value.charAt(start + 6) != '-' ||
+                value.charAt(start + 9) != ' ' || !isTimeOfDay(value, start + 10) ||
+                value.charAt(start + 18) != ' ' || !isGmt(value, start + 19)) {
+            return INVALID_DATE;
+        }
+
+        int year = parseDigits(value, start + 7, 2);
+        if (year != -1) year += year < TWO_DIGIT_YEAR_PIVOT ? 2000 : 1900;
+
+        return toMillis(year, parseMonth(value, start + 3), parseDigits(value, start, 2),
+                parseDigits(value, start + 10, 2), parseDigits(value, start + 13, 2), parseDigits(value, start + 16, 2));
+    }
+
+    /**
+     * Sun Nov  6 08:49:37 1994
+     */
+    private static long parseAsctime(CharSequence value) {
+        if (value.charAt(3) != ' ' || value.charAt(7) != ' ' || value.charAt(10) != ' ' ||
+                !isTimeOfDay(value, 11) || value.charAt(19) != ' ') {
+            return INVALID_DATE;
+        }
+
+        // days below 10 are padded with a space
+        int day = value.charAt(8) == ' ' ? parseDigits(value, 9, 1) : parseDigits(value, 8, 2);
+
+        return toMillis(parseDigits(value, 20, 4), parseMonth(value, 4), day,
+                parseDigits(value, 11, 2), parseDigits(value, 14, 2), parseDigits(value, 17, 2));
+    }
+
+    /**
+     * @return true if the separators of "HH:mm:ss" starting at the given index are in place
+     */
+    private static boolean isTimeOfDay(CharSequence value, int start) {
+        return value.charAt(start + 2) == ':' && value.charAt(start + 5) == ':';
+    }
+
+    private static boolean isGmt(CharSequence value, int start) {
+        return value.charAt(start) == 'G' && value.charAt(start + 1) == 'M' && value.charAt(start + 2) == 'T';
+    }
+
+    private static long toMillis(int year, int month, int day, int hour, int minute, int second) {
+        if (day < 1 || day > 31 || month < 1 || year < 1970 || hour < 0 || hour > 23 ||
+                minute < 0 || minute > 59 || second < 0 || second > 60) {
+            return INVALID_DATE;
+        }
+
+        long days = daysFromCivil(year, month, day);
+        return (((days * 24 + hour) * 60 + minute) * 60 + second) * 1000;
+    }
+
+    private static int parseDigits(CharSequence value, int start, int count) {
+        int result = 0;
+
+        for (int i = start; i < start + count; i++) {
+            char c = value.charAt(i);
+            if (c < '0' || c > '9') return -1;
+
+            result = result * 10 + (c - '0');
+        }
+
+        return result;
+    }
+
+    private static int parseMonth(CharSequence value, int start) {
+        for (int month = 0; month < 12; month++) {
+            int offset = month * 3;
+
+            if (MONTHS.charAt(offset) == value.charAt(start) &&
+                    MONTHS.charAt(offset + 1) == value.charAt(start + 1) &&
+                    MONTHS.charAt(offset + 2) == value.charAt(start + 2)) {
+                return month + 1;
+            }
+        }
+
+        return -1;
+    }
+
+    /**
+     * This function returns number of days since epoch for a date in the proleptic Gregorian
+     * calendar. See: https://howardhinnant.github.io/date_algorithms.html#days_from_civil
+     */
+    private static long daysFromCivil(int year, int month, int day) {
+        year -= month <= 2 ? 1 : 0;
+
+        long era = year / 400;
+        long yearOfEra = year - era * 400;
+        long dayOfYear = (153L * (month + (month > 2 ? -3 : 9)) + 2) / 5 + day - 1;
+        long dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+
+        return era * 146097 + dayOfEra - 719468;
+    }
+}
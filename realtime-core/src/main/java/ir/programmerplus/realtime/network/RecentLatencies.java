@@ -0,0 +1,49 @@
+package ir.programmerplus.realtime.network;
+
+import java.util.Arrays;
+
+/**
+ * RecentLatencies keeps the latest request latencies in a ring buffer and answers percentile
+ * queries over them. It is used to decide how long to wait for a host before hedging the
+ * request with the next one.
+ */
+public class RecentLatencies {
+
+    private final long[] latencies;
+    private final long[] sortBuffer;
+    private int count;
+    private int next;
+
+    /**
+     * @param capacity number of latest latencies to keep
+     */
+    public RecentLatencies(int capacity) {
+        this.latencies = new long[capacity];
+        this.sortBuffer = new long[capacity];
+    }
+
+    public synchronized void record(long latency) {
+        latencies[next] = latency;
+        next = (next + 1) % latencies.length;
+        count = Math.min(count + 1, latencies.length);
+    }
+
+    public synchronized int size() {
+        return count;
+    }
+
+    /**
+     * @param percentile percentile between 0 and 100
+     * @param fallback   value returned when no latency has been recorded yet
+     * @return the given percentile of recorded latencies
+     */
+    public synchronized long percentile(double percentile, long fallback) {
+        if (count == 0) return fallback;
+
+        System.arraycopy(latencies, 0, sortBuffer, 0, count);
+        Arrays.sort(sortBuffer, 0, count);
+
+        int index = (int) Math.ceil(percentile / 100 * count) - 1;
+        return sortBuffer[Math.max(0, Math.min(count - 1, index))];
+    }
+}
@@ -0,0 +1,48 @@
+package ir.programmerplus.realtime.network;
+
+import ir.programmerplus.realtime.clock.MonotonicClock;
+
+/**
+ * RetryBudget limits the total number of retries per minute across all providers and hosts it
+ * is shared by. Retries reserve a slot using the generic cell rate algorithm: up to the whole
+ * budget can be used at once, after that retries are spread evenly over the minute.
+ */
+public class RetryBudget {
+
+    public static final int DEFAULT_RETRIES_PER_MINUTE = 30;
+
+    private static final long WINDOW = 60 * 1000;
+
+    private final MonotonicClock clock;
+    private final long emissionInterval;
+    private final long tolerance;
+
+    // theoretical arrival time of the next retry
+    private long nextRetryTime;
+
+    /**
+     * @param retriesPerMinute maximum number of retries per minute
+     * @param clock            clock used to spread retries over time
+     */
+    public RetryBudget(int retriesPerMinute, MonotonicClock clock) {
+        this.clock = clock;
+        this.emissionInterval = WINDOW / Math.max(1, retriesPerMinute);
+        this.tolerance = WINDOW - emissionInterval;
+    }
+
+    /**
+     * This function reserves a retry no sooner than the given delay.
+     *
+     * @param delay requested delay in milliseconds
+     * @return delay in milliseconds after which the retry fits in the budget, at least the requested delay
+     */
+    public synchronized long reserve(long delay) {
+        long retryTime = clock.elapsedRealtime() + delay;
+        long arrivalTime = Math.max(nextRetryTime, retryTime);
+        long allowedTime = Math.max(retryTime, arrivalTime - tolerance);
+
+        nextRetryTime = arrivalTime + emissionInterval;
+
+        return delay + (allowedTime - retryTime);
+    }
+}
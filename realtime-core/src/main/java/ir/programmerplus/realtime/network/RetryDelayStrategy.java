@@ -0,0 +1,17 @@
+package ir.programmerplus.realtime.network;
+
+
+public enum RetryDelayStrategy {
+    CONSTANT_DELAY,
+    RETRY_COUNT,
+    CONSTANT_DELAY_TIMES_RETRY_COUNT,
+    CONSTANT_DELAY_RAISED_TO_RETRY_COUNT,
+    /**
+     * A random delay between zero and the exponential backoff delay, capped by max delay
+     */
+    FULL_JITTER,
+    /**
+     * A random delay between the base delay and three times the previous delay, capped by max delay
+     */
+    DECORRELATED_JITTER
+}
@@ -0,0 +1,221 @@
+package ir.programmerplus.realtime.network;
+
+import org.reactivestreams.Publisher;
+
+import java.text.MessageFormat;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import androidx.annotation.NonNull;
+import io.reactivex.Flowable;
+import io.reactivex.functions.Function;
+import ir.programmerplus.realtime.utils.LogUtils;
+
+import static java.util.Objects.requireNonNull;
+
+public class RetryWithDelay implements Function<Flowable<? extends Throwable>, Publisher<Object>> {
+
+    private static final String TAG = RetryWithDelay.class.getSimpleName();
+
+    private static final Random random = new Random();
+
+    /**
+     * Listener of retries, e.g. to count them in metrics
+     */
+    public interface RetryListener {
+        /**
+         * Called when a retry is scheduled
+         *
+         * @param host       host of the request
+         * @param retryCount number of the retry, starting from 1
+         * @param delay      delay before the retry in milliseconds
+         */
+        void onRetry(String host, int retryCount, long delay);
+    }
+
+    private final String host;
+
+    private final int maxRetries;
+    private final long mexDelaySeconds;
+    private final long retryDelaySeconds;
+    private final RetryDelayStrategy retryDelayStrategy;
+    private final CircuitBreaker circuitBreaker;
+    private final RetryBudget retryBudget;
+    private final RetryListener retryListener;
+
+    private RetryWithDelay(String host, int maxRetries, long mexDelaySeconds, long retryDelaySeconds, RetryDelayStrategy retryDelayStrategy,
+                           CircuitBreaker circuitBreaker, RetryBudget retryBudget, RetryListener retryListener) {
+        this.host = host == null ? "" : host;
+        this.maxRetries = maxRetries;
+        this.mexDelaySeconds = mexDelaySeconds;
+        this.retryDelaySeconds = retryDelaySeconds;
+        this.retryDelayStrategy = retryDelayStrategy;
+        this.circuitBreaker = circuitBreaker;
+        this.retryBudget = retryBudget;
+        this.retryListener = retryListener;
+    }
+
+    public static RetryWithDelayBuilder builder() {
+        return new RetryWithDelayBuilder();
+    }
+
+    @Override
+    public Publisher<Object> apply(Flowable<? extends Throwable> attempts) {
+        // retry state belongs to this subscription, so resubscribing starts from scratch
+        int[] retryCount = {0};
+        long[] previousDelay = {0};
+
+        return attempts
+                .concatMap((Function<Throwable, Flowable<?>>) throwable -> {
+                    if (circuitBreaker != null) {
+                        circuitBreaker.onFailure();
+                    }
+
+                    if (++retryCount[0] <= maxRetries) {
+                        // When this Observable calls onNext, the original
+                        // Observable will be retried (i.e. resubscribed).
+                        long delay = delayMillis(retryCount[0], previousDelay[0]);
+                        previousDelay[0] = delay;
+
+                        // wait until an open circuit lets a trial request through
+                        if (circuitBreaker != null) {
+                            delay = Math.max(delay, circuitBreaker.getRemainingOpenTime());
+                        }
+
+                        if (retryBudget != null) {
+                            delay = retryBudget.reserve(delay);
+                        }
+
+                        if (retryListener != null) {
+                            retryListener.onRetry(host, retryCount[0], delay);
+                        }
+
+                        LogUtils.d(TAG, MessageFormat.format("RealTime: Retrying {0}... attempt #{1} in {2} millisecond(s).", host, retryCount[0], delay));
+                        return Flowable.timer(delay, TimeUnit.MILLISECONDS);
+                    }
+
+                    // Max retries hit. Just pass the error along.
+                    LogUtils.w(TAG, MessageFormat.format("RealTime {0}: Exhausted all retries: {1}.", host, maxRetries));
+                    return Flowable.error(throwable);
+                });
+    }
+
+    /**
+     * This function calculates the delay before a retry according to the retry delay strategy.
+     *
+     * @param retryCount    number of the retry, starting from 1
+     * @param previousDelay delay of the previous retry in milliseconds, used by decorrelated jitter
+     * @return delay in milliseconds
+     */
+    public long delayMillis(int retryCount, long previousDelay) {
+        requireNonNull(retryDelayStrategy, "RetryDelayStrategy must not be null.");
+
+        long baseDelay = TimeUnit.SECONDS.toMillis(retryDelaySeconds);
+        long maxDelay = mexDelaySeconds > 0 ? TimeUnit.SECONDS.toMillis(mexDelaySeconds) : Long.MAX_VALUE;
+
+        return switch (retryDelayStrategy) {
+            case CONSTANT_DELAY -> baseDelay;
+            case RETRY_COUNT -> TimeUnit.SECONDS.toMillis(retryCount);
+            case CONSTANT_DELAY_TIMES_RETRY_COUNT -> Math.min(saturatedMultiply(baseDelay, retryCount), maxDelay);
+            case CONSTANT_DELAY_RAISED_TO_RETRY_COUNT -> TimeUnit.SECONDS.toMillis(saturatedPower(retryDelaySeconds, retryCount, mexDelaySeconds > 0 ? mexDelaySeconds : Long.MAX_VALUE / 1000));
+            case FULL_JITTER -> randomBetween(0, Math.min(saturatedMultiply(baseDelay, saturatedPower(2, retryCount - 1, Long.MAX_VALUE)), maxDelay));
+            case DECORRELATED_JITTER -> Math.min(randomBetween(baseDelay, saturatedMultiply(Math.max(previousDelay, baseDelay), 3)), maxDelay);
+        };
+    }
+
+    /**
+     * @return product of two non-negative values, or Long.MAX_VALUE if it overflows
+     */
+    private static long saturatedMultiply(long first, long second) {
+        if (first != 0 && second > Long.MAX_VALUE / first) return Long.MAX_VALUE;
+
+        return first * second;
+    }
+
+    /**
+     * @return base raised to exponent, or limit if the result would be larger than limit
+     */
+    private static long saturatedPower(long base, int exponent, long limit) {
+        long result = 1;
+
+        for (int i = 0; i < exponent; i++) {
+            result = saturatedMultiply(result, base);
+            if (result >= limit) return limit;
+        }
+
+        return result;
+    }
+
+    private static long randomBetween(long min, long max) {
+        if (max <= min) return min;
+
+        return min + (long) (random.nextDouble() * (max - min));
+    }
+
+    public static class RetryWithDelayBuilder {
+        private String host;
+        private int maxRetries;
+        private long mexDelaySeconds;
+        private long retryDelaySeconds;
+        private RetryDelayStrategy retryDelayStrategy;
+        private CircuitBreaker circuitBreaker;
+        private RetryBudget retryBudget;
+        private RetryListener retryListener;
+
+        RetryWithDelayBuilder() {
+        }
+
+        public RetryWithDelayBuilder maxRetries(int maxRetries) {
+            this.maxRetries = maxRetries;
+            return this;
+        }
+
+        public RetryWithDelayBuilder mexDelaySeconds(long mexDelaySeconds) {
+            this.mexDelaySeconds = mexDelaySeconds;
+            return this;
+        }
+
+        public RetryWithDelayBuilder retryDelaySeconds(long retryDelaySeconds) {
+            this.retryDelaySeconds = retryDelaySeconds;
+            return this;
+        }
+
+        public RetryWithDelayBuilder retryDelayStrategy(RetryDelayStrategy retryDelayStrategy) {
+            this.retryDelayStrategy = retryDelayStrategy;
+            return this;
+        }
+
+        public RetryWithDelayBuilder host(String host) {
+            this.host = host;
+            return this;
+        }
+
+        public RetryWithDelayBuilder circuitBreaker(CircuitBreaker circuitBreaker) {
+            this.circuitBreaker = circuitBreaker;
+            return this;
+        }
+
+        public RetryWithDelayBuilder retryBudget(RetryBudget retryBudget) {
+            this.retryBudget = retryBudget;
+            return this;
+        }
+
+        public RetryWithDelayBuilder retryListener(RetryListener retryListener) {
+            this.retryListener = retryListener;
+            return this;
+        }
+
+        public RetryWithDelay build() {
+            return new RetryWithDelay(host, maxRetries, mexDelaySeconds, retryDelaySeconds, retryDelayStrategy, circuitBreaker, retryBudget,
+                    retryListener);
+        }
+
+        @NonNull
+        public String toString() {
+            return "RetryWithDelay.RetryWithDelayBuilder(maxRetries=" + this.maxRetries +
+                    ", mexDelaySeconds=" + this.mexDelaySeconds + ", retryDelaySeconds=" +
+                    this.retryDelaySeconds + ", retryDelayStrategy=" + this.retryDelayStrategy +
+                    ", circuitBreaker=" + this.circuitBreaker + ", retryBudget=" + this.retryBudget + ")";
+        }
+    }
+}
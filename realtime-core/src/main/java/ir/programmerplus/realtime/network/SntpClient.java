@@ -0,0 +1,246 @@
+package ir.programmerplus.realtime.network;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.security.SecureRandom;
+import java.util.Random;
+
+import ir.programmerplus.realtime.clock.MonotonicClock;
+import ir.programmerplus.realtime.utils.LogUtils;
+
+/**
+ * SntpClient sends SNTP requests to any number of servers over a single non-blocking
+ * {@link DatagramChannel}, and receives all responses on one selector thread. Responses are matched
+ * to their requests by the originate timestamp, which holds a random value we sent as transmit
+ * timestamp, so spoofed responses are ignored as well.
+ * <p>
+ * Packet buffers and pending request slots are allocated once, so sending a request and
+ * decoding its response don't allocate buffers. The channel is not connected, because it serves
+ * every server, so receiving a packet still allocates the address of its sender.
+ * <p>
+ * The client holds a socket and a thread until it is closed.
+ */
+public class SntpClient implements Closeable {
+
+    private static final String TAG = SntpClient.class.getSimpleName();
+
+    private static final int MAX_PENDING_REQUESTS = 32;
+    private static final int RECEIVE_BUFFER_SIZE = 128;
+
+    /**
+     * Callback used to deliver the result of a request. It is called on the selector thread for
+     * responses, or on the caller thread if sending fails.
+     */
+    public interface Callback {
+        /**
+         * @param time              server time at the given device uptime
+         * @param deviceUptimeNanos device uptime in nanoseconds at which the response was received
+         * @param roundTripDelay    round trip delay excluding the server processing time
+         */
+        void onResponse(long time, long deviceUptimeNanos, long roundTripDelay);
+
+        void onError(IOException exception);
+    }
+
+    private final Random random = new SecureRandom();
+
+    private final ByteBuffer sendBuffer = ByteBuffer.allocateDirect(SntpPacket.PACKET_SIZE);
+    private final ByteBuffer receiveBuffer = ByteBuffer.allocateDirect(RECEIVE_BUFFER_SIZE);
+
+    // pending requests, a slot is free when its callback is null
+    private final long[] nonces = new long[MAX_PENDING_REQUESTS];
+    private final long[] sendUptimesNanos = new long[MAX_PENDING_REQUESTS];
+    private final SocketAddress[] addresses = new SocketAddress[MAX_PENDING_REQUESTS];
+    private final Callback[] callbacks = new Callback[MAX_PENDING_REQUESTS];
+
+    private final MonotonicClock clock;
+    private final DatagramChannel channel;
+    private final Selector selector;
+    private volatile boolean closed;
+
+    /**
+     * This function opens the channel and starts the selector thread. One client can serve any
+     * number of servers, so a single instance should be shared.
+     *
+     * @param clock clock used to measure round trip delays and anchor responses
+     * @throws IOException if the channel couldn't be opened
+     */
+    public SntpClient(MonotonicClock clock) throws IOException {
+        this.clock = clock;
+
+        channel = DatagramChannel.open();
+        channel.configureBlocking(false);
+        channel.socket().bind(null);
+
+        selector = Selector.open();
+        channel.register(selector, SelectionKey.OP_READ);
+
+        Thread thread = new Thread(this::receiveLoop, "RealTime-Sntp");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * This function sends a request to the given server.
+     *
+     * @param address  server address
+     * @param callback callback to receive the result
+     * @return request id which can be passed to {@link #cancel(long)}
+     * @throws IOException if there are too many pending requests or sending fails
+     */
+    public long send(InetSocketAddress address, Callback callback) throws IOException {
+        synchronized (this) {
+            if (closed) {
+                throw new IOException("SNTP client is closed.");
+            }
+
+            int slot = -1;
+
+            for (int i = 0; i < MAX_PENDING_REQUESTS; i++) {
+                if (callbacks[i] == null) {
+                    slot = i;
+                    break;
+                }
+            }
+
+            if (slot == -1) {
+                throw new IOException("Too many pending SNTP requests.");
+            }
+
+            long nonce;
+            do {
+                nonce = random.nextLong();
+            } while (nonce == 0);
+
+            SntpPacket.encodeRequest(sendBuffer, nonce);
+
+            nonces[slot] = nonce;
+            addresses[slot] = address;
+            callbacks[slot] = callback;
+            sendUptimesNanos[slot] = clock.elapsedRealtimeNanos();
+
+            try {
+                if (channel.send(sendBuffer, address) == 0) {
+                    throw new IOException("SNTP request to " + address + " couldn't be sent.");
+                }
+            } catch (IOException e) {
+                release(slot);
+                throw e;
+            }
+
+            return nonce;
+        }
+    }
+
+    /**
+     * This function cancels a pending request. Its callback won't be called anymore.
+     *
+     * @param requestId id returned by {@link #send(InetSocketAddress, Callback)}
+     */
+    public synchronized void cancel(long requestId) {
+        int slot = findSlot(requestId);
+        if (slot != -1) release(slot);
+    }
+
+    private int findSlot(long nonce) {
+        for (int i = 0; i < MAX_PENDING_REQUESTS; i++) {
+            if (callbacks[i] != null && nonces[i] == nonce) return i;
+        }
+
+        return -1;
+    }
+
+    private void release(int slot) {
+        nonces[slot] = 0;
+        addresses[slot] = null;
+        callbacks[slot] = null;
+    }
+
+    /**
+     * This function stops the selector thread and closes the channel. Callbacks of pending
+     * requests are not called anymore, and new requests fail.
+     */
+    @Override
+    public void close() {
+        synchronized (this) {
+            if (closed) return;
+            closed = true;
+
+            for (int i = 0; i < MAX_PENDING_REQUESTS; i++) release(i);
+        }
+
+        // closing the selector wakes up the selector thread, which then exits
+        try {
+            selector.close();
+        } catch (IOException e) {
+            LogUtils.w(TAG, "Exception while closing SNTP selector: " + e.getMessage());
+        }
+
+        try {
+            channel.close();
+        } catch (IOException e) {
+            LogUtils.w(TAG, "Exception while closing SNTP channel: " + e.getMessage());
+        }
+    }
+
+    private void receiveLoop() {
+        while (!closed) {
+            try {
+                selector.select();
+                selector.selectedKeys().clear();
+
+                SocketAddress sender;
+                while ((sender = channel.receive(receiveBuffer)) != null) {
+                    long deviceUptimeNanos = clock.elapsedRealtimeNanos();
+
+                    receiveBuffer.flip();
+                    handleResponse(sender, deviceUptimeNanos);
+                    receiveBuffer.clear();
+                }
+
+            } catch (ClosedSelectorException e) {
+                return;
+            } catch (IOException e) {
+                if (!closed) LogUtils.w(TAG, "Exception while receiving SNTP response: " + e.getMessage());
+            }
+        }
+    }
+
+    private void handleResponse(SocketAddress sender, long deviceUptimeNanos) {
+        if (receiveBuffer.limit() < SntpPacket.PACKET_SIZE) return;
+
+        Callback callback;
+        long sendUptimeNanos;
+
+        synchronized (this) {
+            int slot = findSlot(SntpPacket.getOriginateTimestamp(receiveBuffer));
+
+            // unknown, late or spoofed response
+            if (slot == -1 || !sender.equals(addresses[slot])) return;
+
+            callback = callbacks[slot];
+            sendUptimeNanos = sendUptimesNanos[slot];
+            release(slot);
+        }
+
+        if (!SntpPacket.isValidResponse(receiveBuffer)) {
+            callback.onError(new IOException("Invalid SNTP response from " + sender));
+            return;
+        }
+
+        long receiveTime = SntpPacket.toMillis(SntpPacket.getReceiveTimestamp(receiveBuffer));
+        long transmitTime = SntpPacket.toMillis(SntpPacket.getTransmitTimestamp(receiveBuffer));
+
+        // we measure the round trip with the device uptime, so device clock changes don't matter
+        long roundTripDelay = Math.max(0, (deviceUptimeNanos - sendUptimeNanos) / 1_000_000 - (transmitTime - receiveTime));
+
+        callback.onResponse(transmitTime + roundTripDelay / 2, deviceUptimeNanos, roundTripDelay);
+    }
+}
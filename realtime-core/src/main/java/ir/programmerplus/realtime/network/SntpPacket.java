@@ -0,0 +1,113 @@
+package ir.programmerplus.realtime.network;
+
+import java.nio.ByteBuffer;
+
+/**
+ * SntpPacket encodes SNTP requests and decodes SNTP responses (RFC 4330) directly from and to
+ * {@link ByteBuffer}s, so packets can be handled without allocating any object.
+ */
+public abstract class SntpPacket {
+
+    public static final int PACKET_SIZE = 48;
+
+    public static final int NTP_PORT = 123;
+
+    private static final int LEAP_NOT_SYNCHRONIZED = 3;
+    private static final int VERSION = 4;
+    private static final int MODE_CLIENT = 3;
+    private static final int MODE_SERVER = 4;
+    private static final int MAX_STRATUM = 15;
+
+    private static final int ORIGINATE_TIMESTAMP_OFFSET = 24;
+    private static final int RECEIVE_TIMESTAMP_OFFSET = 32;
+    private static final int TRANSMIT_TIMESTAMP_OFFSET = 40;
+
+    // milliseconds between NTP era 0 (1 Jan 1900) and Unix epoch
+    private static final long ERA_0_BASE_TIME = -2208988800000L;
+    // milliseconds between NTP era 1 (7 Feb 2036 06:28:16 UTC) and Unix epoch
+    private static final long ERA_1_BASE_TIME = 2085978496000L;
+
+    /**
+     * This function writes a client request into the buffer. The transmit timestamp is copied by
+     * the server into the originate timestamp of its response, so it can be any unique value
+     * used to match the response to its request.
+     *
+     * @param buffer            destination buffer, it will be flipped and ready to send
+     * @param transmitTimestamp value of the transmit timestamp field
+     */
+    public static void encodeRequest(ByteBuffer buffer, long transmitTimestamp) {
+        buffer.clear();
+        buffer.put((byte) (VERSION << 3 | MODE_CLIENT));
+
+        for (int i = 1; i < TRANSMIT_TIMESTAMP_OFFSET; i++) {
+            buffer.put((byte) 0);
+        }
+
+        buffer.putLong(transmitTimestamp);
+        buffer.flip();
+    }
+
+    /**
+     * @param buffer received packet
+     * @return true if the packet is a server response with a synchronized clock and valid timestamps
+     */
+    public static boolean isValidResponse(ByteBuffer buffer) {
+        if (buffer.limit() < PACKET_SIZE) return false;
+
+        int header = buffer.get(0) & 0xFF;
+        int leapIndicator = header >> 6;
+        int mode = header & 0x07;
+        int stratum = buffer.get(1) & 0xFF;
+
+        // stratum 0 is a "kiss-o'-death" packet asking us to stop or slow down
+        return mode == MODE_SERVER &&
+                leapIndicator != LEAP_NOT_SYNCHRONIZED &&
+                stratum > 0 && stratum <= MAX_STRATUM &&
+                getReceiveTimestamp(buffer) != 0 &&
+                getTransmitTimestamp(buffer) != 0;
+    }
+
+    public static long getOriginateTimestamp(ByteBuffer buffer) {
+        return buffer.getLong(ORIGINATE_TIMESTAMP_OFFSET);
+    }
+
+    public static long getReceiveTimestamp(ByteBuffer buffer) {
+        return buffer.getLong(RECEIVE_TIMESTAMP_OFFSET);
+    }
+
+    public static long getTransmitTimestamp(ByteBuffer buffer) {
+        return buffer.getLong(TRANSMIT_TIMESTAMP_OFFSET);
+    }
+
+    /**
+     * This function converts a 64-bit NTP timestamp to milliseconds since Unix epoch
+     *
+     * @param ntpTimestamp seconds since NTP era start in the upper 32 bits and fraction in the lower 32 bits
+     * @return milliseconds since Unix epoch
+     */
+    public static long toMillis(long ntpTimestamp) {
+        long seconds = ntpTimestamp >>> 32;
+        long fraction = ntpTimestamp & 0xFFFFFFFFL;
+
+        // timestamps with the most significant bit unset belong to era 1, starting from 2036
+        long baseTime = (seconds & 0x80000000L) == 0 ? ERA_1_BASE_TIME : ERA_0_BASE_TIME;
+
+        return baseTime + seconds * 1000 + ((fraction * 1000 + 0x80000000L) >>> 32);
+    }
+
+    /**
+     * This function converts milliseconds since Unix epoch to a 64-bit NTP timestamp
+     *
+     * @param millis milliseconds since Unix epoch
+     * @return NTP timestamp
+     */
+    public static long toNtpTimestamp(long millis) {
+        boolean era1 = millis >= ERA_1_BASE_TIME;
+        long baseTimeMillis = millis - (era1 ? ERA_1_BASE_TIME : ERA_0_BASE_TIME);
+
+        long seconds = baseTimeMillis / 1000;
+        long fraction = ((baseTimeMillis % 1000) << 32) / 1000;
+
+        return seconds << 32 | fraction;
+    }
+}
@@ -0,0 +1,50 @@
+package ir.programmerplus.realtime.selection;
+
+import java.util.List;
+
+import ir.programmerplus.realtime.models.TimeSample;
+
+/**
+ * The result of running {@link TimeSampleSelector} over a set of samples.
+ */
+public final class Selection {
+
+    private final TimeSample sample;
+    private final List<TimeSample> truechimers;
+    private final List<TimeSample> falsetickers;
+
+    Selection(TimeSample sample, List<TimeSample> truechimers, List<TimeSample> falsetickers) {
+        this.sample = sample;
+        this.truechimers = truechimers;
+        this.falsetickers = falsetickers;
+    }
+
+    /**
+     * @return combined estimate of the agreeing samples
+     */
+    public TimeSample getSample() {
+        return sample;
+    }
+
+    /**
+     * @return samples whose error intervals contain the selected intersection
+     */
+    public List<TimeSample> getTruechimers() {
+        return truechimers;
+    }
+
+    /**
+     * @return samples that disagree with the selected intersection
+     */
+    public List<TimeSample> getFalsetickers() {
+        return falsetickers;
+    }
+
+    /**
+     * @param totalCount total number of samples the selection was made from
+     * @return true if more than half of the samples agree with the selection
+     */
+    public boolean hasMajority(int totalCount) {
+        return truechimers.size() * 2 > totalCount;
+    }
+}
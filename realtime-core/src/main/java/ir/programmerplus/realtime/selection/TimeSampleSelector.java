@@ -0,0 +1,114 @@
+package ir.programmerplus.realtime.selection;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import ir.programmerplus.realtime.models.TimeSample;
+
+/**
+ * TimeSampleSelector runs Marzullo's interval intersection algorithm, as used by the NTP select
+ * stage, over samples received from different providers. Each sample defines an interval of
+ * possible boot times, its measured boot time plus or minus its error bound. The intersection
+ * shared by the largest number of intervals is selected, samples that don't contain it are
+ * rejected as falsetickers and the remaining ones are combined into a single estimate.
+ */
+public abstract class TimeSampleSelector {
+
+    /**
+     * @param samples samples to select from
+     * @param quorum  minimum number of samples that have to agree
+     * @return the selection, or null if fewer than quorum samples agree with each other
+     */
+    public static Selection select(List<TimeSample> samples, int quorum) {
+        Selection selection = select(samples);
+        return selection != null && selection.getTruechimers().size() >= quorum ? selection : null;
+    }
+
+    /**
+     * @param samples samples to select from
+     * @return the selection, or null if there are no samples
+     */
+    public static Selection select(List<TimeSample> samples) {
+        int count = samples.size();
+        if (count == 0) return null;
+
+        // each edge holds the boundary value and its type, -1 for lower and +1 for upper bounds
+        long[][] edges = new long[count * 2][];
+        for (int i = 0; i < count; i++) {
+            TimeSample sample = samples.get(i);
+            edges[i * 2] = new long[]{sample.getBootTime() - sample.getErrorBound(), -1};
+            edges[i * 2 + 1] = new long[]{sample.getBootTime() + sample.getErrorBound(), 1};
+        }
+
+        // intervals are closed, so lower bounds are sorted before upper bounds with the same value
+        Arrays.sort(edges, (a, b) -> a[0] != b[0] ? Long.compare(a[0], b[0]) : Long.compare(a[1], b[1]));
+
+        int best = 0;
+        int overlapping = 0;
+        long lower = 0;
+        long upper = 0;
+
+        for (int i = 0; i < edges.length; i++) {
+            overlapping -= (int) edges[i][1];
+
+            if (overlapping > best) {
+                best = overlapping;
+                lower = edges[i][0];
+                upper = edges[i + 1][0];
+            }
+        }
+
+        List<TimeSample> truechimers = new ArrayList<>();
+        List<TimeSample> falsetickers = new ArrayList<>();
+
+        for (TimeSample sample : samples) {
+            if (sample.getBootTime() - sample.getErrorBound() <= lower && sample.getBootTime() + sample.getErrorBound() >= upper) {
+                truechimers.add(sample);
+            } else {
+                falsetickers.add(sample);
+            }
+        }
+
+        return new Selection(combine(truechimers, lower, upper), truechimers, falsetickers);
+    }
+
+    /**
+     * This function combines agreeing samples into one estimate. Boot times are averaged with
+     * weights inversely proportional to the squared error bounds, and the result is anchored to
+     * the latest device uptime among the samples.
+     */
+    private static TimeSample combine(List<TimeSample> truechimers, long lower, long upper) {
+        TimeSample best = truechimers.get(0);
+        long anchorUptime = 0;
+        long anchorUptimeNanos = 0;
+        double weightSum = 0;
+        double weightedBootTime = 0;
+
+        // boot times are large numbers, so we average their differences to keep precision
+        long reference = best.getBootTime();
+
+        for (TimeSample sample : truechimers) {
+            double error = Math.max(1, sample.getErrorBound());
+            double weight = 1 / (error * error);
+
+            weightSum += weight;
+            weightedBootTime += weight * (sample.getBootTime() - reference);
+
+            if (sample.getDeviceUptimeNanos() > anchorUptimeNanos) {
+                anchorUptime = sample.getDeviceUptime();
+                anchorUptimeNanos = sample.getDeviceUptimeNanos();
+            }
+
+            if (sample.getErrorBound() < best.getErrorBound()) {
+                best = sample;
+            }
+        }
+
+        long bootTime = reference + Math.round(weightedBootTime / weightSum);
+        bootTime = Math.max(lower, Math.min(upper, bootTime));
+
+        return new TimeSample(best.getSource(), best.getHost(), bootTime + anchorUptime, anchorUptime,
+                anchorUptimeNanos, best.getRoundTripDelay(), (upper - lower) / 2);
+    }
+}
@@ -0,0 +1,52 @@
+package ir.programmerplus.realtime.utils;
+
+import java.io.File;
+import java.util.concurrent.Callable;
+
+/**
+ * LazyFile is a file in a directory which is only resolved when the file is first used. Resolving
+ * the data directory may touch the disk on some platforms, so it is left to the thread which
+ * reads or writes the file instead of the one which builds RealTime.
+ */
+public class LazyFile {
+
+    private final Callable<File> directory;
+    private final String name;
+    private File file;
+
+    /**
+     * @param directory resolves the directory of the file, called once on first use
+     * @param name      name of the file in the directory
+     */
+    public LazyFile(Callable<File> directory, String name) {
+        this.directory = directory;
+        this.name = name;
+    }
+
+    /**
+     * @param file file which is already resolved
+     */
+    public LazyFile(File file) {
+        this.directory = null;
+        this.name = null;
+        this.file = file;
+    }
+
+    /**
+     * This function resolves the file on first call and returns the same file afterwards
+     *
+     * @return resolved file
+     * @throws IllegalStateException if the directory couldn't be resolved
+     */
+    public synchronized File get() throws IllegalStateException {
+        if (file == null) {
+            try {
+                file = new File(directory.call(), name);
+            } catch (Exception e) {
+                throw new IllegalStateException("Couldn't resolve directory of " + name, e);
+            }
+        }
+
+        return file;
+    }
+}
@@ -0,0 +1,85 @@
+package ir.programmerplus.realtime.utils;
+
+import java.util.logging.Level;
+
+@SuppressWarnings("unused")
+public abstract class LogUtils {
+
+    // priorities, same values as android.util.Log
+    public static final int VERBOSE = 2;
+    public static final int DEBUG = 3;
+    public static final int INFO = 4;
+    public static final int WARN = 5;
+    public static final int ERROR = 6;
+
+    /**
+     * Logger receives all enabled log messages. The default logger writes to java.util.logging,
+     * platforms replace it with their own using {@link #setLogger(Logger)}.
+     */
+    public interface Logger {
+        /**
+         * @param priority  one of {@link #VERBOSE}, {@link #DEBUG}, {@link #INFO}, {@link #WARN} or {@link #ERROR}
+         * @param tag       tag of the class which logs the message
+         * @param msg       log message
+         * @param throwable exception to log, or null
+         */
+        void log(int priority, String tag, String msg, Throwable throwable);
+    }
+
+    private static final Logger DEFAULT_LOGGER = (priority, tag, msg, throwable) -> {
+        Level level = switch (priority) {
+            case VERBOSE -> Level.FINER;
+            case DEBUG -> Level.FINE;
+            case INFO -> Level.INFO;
+            case WARN -> Level.WARNING;
+            default -> Level.SEVERE;
+        };
+
+        java.util.logging.Logger.getLogger(tag).log(level, msg, throwable);
+    };
+
+    private static volatile boolean loggingEnabled = true;
+    private static volatile Logger logger = DEFAULT_LOGGER;
+
+    public static void setLoggingEnabled(boolean isLoggingEnabled) {
+        loggingEnabled = isLoggingEnabled;
+    }
+
+    public static void setLogger(Logger logger) {
+        LogUtils.logger = logger == null ? DEFAULT_LOGGER : logger;
+    }
+
+    public static void v(String tag, String msg) {
+        log(VERBOSE, tag, msg, null);
+    }
+
+    public static void d(String tag, String msg) {
+        log(DEBUG, tag, msg, null);
+    }
+
+    public static void i(String tag, String msg) {
+        log(INFO, tag, msg, null);
+    }
+
+    public static void w(String tag, String msg) {
+        log(WARN, tag, msg, null);
+    }
+
+    public static void w(String tag, String msg, Throwable t) {
+        log(WARN, tag, msg, t);
+    }
+
+    public static void e(String tag, String msg) {
+        log(ERROR, tag, msg, null);
+    }
+
+    public static void e(String tag, String msg, Throwable t) {
+        log(ERROR, tag, msg, t);
+    }
+
+    private static void log(int priority, String tag, String msg, Throwable t) {
+        if (loggingEnabled) {
+            logger.log(priority, tag, msg, t);
+        }
+    }
+}
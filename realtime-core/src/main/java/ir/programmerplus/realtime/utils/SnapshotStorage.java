@@ -0,0 +1,23 @@
+package ir.programmerplus.realtime.utils;
+
+import java.io.IOException;
+
+import ir.programmerplus.realtime.models.TimeSnapshot;
+
+/**
+ * SnapshotStorage keeps the last time snapshot across process restarts. It is read once when the
+ * time is first needed, and written on a background thread whenever the time changes.
+ */
+public interface SnapshotStorage {
+
+    /**
+     * @return the stored snapshot, or null if there is no valid snapshot
+     */
+    TimeSnapshot read();
+
+    /**
+     * @param snapshot snapshot to store, replacing the previous one
+     * @throws IOException if the snapshot couldn't be written
+     */
+    void write(TimeSnapshot snapshot) throws IOException;
+}
@@ -0,0 +1,175 @@
+package ir.programmerplus.realtime.utils;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.zip.CRC32;
+
+import ir.programmerplus.realtime.models.TimeSnapshot;
+
+/**
+ * SnapshotStore keeps the cached time anchor in one small binary record instead of separate
+ * preference values. The record is versioned and protected by a CRC32 checksum, and it is
+ * written to a temporary file which is renamed over the old one, so readers either see the
+ * previous record or the new one, never a mix of both.
+ */
+public class SnapshotStore implements SnapshotStorage {
+
+    private static final String TAG = SnapshotStore.class.getSimpleName();
+
+    private static final int MAGIC = 0x52544D53; // "RTMS"
+    private static final int VERSION = 4;
+
+    // magic + version + time + boot time + device uptime + checksum
+    private static final int RECORD_SIZE_V1 = 4 + 4 + 8 + 8 + 8 + 8;
+    // version 2 adds drift
+    private static final int RECORD_SIZE_V2 = RECORD_SIZE_V1 + 8;
+    // version 3 adds error bound
+    private static final int RECORD_SIZE_V3 = RECORD_SIZE_V2 + 8;
+    // version 4 adds boot time and device uptime in nanoseconds
+    private static final int RECORD_SIZE = RECORD_SIZE_V3 + 8 + 8;
+
+    private final File file;
+    private final byte[] buffer = new byte[RECORD_SIZE];
+
+    public SnapshotStore(File file) {
+        this.file = file;
+    }
+
+    /**
+     * @return true if a record file exists on disk
+     */
+    public boolean exists() {
+        return file.exists();
+    }
+
+    /**
+     * This function reads the record from disk in a single read call.
+     *
+     * @return stored snapshot, or null if there is no valid record on disk
+     */
+    @Override
+    public synchronized TimeSnapshot read() {
+        if (!file.exists()) return null;
+
+        int size;
+
+        try {
+            size = readFully(file, buffer);
+        } catch (IOException e) {
+            LogUtils.w(TAG, "Couldn't read snapshot file: " + e.getMessage());
+            return null;
+        }
+
+        ByteBuffer byteBuffer = ByteBuffer.wrap(buffer);
+
+        int version = size >= 8 && byteBuffer.getInt() == MAGIC ? byteBuffer.getInt() : -1;
+        int expectedSize = switch (version) {
+            case 1 -> RECORD_SIZE_V1;
+            case 2 -> RECORD_SIZE_V2;
+            case 3 -> RECORD_SIZE_V3;
+            case VERSION -> RECORD_SIZE;
+            default -> -1;
+        };
+
+        if (expectedSize == -1 || size != expectedSize) {
+            LogUtils.w(TAG, "Snapshot file has an unknown format.");
+            return null;
+        }
+
+        long time = byteBuffer.getLong();
+        long bootTime = byteBuffer.getLong();
+        long deviceUptime = byteBuffer.getLong();
+        double drift = version >= 2 ? byteBuffer.getDouble() : 0;
+        long errorBound = version >= 3 ? byteBuffer.getLong() : 0;
+        // older records only have the millisecond anchor
+        long bootTimeNanos = version >= 4 ? byteBuffer.getLong() : bootTime * 1_000_000;
+        long deviceUptimeNanos = version >= 4 ? byteBuffer.getLong() : deviceUptime * 1_000_000;
+
+        if (byteBuffer.getLong() != checksum(buffer, expectedSize - 8)) {
+            LogUtils.w(TAG, "Snapshot file checksum mismatch.");
+            return null;
+        }
+
+        return new TimeSnapshot(time, bootTime, deviceUptime, drift, errorBound, bootTimeNanos, deviceUptimeNanos);
+    }
+
+    /**
+     * This function writes the snapshot to disk atomically.
+     *
+     * @param snapshot snapshot to store
+     * @throws IOException if the record couldn't be written
+     */
+    @Override
+    public synchronized void write(TimeSnapshot snapshot) throws IOException {
+        ByteBuffer byteBuffer = ByteBuffer.wrap(buffer);
+
+        byteBuffer.putInt(MAGIC)
+                .putInt(VERSION)
+                .putLong(snapshot.getTime())
+                .putLong(snapshot.getBootTime())
+                .putLong(snapshot.getDeviceUptime())
+                .putDouble(snapshot.getDrift())
+                .putLong(snapshot.getErrorBound())
+                .putLong(snapshot.getBootTimeNanos())
+                .putLong(snapshot.getDeviceUptimeNanos())
+                .putLong(checksum(buffer, RECORD_SIZE - 8));
+
+        writeAtomically(file, buffer, RECORD_SIZE);
+    }
+
+    private static long checksum(byte[] data, int length) {
+        CRC32 crc32 = new CRC32();
+        crc32.update(data, 0, length);
+        return crc32.getValue();
+    }
+
+    /**
+     * This function writes data to a temporary file, syncs it to disk and then renames it
+     * over the target file.
+     *
+     * @param file   target file
+     * @param data   data to write
+     * @param length number of bytes of data to write
+     * @throws IOException if writing or renaming fails
+     */
+    public static void writeAtomically(File file, byte[] data, int length) throws IOException {
+        File tempFile = new File(file.getPath() + ".tmp");
+
+        try (FileOutputStream outputStream = new FileOutputStream(tempFile)) {
+            outputStream.write(data, 0, length);
+            outputStream.getFD().sync();
+        }
+
+        if (!tempFile.renameTo(file)) {
+            //noinspection ResultOfMethodCallIgnored
+            tempFile.delete();
+            throw new IOException("Couldn't rename " + tempFile + " to " + file);
+        }
+    }
+
+    /**
+     * This function reads a file into the given buffer.
+     *
+     * @param file   file to read
+     * @param buffer destination buffer
+     * @return number of bytes read, or -1 if the file doesn't exist
+     * @throws IOException if reading fails
+     */
+    public static int readFully(File file, byte[] buffer) throws IOException {
+        if (!file.exists()) return -1;
+
+        try (FileInputStream inputStream = new FileInputStream(file)) {
+            int total = 0;
+            int read;
+
+            while (total < buffer.length && (read = inputStream.read(buffer, total, buffer.length - total)) != -1) {
+                total += read;
+            }
+
+            return total;
+        }
+    }
+}
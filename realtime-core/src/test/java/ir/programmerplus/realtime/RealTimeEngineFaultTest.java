@@ -0,0 +1,211 @@
+package ir.programmerplus.realtime;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import io.reactivex.schedulers.Schedulers;
+import io.reactivex.subscribers.TestSubscriber;
+import ir.programmerplus.realtime.clock.MonotonicClock;
+import ir.programmerplus.realtime.models.SyncEvent;
+import ir.programmerplus.realtime.models.TimeSample;
+import ir.programmerplus.realtime.models.TimeSource;
+import ir.programmerplus.realtime.network.ConnectivitySignal;
+import ir.programmerplus.realtime.testing.FakeSntpServer;
+import ir.programmerplus.realtime.testing.FakeTimeServer;
+import ir.programmerplus.realtime.testing.FaultProfile;
+import ir.programmerplus.realtime.testing.LatencyDistribution;
+import ir.programmerplus.realtime.testing.MemorySnapshotStorage;
+import ir.programmerplus.realtime.utils.LogUtils;
+
+/**
+ * These tests run the engine against fake NTP and time servers on loopback, with the faults
+ * real servers have.
+ */
+public class RealTimeEngineFaultTest {
+
+    private static final long SYNC_TIMEOUT = 30;
+
+    // servers are ahead of the local clock, so a wrong time can't pass by accident
+    private static final long OFFSET = 10 * 60 * 1000;
+    private static final long FALSETICKER_OFFSET = 60 * 1000;
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private final List<Closeable> servers = new ArrayList<>();
+    private ExecutorService executor;
+    private RealTimeEngine engine;
+
+    @Before
+    public void setUp() throws IOException {
+        LogUtils.setLoggingEnabled(false);
+
+        executor = Executors.newSingleThreadExecutor();
+        engine = new RealTimeEngine(MonotonicClock.SYSTEM, new MemorySnapshotStorage(),
+                ConnectivitySignal.ALWAYS_CONNECTED, Schedulers.from(executor), temporaryFolder.newFolder());
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        engine.close();
+        executor.submit(() -> null).get(5, TimeUnit.SECONDS);
+        executor.shutdownNow();
+
+        for (Closeable server : servers) server.close();
+    }
+
+    @Test
+    public void rejectsFalseticker() throws Exception {
+        // the falseticker answers first, so it is selected against until the others agree
+        FakeSntpServer falseticker = ntpServer(FaultProfile.builder().offset(OFFSET)
+                .falseticker(1, FALSETICKER_OFFSET));
+        FakeSntpServer first = ntpServer(FaultProfile.builder().offset(OFFSET)
+                .latency(LatencyDistribution.constant(20)));
+        FakeSntpServer second = ntpServer(FaultProfile.builder().offset(OFFSET)
+                .latency(LatencyDistribution.constant(30)));
+
+        engine.setHedgedRequestsEnabled(false);
+        TestSubscriber<SyncEvent> events = engine.events().test();
+
+        TimeSample sample = sync();
+
+        assertNotEquals(falseticker.getHost(), sample.getHost());
+        assertAccurate(50);
+
+        long samples = events.values().stream().filter(event -> event.getType() == SyncEvent.Type.SAMPLE).count();
+        assertEquals(3, samples);
+        assertTrue(falseticker.getStats().getFalsetickers() > 0);
+        assertTrue(first.getStats().getResponses() > 0 && second.getStats().getResponses() > 0);
+    }
+
+    @Test
+    public void outvotedTimeServerIsRejected() throws Exception {
+        ntpServer(FaultProfile.builder().offset(OFFSET));
+        ntpServer(FaultProfile.builder().offset(OFFSET).latency(LatencyDistribution.constant(10)));
+        FakeTimeServer falseticker = timeServer(FaultProfile.builder().offset(OFFSET)
+                .falseticker(1, FALSETICKER_OFFSET));
+
+        engine.setHedgedRequestsEnabled(false).setSelectionQuorum(2);
+
+        TimeSample sample = sync();
+
+        assertEquals(TimeSource.NTP_SERVER, sample.getSource());
+        assertTrue(falseticker.getStats().getRequests() > 0);
+        assertAccurate(50);
+    }
+
+    @Test
+    public void syncsDespitePacketLoss() throws Exception {
+        for (int i = 0; i < 3; i++) {
+            ntpServer(FaultProfile.builder().offset(OFFSET).lossRate(0.4)
+                    .latency(LatencyDistribution.uniform(5, 30)));
+        }
+
+        engine.setHedgedRequestsEnabled(false)
+                .setNtpSampleCount(8)
+                .setNtpTimeout(200, TimeUnit.MILLISECONDS);
+
+        assertEquals(TimeSource.NTP_SERVER, sync().getSource());
+        assertAccurate(50);
+    }
+
+    @Test
+    public void nextHostIsRequestedWhenFirstTimesOut() throws Exception {
+        FakeSntpServer dead = ntpServer(FaultProfile.builder().offset(OFFSET).lossRate(1));
+        FakeSntpServer alive = ntpServer(FaultProfile.builder().offset(OFFSET));
+
+        engine.setSelectionQuorum(1);
+
+        TimeSample sample = sync();
+
+        assertEquals(alive.getHost(), sample.getHost());
+        assertTrue(dead.getStats().getDropped() > 0);
+        assertAccurate(50);
+    }
+
+    @Test
+    public void kissOfDeathRepliesAreRejected() throws Exception {
+        // only the first request of each burst is answered, the rest get a "RATE" kiss-o'-death
+        FakeSntpServer rateLimited = ntpServer(FaultProfile.builder().offset(OFFSET).rateLimit(0.01, 1));
+
+        engine.setNtpSampleCount(4).setSelectionQuorum(1);
+
+        TimeSample sample = sync();
+
+        assertEquals(rateLimited.getHost(), sample.getHost());
+        assertEquals(1, rateLimited.getStats().getResponses());
+        assertEquals(3, rateLimited.getStats().getRateLimited());
+        assertAccurate(50);
+    }
+
+    @Test
+    public void responsesWithMismatchedNonceAreIgnored() throws Exception {
+        FakeSntpServer spoofed = ntpServer(FaultProfile.builder().offset(OFFSET + FALSETICKER_OFFSET).nonceMismatch(1));
+        FakeSntpServer genuine = ntpServer(FaultProfile.builder().offset(OFFSET).latency(LatencyDistribution.constant(50)));
+
+        engine.setHedgedRequestsEnabled(false)
+                .setSelectionQuorum(1)
+                .setNtpTimeout(500, TimeUnit.MILLISECONDS);
+
+        TimeSample sample = sync();
+
+        assertEquals(genuine.getHost(), sample.getHost());
+        assertTrue(spoofed.getStats().getResponses() > 0);
+        assertAccurate(50);
+    }
+
+    @Test
+    public void fallsBackToHttpDate() throws Exception {
+        ntpServer(FaultProfile.builder().offset(OFFSET).lossRate(1));
+        FakeTimeServer timeServer = timeServer(FaultProfile.builder().offset(OFFSET)
+                .latency(LatencyDistribution.constant(20)));
+
+        engine.setHedgedRequestsEnabled(false).setSelectionQuorum(1);
+
+        TimeSample sample = sync();
+
+        assertEquals(TimeSource.TIME_SERVER, sample.getSource());
+        assertEquals(timeServer.getUrl(), sample.getHost());
+
+        // the Date header is truncated to seconds
+        assertAccurate(1000);
+    }
+
+    private TimeSample sync() {
+        return engine.sync().timeout(SYNC_TIMEOUT, TimeUnit.SECONDS).blockingGet();
+    }
+
+    private void assertAccurate(long tolerance) {
+        long error = engine.nowMillis() - System.currentTimeMillis() - OFFSET;
+        assertTrue("Error of " + error + "ms", Math.abs(error) <= tolerance);
+    }
+
+    private FakeSntpServer ntpServer(FaultProfile.Builder faultProfile) throws IOException {
+        FakeSntpServer server = new FakeSntpServer(faultProfile.build());
+        servers.add(server);
+        engine.withNtpServer(server.getHost());
+        return server;
+    }
+
+    private FakeTimeServer timeServer(FaultProfile.Builder faultProfile) throws IOException {
+        FakeTimeServer server = new FakeTimeServer(faultProfile.build());
+        servers.add(server);
+        engine.withTimeServer(server.getUrl());
+        return server;
+    }
+}
@@ -0,0 +1,485 @@
+package ir.programmerplus.realtime;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import io.reactivex.Single;
+import io.reactivex.observers.TestObserver;
+import io.reactivex.schedulers.Schedulers;
+import io.reactivex.subscribers.TestSubscriber;
+import ir.programmerplus.realtime.models.SyncEvent;
+import ir.programmerplus.realtime.models.TimeSample;
+import ir.programmerplus.realtime.models.TimeSnapshot;
+import ir.programmerplus.realtime.models.TimeSource;
+import ir.programmerplus.realtime.network.ConnectivitySignal;
+import ir.programmerplus.realtime.testing.FakeClock;
+import ir.programmerplus.realtime.testing.MemorySnapshotStorage;
+import ir.programmerplus.realtime.utils.LogUtils;
+
+public class RealTimeEngineTest {
+
+    private static final long UPTIME = 10 * 60 * 1000;
+    private static final long TIME = 1_700_000_000_000L;
+    private static final long ERROR_BOUND = 10;
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private final FakeClock clock = new FakeClock(UPTIME);
+    private final MemorySnapshotStorage snapshotStorage = new MemorySnapshotStorage();
+    private final FakeConnectivitySignal connectivitySignal = new FakeConnectivitySignal();
+    private final AtomicInteger syncStarts = new AtomicInteger();
+    private final AtomicInteger syncJoins = new AtomicInteger();
+
+    private ExecutorService executor;
+    private RealTimeEngine engine;
+
+    @Before
+    public void setUp() throws IOException {
+        LogUtils.setLoggingEnabled(false);
+
+        executor = Executors.newSingleThreadExecutor();
+        engine = new RealTimeEngine(clock, snapshotStorage, connectivitySignal, Schedulers.from(executor),
+                temporaryFolder.newFolder())
+                .setExternalSourceCount(1)
+                .setListener(new RealTimeEngine.Listener() {
+                    @Override
+                    public void onSyncStarted() {
+                        syncStarts.incrementAndGet();
+                    }
+
+                    @Override
+                    public void onSyncJoined() {
+                        syncJoins.incrementAndGet();
+                    }
+
+                    @Override
+                    public void onTimeSet(TimeSample sample) {
+                    }
+                });
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        engine.close();
+        drain();
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void syncJoinsRunningSession() throws Exception {
+        Single<TimeSample> first = engine.sync();
+        Single<TimeSample> second = engine.sync();
+        drain();
+
+        assertEquals(1, syncStarts.get());
+        assertEquals(RealTimeEngine.SyncState.REQUESTING, engine.getSyncState());
+
+        engine.addSample(gpsSample(TIME));
+
+        TimeSample firstResult = first.blockingGet();
+        assertSame(firstResult, second.blockingGet());
+        assertEquals(TIME, firstResult.getTime());
+
+        drain();
+        assertEquals(RealTimeEngine.SyncState.IDLE, engine.getSyncState());
+    }
+
+    @Test
+    public void syncAfterSessionEndedStartsNewSession() throws Exception {
+        engine.sync();
+        drain();
+        engine.addSample(gpsSample(TIME));
+        drain();
+
+        engine.sync();
+        drain();
+
+        assertEquals(2, syncStarts.get());
+    }
+
+    @Test
+    public void joiningSyncRequestsExpectedExternalSourcesAgain() throws Exception {
+        engine.sync();
+        engine.sync();
+        drain();
+
+        assertEquals(1, syncJoins.get());
+
+        // a network host keeps the sync running, but the removed source is not expected anymore
+        engine.withNtpServer("127.0.0.1:9");
+        engine.removeExternalSource();
+        engine.sync();
+        drain();
+
+        assertEquals(1, syncJoins.get());
+    }
+
+    @Test
+    public void syncEndsWhenOnlyExternalSourceIsRemoved() throws Exception {
+        TestObserver<TimeSample> result = engine.sync().test();
+        drain();
+
+        engine.removeExternalSource();
+        drain();
+
+        result.assertError(IOException.class);
+        assertEquals(RealTimeEngine.SyncState.IDLE, engine.getSyncState());
+
+        // the next trigger starts a new sync instead of joining the failed one
+        engine.syncIfNeeded();
+        drain();
+
+        assertEquals(2, syncStarts.get());
+        assertEquals(RealTimeEngine.SyncState.REQUESTING, engine.getSyncState());
+    }
+
+    @Test
+    public void removedExternalSourceLowersQuorum() throws Exception {
+        engine.setExternalSourceCount(2);
+        engine.sync();
+        drain();
+
+        engine.addSample(gpsSample(TIME));
+        drain();
+        assertFalse(engine.isInitialized());
+
+        engine.removeExternalSource();
+        drain();
+
+        assertTrue(engine.isInitialized());
+        assertEquals(RealTimeEngine.SyncState.IDLE, engine.getSyncState());
+    }
+
+    @Test
+    public void sampleAfterSyncEndedIsDropped() throws Exception {
+        engine.setSelectionWindow(50, TimeUnit.MILLISECONDS);
+        engine.sync();
+        drain();
+        engine.addSample(gpsSample(TIME));
+        drain();
+
+        TimeSnapshot snapshot = engine.getSnapshot();
+        TestSubscriber<SyncEvent> events = engine.events().test();
+
+        // a late reply, which would open a selection window without a session
+        engine.addSample(gpsSample(TIME + 60 * 1000));
+        drain();
+        Thread.sleep(200);
+        drain();
+
+        assertSame(snapshot, engine.getSnapshot());
+        assertEquals(RealTimeEngine.SyncState.IDLE, engine.getSyncState());
+        events.assertValueCount(1);
+    }
+
+    @Test
+    public void closeEndsRunningSync() throws Exception {
+        TestObserver<TimeSample> result = engine.sync().test();
+        drain();
+
+        engine.close();
+        drain();
+
+        result.assertError(IllegalStateException.class);
+        assertEquals(RealTimeEngine.SyncState.IDLE, engine.getSyncState());
+
+        engine.sync().test().await(5, TimeUnit.SECONDS);
+        assertEquals(1, syncStarts.get());
+    }
+
+    @Test
+    public void syncIfNeededStartsSyncWhenNotInitialized() throws Exception {
+        engine.syncIfNeeded();
+        drain();
+
+        assertEquals(1, syncStarts.get());
+        assertEquals(RealTimeEngine.SyncState.REQUESTING, engine.getSyncState());
+    }
+
+    @Test
+    public void syncIfNeededLeavesRunningSessionAlone() throws Exception {
+        engine.sync();
+        engine.syncIfNeeded();
+        engine.syncIfNeeded();
+        drain();
+
+        assertEquals(1, syncStarts.get());
+    }
+
+    @Test
+    public void syncIfNeededWaitsForErrorBoundToReachTarget() throws Exception {
+        engine.sync();
+        drain();
+        engine.addSample(gpsSample(TIME));
+        drain();
+
+        engine.syncIfNeeded();
+        drain();
+        assertEquals(1, syncStarts.get());
+        assertEquals(RealTimeEngine.SyncState.IDLE, engine.getSyncState());
+
+        // without a drift estimate the error bound grows by 50 ppm, it reaches 1 second after 5.5 hours
+        clock.advance(TimeUnit.HOURS.toMillis(6));
+
+        engine.syncIfNeeded();
+        drain();
+        assertEquals(2, syncStarts.get());
+    }
+
+    @Test
+    public void publishesSnapshotWhenTimeIsSet() throws Exception {
+        TestSubscriber<SyncEvent> events = engine.events().test();
+        assertFalse(engine.isInitialized());
+
+        engine.sync();
+        drain();
+        engine.addSample(gpsSample(TIME));
+        drain();
+
+        TimeSnapshot snapshot = engine.getSnapshot();
+        assertEquals(TIME, snapshot.getTime());
+        assertEquals(UPTIME, snapshot.getDeviceUptime());
+        assertEquals(TIME - UPTIME, snapshot.getBootTime());
+        assertEquals(ERROR_BOUND, snapshot.getErrorBound());
+
+        assertTrue(snapshotStorage.awaitWrite(5, TimeUnit.SECONDS));
+        assertSame(snapshot, snapshotStorage.getSnapshot());
+
+        clock.advance(1234);
+        assertTrue(engine.isInitialized());
+        assertEquals(TIME + 1234, engine.nowMillis());
+
+        events.assertValueCount(2);
+        assertEquals(SyncEvent.Type.SAMPLE, events.values().get(0).getType());
+        assertEquals(SyncEvent.Type.INITIALIZED, events.values().get(1).getType());
+    }
+
+    @Test
+    public void snapshotIsAnchoredToNanosecondUptimeOfSample() throws Exception {
+        clock.advanceNanos(400_000);
+        long sampleUptimeNanos = clock.elapsedRealtimeNanos();
+
+        engine.sync();
+        drain();
+        engine.addSample(new TimeSample(TimeSource.GPS_PROVIDER, "gps", TIME, clock.elapsedRealtime(),
+                sampleUptimeNanos, 0, ERROR_BOUND));
+        drain();
+
+        TimeSnapshot snapshot = engine.getSnapshot();
+        assertEquals(sampleUptimeNanos, snapshot.getDeviceUptimeNanos());
+        assertEquals(TIME * 1_000_000 - sampleUptimeNanos, snapshot.getBootTimeNanos());
+
+        // the sub-millisecond part of the uptime is not lost
+        clock.advanceNanos(250_000);
+        assertEquals(TIME * 1_000_000 + 250_000, engine.nowNanos());
+    }
+
+    @Test
+    public void publishesCorrectionOnResync() throws Exception {
+        engine.sync();
+        drain();
+        engine.addSample(gpsSample(TIME));
+        drain();
+
+        TestSubscriber<SyncEvent> events = engine.events().test();
+
+        clock.advance(1000);
+        engine.sync();
+        drain();
+        engine.addSample(gpsSample(TIME + 1000 + 250));
+        drain();
+
+        SyncEvent corrected = events.values().get(events.values().size() - 1);
+        assertEquals(SyncEvent.Type.CORRECTED, corrected.getType());
+        assertEquals(250, corrected.getDelta());
+        assertEquals(TIME + 1250, engine.nowMillis());
+    }
+
+    @Test
+    public void readsStoredSnapshotOnce() throws Exception {
+        snapshotStorage.setSnapshot(new TimeSnapshot(TIME, TIME - UPTIME, UPTIME));
+
+        CountDownLatch loaded = new CountDownLatch(1);
+        engine.preload(loaded::countDown);
+        assertTrue(loaded.await(5, TimeUnit.SECONDS));
+
+        clock.advance(500);
+        assertEquals(TIME + 500, engine.nowMillis());
+        assertEquals(TIME + 500, engine.tryNowMillis());
+        assertEquals(1, snapshotStorage.getReadCount());
+    }
+
+    @Test
+    public void dataDirectoryIsResolvedOnCacheThread() throws Exception {
+        File dataDirectory = temporaryFolder.newFolder();
+        AtomicReference<Thread> resolvingThread = new AtomicReference<>();
+
+        RealTimeEngine lazyEngine = new RealTimeEngine(clock, snapshotStorage, connectivitySignal,
+                Schedulers.from(executor), () -> {
+                    resolvingThread.compareAndSet(null, Thread.currentThread());
+                    return dataDirectory;
+                });
+
+        assertNull(resolvingThread.get());
+
+        CountDownLatch loaded = new CountDownLatch(1);
+        lazyEngine.preload(loaded::countDown);
+        assertTrue(loaded.await(5, TimeUnit.SECONDS));
+
+        assertNotNull(resolvingThread.get());
+        assertNotSame(Thread.currentThread(), resolvingThread.get());
+
+        lazyEngine.close();
+    }
+
+    @Test
+    public void readersDontWaitForDriftFile() throws Exception {
+        snapshotStorage.setSnapshot(new TimeSnapshot(TIME, TIME - UPTIME, UPTIME, 0, ERROR_BOUND));
+        File dataDirectory = temporaryFolder.newFolder();
+        CountDownLatch directoryResolved = new CountDownLatch(1);
+        CountDownLatch diskReady = new CountDownLatch(1);
+
+        // the cache thread is stuck loading the drift file, holding the lock of the estimator
+        RealTimeEngine slowEngine = new RealTimeEngine(clock, snapshotStorage, connectivitySignal,
+                Schedulers.from(executor), () -> {
+                    directoryResolved.countDown();
+                    diskReady.await();
+                    return dataDirectory;
+                });
+        slowEngine.preload(null);
+        assertTrue(directoryResolved.await(5, TimeUnit.SECONDS));
+
+        try {
+            CompletableFuture<Long> errorBound = CompletableFuture.supplyAsync(slowEngine::getErrorBound);
+            assertEquals(ERROR_BOUND, (long) errorBound.get(1, TimeUnit.SECONDS));
+            assertFalse(slowEngine.getDriftEstimate().isKnown());
+        } finally {
+            diskReady.countDown();
+            slowEngine.close();
+        }
+    }
+
+    @Test
+    public void failedSavesAreOnlyLogged() throws Exception {
+        List<Throwable> errors = new CopyOnWriteArrayList<>();
+        Thread.UncaughtExceptionHandler defaultHandler = Thread.getDefaultUncaughtExceptionHandler();
+        Thread.setDefaultUncaughtExceptionHandler((thread, throwable) -> errors.add(throwable));
+
+        RealTimeEngine brokenEngine = new RealTimeEngine(clock, snapshotStorage, connectivitySignal,
+                Schedulers.from(executor), () -> {
+                    throw new IOException("No data directory");
+                });
+
+        try {
+            brokenEngine.sync();
+            drain();
+            brokenEngine.addSample(gpsSample(TIME));
+            drain();
+
+            // saves are queued on the cache thread before the preload
+            CountDownLatch saved = new CountDownLatch(1);
+            brokenEngine.preload(saved::countDown);
+            assertTrue(saved.await(5, TimeUnit.SECONDS));
+
+            assertTrue(brokenEngine.isInitialized());
+            assertTrue(errors.toString(), errors.isEmpty());
+        } finally {
+            Thread.setDefaultUncaughtExceptionHandler(defaultHandler);
+            brokenEngine.close();
+        }
+    }
+
+    @Test
+    public void storedSnapshotFromPreviousBootIsNotValid() {
+        snapshotStorage.setSnapshot(new TimeSnapshot(TIME, TIME - UPTIME * 2, UPTIME * 2));
+
+        assertFalse(engine.isInitialized());
+        assertEquals(RealTimeEngine.NOT_INITIALIZED, engine.tryNowMillis());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void nowMillisThrowsWhenNotInitialized() {
+        engine.nowMillis();
+    }
+
+    @Test
+    public void waitsForConnectivityBeforeRequestingNetworkProviders() throws Exception {
+        // the port is never contacted, because the signal stays disconnected
+        engine.withNtpServer("127.0.0.1:9").setSelectionQuorum(1);
+
+        engine.sync();
+        drain();
+
+        assertEquals(RealTimeEngine.SyncState.WAITING_FOR_CONNECTIVITY, engine.getSyncState());
+        assertNotNull(connectivitySignal.listener);
+
+        engine.addSample(gpsSample(TIME));
+        drain();
+
+        assertEquals(RealTimeEngine.SyncState.IDLE, engine.getSyncState());
+        assertNull(connectivitySignal.listener);
+    }
+
+    @Test
+    public void clearCachedInfoInvalidatesTime() throws Exception {
+        engine.sync();
+        drain();
+        engine.addSample(gpsSample(TIME));
+        drain();
+
+        engine.clearCachedInfo();
+
+        assertFalse(engine.isInitialized());
+        assertTrue(engine.getSnapshot().isEmpty());
+    }
+
+    private TimeSample gpsSample(long time) {
+        return new TimeSample(TimeSource.GPS_PROVIDER, "gps", time, clock.elapsedRealtime(), 0, ERROR_BOUND);
+    }
+
+    /**
+     * This function waits until everything scheduled on the engine scheduler so far has run
+     */
+    private void drain() throws Exception {
+        executor.submit(() -> null).get(5, TimeUnit.SECONDS);
+    }
+
+    private static class FakeConnectivitySignal implements ConnectivitySignal {
+        private volatile Listener listener;
+
+        @Override
+        public void addListener(Listener listener) {
+            this.listener = listener;
+            listener.onConnectivityChanged(false);
+        }
+
+        @Override
+        public void removeListener(Listener listener) {
+            if (this.listener == listener) this.listener = null;
+        }
+    }
+}
@@ -0,0 +1,159 @@
+package ir.programmerplus.realtime.clock;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+
+import ir.programmerplus.realtime.models.DriftEstimate;
+import ir.programmerplus.realtime.utils.LogUtils;
+
+public class DriftEstimatorTest {
+
+    private static final long BOOT_TIME = 1_700_000_000_000L;
+    private static final long HOUR = 60 * 60 * 1000;
+    private static final long ERROR_BOUND = 5;
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private File file;
+    private DriftEstimator driftEstimator;
+
+    @Before
+    public void setUp() {
+        LogUtils.setLoggingEnabled(false);
+
+        file = new File(temporaryFolder.getRoot(), "drift.bin");
+        driftEstimator = new DriftEstimator(file);
+    }
+
+    @Test
+    public void noAnchorsGiveUnknownEstimate() {
+        assertFalse(driftEstimator.getEstimate().isKnown());
+        assertEquals(0, driftEstimator.getCorrection(), 0);
+    }
+
+    @Test
+    public void singleAnchorIsNotEnough() {
+        addAnchor(HOUR, 20, 0);
+
+        assertFalse(driftEstimator.getEstimate().isKnown());
+        assertEquals(0, driftEstimator.getCorrection(), 0);
+    }
+
+    @Test
+    public void anchorsCloserThanMinimumSpanAreIgnored() {
+        addAnchor(HOUR, 20, 0);
+        addAnchor(HOUR + 29 * 60 * 1000, 20, 0);
+
+        assertFalse(driftEstimator.getEstimate().isKnown());
+    }
+
+    @Test
+    public void pairsDominatedBySyncErrorsAreIgnored() {
+        // 2 x 100ms of error over an hour could cause 55 ppm of drift on its own
+        driftEstimator.addAnchor(HOUR, BOOT_TIME + HOUR, 100);
+        driftEstimator.addAnchor(2 * HOUR, BOOT_TIME + 2 * HOUR, 100);
+
+        assertFalse(driftEstimator.getEstimate().isKnown());
+    }
+
+    @Test
+    public void twoAnchorsFarEnoughApartGiveEstimate() {
+        addAnchor(HOUR, 20, 0);
+        addAnchor(3 * HOUR, 20, 0);
+
+        DriftEstimate estimate = driftEstimator.getEstimate();
+        assertTrue(estimate.isKnown());
+        assertEquals(1, estimate.getPairCount());
+        assertEquals(20, estimate.getDriftPpm(), 0.5);
+    }
+
+    @Test
+    public void estimatesLinearDrift() {
+        for (int i = 1; i <= 10; i++) {
+            addAnchor(i * HOUR, -35, 0);
+        }
+
+        DriftEstimate estimate = driftEstimator.getEstimate();
+        assertEquals(-35, estimate.getDriftPpm(), 0.5);
+        assertTrue(estimate.getUncertaintyPpm() < 5);
+        assertEquals(-35e-6, driftEstimator.getCorrection(), 0.5e-6);
+    }
+
+    @Test
+    public void outliersDontAffectEstimate() {
+        for (int i = 1; i <= 10; i++) {
+            // two syncs report a time 400ms off, but claim to be precise
+            long outlier = i == 3 ? 400 : i == 7 ? -400 : 0;
+            addAnchor(i * HOUR, 20, outlier);
+        }
+
+        DriftEstimate estimate = driftEstimator.getEstimate();
+        assertEquals(45, estimate.getPairCount());
+        assertEquals(20, estimate.getDriftPpm(), 2);
+    }
+
+    @Test
+    public void outliersInSameDirectionDontAffectEstimate() {
+        for (int i = 1; i <= 12; i++) {
+            long outlier = i == 4 || i == 9 ? 600 : 0;
+            addAnchor(i * HOUR, 10, outlier);
+        }
+
+        assertEquals(10, driftEstimator.getEstimate().getDriftPpm(), 3);
+    }
+
+    @Test
+    public void implausibleDriftIsNotApplied() {
+        addAnchor(HOUR, 600, 0);
+        addAnchor(3 * HOUR, 600, 0);
+
+        assertTrue(driftEstimator.getEstimate().isKnown());
+        assertEquals(0, driftEstimator.getCorrection(), 0);
+    }
+
+    @Test
+    public void rebootKeepsLastEstimate() {
+        addAnchor(HOUR, 20, 0);
+        addAnchor(3 * HOUR, 20, 0);
+
+        // uptime starts from zero again, so the new anchors can't be paired with old ones
+        driftEstimator.addAnchor(HOUR / 2, BOOT_TIME + 10 * HOUR, ERROR_BOUND);
+        driftEstimator.addAnchor(HOUR / 2 + 10 * 60 * 1000, BOOT_TIME + 10 * HOUR + 10 * 60 * 1000, ERROR_BOUND);
+
+        assertEquals(20, driftEstimator.getEstimate().getDriftPpm(), 0.5);
+    }
+
+    @Test
+    public void estimateIsPersisted() {
+        addAnchor(HOUR, 20, 0);
+        addAnchor(3 * HOUR, 20, 0);
+        driftEstimator.save();
+
+        DriftEstimator restarted = new DriftEstimator(file);
+        assertEquals(driftEstimator.getEstimate().getDriftPpm(), restarted.getEstimate().getDriftPpm(), 0);
+
+        // anchors are restored too, so the next sync makes new pairs with them
+        restarted.addAnchor(5 * HOUR, timeAt(5 * HOUR, 20, 0), ERROR_BOUND);
+        assertEquals(3, restarted.getEstimate().getPairCount());
+    }
+
+    private void addAnchor(long deviceUptime, double driftPpm, long offset) {
+        driftEstimator.addAnchor(deviceUptime, timeAt(deviceUptime, driftPpm, offset), ERROR_BOUND);
+    }
+
+    /**
+     * @return reliable time at the given uptime of a clock which drifts by the given rate
+     */
+    private static long timeAt(long deviceUptime, double driftPpm, long offset) {
+        return BOOT_TIME + deviceUptime + Math.round(deviceUptime * driftPpm / 1e6) + offset;
+    }
+}
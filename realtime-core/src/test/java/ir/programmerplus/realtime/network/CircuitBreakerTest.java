@@ -0,0 +1,82 @@
+package ir.programmerplus.realtime.network;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import ir.programmerplus.realtime.testing.FakeClock;
+import ir.programmerplus.realtime.utils.LogUtils;
+
+public class CircuitBreakerTest {
+
+    private static final int FAILURE_THRESHOLD = 2;
+    private static final long OPEN_DURATION = 60 * 1000;
+
+    private final FakeClock clock = new FakeClock(60 * 1000);
+    private final CircuitBreaker circuitBreaker = new CircuitBreaker("time.example.com", clock,
+            FAILURE_THRESHOLD, OPEN_DURATION);
+
+    @Before
+    public void setUp() {
+        LogUtils.setLoggingEnabled(false);
+    }
+
+    @Test
+    public void halfOpenCircuitAllowsOneTrialRequest() {
+        open();
+        clock.advance(OPEN_DURATION);
+
+        assertEquals(CircuitBreaker.State.HALF_OPEN, circuitBreaker.getState());
+        assertTrue(circuitBreaker.allowRequest());
+        assertFalse(circuitBreaker.allowRequest());
+        assertFalse(circuitBreaker.allowRequest());
+
+        circuitBreaker.onSuccess();
+
+        assertEquals(CircuitBreaker.State.CLOSED, circuitBreaker.getState());
+        assertTrue(circuitBreaker.allowRequest());
+        assertTrue(circuitBreaker.allowRequest());
+    }
+
+    @Test
+    public void failedTrialOpensCircuitAgain() {
+        open();
+        clock.advance(OPEN_DURATION);
+
+        assertTrue(circuitBreaker.allowRequest());
+        circuitBreaker.onFailure();
+
+        assertEquals(CircuitBreaker.State.OPEN, circuitBreaker.getState());
+        assertFalse(circuitBreaker.allowRequest());
+
+        // the next half-open period has its own trial
+        clock.advance(OPEN_DURATION);
+        assertTrue(circuitBreaker.allowRequest());
+        assertFalse(circuitBreaker.allowRequest());
+    }
+
+    @Test
+    public void trialWithoutResultStopsBlockingAfterOpenDuration() {
+        open();
+        clock.advance(OPEN_DURATION);
+
+        assertTrue(circuitBreaker.allowRequest());
+        clock.advance(OPEN_DURATION - 1);
+        assertFalse(circuitBreaker.allowRequest());
+
+        clock.advance(1);
+        assertTrue(circuitBreaker.allowRequest());
+        assertFalse(circuitBreaker.allowRequest());
+    }
+
+    private void open() {
+        for (int i = 0; i < FAILURE_THRESHOLD; i++) {
+            circuitBreaker.onFailure();
+        }
+
+        assertFalse(circuitBreaker.allowRequest());
+    }
+}
@@ -0,0 +1,125 @@
+package ir.programmerplus.realtime.network;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+
+import io.reactivex.plugins.RxJavaPlugins;
+import io.reactivex.schedulers.Schedulers;
+import ir.programmerplus.realtime.testing.FakeClock;
+import ir.programmerplus.realtime.utils.LogUtils;
+
+public class DnsCacheTest {
+
+    // the .invalid top level domain never resolves, see RFC 6761
+    private static final String UNRESOLVABLE_HOST = "realtime-test.invalid";
+
+    private static final byte[] LAST_GOOD_ADDRESS = {(byte) 192, 0, 2, 1};
+
+    private static final long NEGATIVE_TTL = 30 * 1000;
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private final FakeClock clock = new FakeClock(60 * 1000);
+    private File file;
+
+    @Before
+    public void setUp() throws IOException {
+        LogUtils.setLoggingEnabled(false);
+        file = new File(temporaryFolder.getRoot(), "dns.bin");
+
+        // background refreshes run right away, so their result is known when resolve returns
+        RxJavaPlugins.setIoSchedulerHandler(scheduler -> Schedulers.trampoline());
+    }
+
+    @After
+    public void tearDown() {
+        RxJavaPlugins.reset();
+    }
+
+    @Test
+    public void persistedAddressIsServedStaleWhenRefreshFails() throws Exception {
+        persist(UNRESOLVABLE_HOST, LAST_GOOD_ADDRESS);
+        DnsCache dnsCache = new DnsCache(file, clock);
+
+        assertArrayEquals(LAST_GOOD_ADDRESS, dnsCache.resolve(UNRESOLVABLE_HOST).getAddress());
+
+        // the refresh fails, but the last good address is kept
+        assertArrayEquals(LAST_GOOD_ADDRESS, dnsCache.resolve(UNRESOLVABLE_HOST).getAddress());
+
+        clock.advance(NEGATIVE_TTL + 1);
+        assertArrayEquals(LAST_GOOD_ADDRESS, dnsCache.resolve(UNRESOLVABLE_HOST).getAddress());
+    }
+
+    @Test
+    public void clearingNegativeEntriesKeepsLastGoodAddress() throws Exception {
+        persist(UNRESOLVABLE_HOST, LAST_GOOD_ADDRESS);
+        DnsCache dnsCache = new DnsCache(file, clock);
+
+        dnsCache.resolve(UNRESOLVABLE_HOST);
+        dnsCache.clearNegativeEntries();
+
+        assertArrayEquals(LAST_GOOD_ADDRESS, dnsCache.resolve(UNRESOLVABLE_HOST).getAddress());
+    }
+
+    @Test
+    public void failedLookupOfUnknownHostIsCached() {
+        DnsCache dnsCache = new DnsCache(file, clock);
+
+        UnknownHostException first = resolveFailure(dnsCache);
+        assertSame(first, resolveFailure(dnsCache));
+
+        clock.advance(NEGATIVE_TTL + 1);
+        UnknownHostException afterTtl = resolveFailure(dnsCache);
+        assertTrue(afterTtl != first);
+    }
+
+    @Test
+    public void successfulLookupIsPersisted() throws Exception {
+        DnsCache dnsCache = new DnsCache(file, clock);
+        InetAddress address = dnsCache.resolve("localhost");
+
+        assertSame(address, dnsCache.resolve("localhost"));
+        assertTrue(file.exists());
+
+        DnsCache restarted = new DnsCache(file, clock);
+        assertArrayEquals(address.getAddress(), restarted.resolve("localhost").getAddress());
+    }
+
+    private static UnknownHostException resolveFailure(DnsCache dnsCache) {
+        try {
+            dnsCache.resolve(UNRESOLVABLE_HOST);
+        } catch (UnknownHostException e) {
+            return e;
+        }
+
+        fail(UNRESOLVABLE_HOST + " must not resolve");
+        return null;
+    }
+
+    private void persist(String host, byte[] address) throws IOException {
+        try (DataOutputStream outputStream = new DataOutputStream(new FileOutputStream(file))) {
+            outputStream.writeInt(1);
+            outputStream.writeInt(1);
+            outputStream.writeUTF(host);
+            outputStream.writeInt(1);
+            outputStream.writeByte(address.length);
+            outputStream.write(address);
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package ir.programmerplus.realtime.network;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.List;
+
+import ir.programmerplus.realtime.testing.FakeClock;
+import ir.programmerplus.realtime.utils.LogUtils;
+
+public class HostHealthTest {
+
+    private static final String FAILING_HOST = "failing.example.com";
+    private static final String OTHER_HOST = "other.example.com";
+
+    private static final List<String> HOSTS = Arrays.asList(FAILING_HOST, OTHER_HOST);
+
+    // the first skip period after three failures in a row
+    private static final long SKIP_DURATION = 60 * 1000;
+
+    // slow enough to be ranked after the failing host once it isn't skipped
+    private static final long SLOW_LATENCY = 100 * 1000;
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private final FakeClock clock = new FakeClock(60 * 1000);
+    private File file;
+
+    @Before
+    public void setUp() {
+        LogUtils.setLoggingEnabled(false);
+        file = new File(temporaryFolder.getRoot(), "hosts.bin");
+    }
+
+    @Test
+    public void skipPeriodFollowsMonotonicClock() {
+        HostHealth hostHealth = new HostHealth(file, clock);
+        hostHealth.recordSuccess(OTHER_HOST, SLOW_LATENCY);
+        fail(hostHealth, 3);
+
+        assertEquals(Arrays.asList(OTHER_HOST, FAILING_HOST), hostHealth.rank(HOSTS));
+
+        clock.advance(SKIP_DURATION - 1);
+        assertEquals(Arrays.asList(OTHER_HOST, FAILING_HOST), hostHealth.rank(HOSTS));
+
+        clock.advance(1);
+        assertEquals(HOSTS, hostHealth.rank(HOSTS));
+    }
+
+    @Test
+    public void skipPeriodResumesAfterRestart() {
+        HostHealth hostHealth = new HostHealth(file, clock);
+        hostHealth.recordSuccess(OTHER_HOST, SLOW_LATENCY);
+        fail(hostHealth, 3);
+        clock.advance(SKIP_DURATION / 2);
+        hostHealth.save();
+
+        // the device rebooted, so its uptime starts over
+        FakeClock rebootedClock = new FakeClock(1000);
+        HostHealth restored = new HostHealth(file, rebootedClock);
+
+        assertEquals(Arrays.asList(OTHER_HOST, FAILING_HOST), restored.rank(HOSTS));
+
+        rebootedClock.advance(SKIP_DURATION / 2);
+        assertEquals(HOSTS, restored.rank(HOSTS));
+    }
+
+    private static void fail(HostHealth hostHealth, int times) {
+        for (int i = 0; i < times; i++) {
+            hostHealth.recordFailure(FAILING_HOST);
+        }
+    }
+}
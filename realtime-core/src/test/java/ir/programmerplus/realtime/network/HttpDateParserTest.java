@@ -0,0 +1,111 @@
+package ir.programmerplus.realtime.network;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import java.time.Instant;
+
+public class HttpDateParserTest {
+
+    private static final long RFC_EXAMPLE = Instant.parse("1994-11-06T08:49:37Z").toEpochMilli();
+
+    @Test
+    public void parsesImfFixdate() {
+        assertEquals(RFC_EXAMPLE, HttpDateParser.parse("Sun, 06 Nov 1994 08:49:37 GMT"));
+        assertEquals(0, HttpDateParser.parse("Thu, 01 Jan 1970 00:00:00 GMT"));
+        assertEquals(Instant.parse("2024-02-29T23:59:59Z").toEpochMilli(),
+                HttpDateParser.parse("Thu, 29 Feb 2024 23:59:59 GMT"));
+        assertEquals(Instant.parse("2100-03-01T12:00:00Z").toEpochMilli(),
+                HttpDateParser.parse("Mon, 01 Mar 2100 12:00:00 GMT"));
+    }
+
+    @Test
+    public void parsesEveryMonth() {
+        String[] months = {"Jan", "Feb", "Mar", "Apr", "May", "Jun", "Jul", "Aug", "Sep", "Oct", "Nov", "Dec"};
+
+        for (int i = 0; i < months.length; i++) {
+            String expected = String.format("2023-%02d-15T10:20:30Z", i + 1);
+            assertEquals(expected, Instant.parse(expected).toEpochMilli(),
+                    HttpDateParser.parse("Wed, 15 " + months[i] + " 2023 10:20:30 GMT"));
+        }
+    }
+
+    @Test
+    public void acceptsLeapSecond() {
+        assertEquals(Instant.parse("2016-12-31T23:59:59Z").toEpochMilli() + 1000,
+                HttpDateParser.parse("Sat, 31 Dec 2016 23:59:60 GMT"));
+    }
+
+    @Test
+    public void parsesRfc850Date() {
+        assertEquals(RFC_EXAMPLE, HttpDateParser.parse("Sunday, 06-Nov-94 08:49:37 GMT"));
+        assertEquals(Instant.parse("2021-09-01T00:00:00Z").toEpochMilli(),
+                HttpDateParser.parse("Wednesday, 01-Sep-21 00:00:00 GMT"));
+        assertEquals(Instant.parse("2069-05-05T05:05:05Z").toEpochMilli(),
+                HttpDateParser.parse("Friday, 05-May-69 05:05:05 GMT"));
+        assertEquals(Instant.parse("1970-05-05T05:05:05Z").toEpochMilli(),
+                HttpDateParser.parse("Tuesday, 05-May-70 05:05:05 GMT"));
+    }
+
+    @Test
+    public void parsesAsctimeDate() {
+        assertEquals(RFC_EXAMPLE, HttpDateParser.parse("Sun Nov  6 08:49:37 1994"));
+        assertEquals(Instant.parse("2024-12-25T18:30:00Z").toEpochMilli(),
+                HttpDateParser.parse("Wed Dec 25 18:30:00 2024"));
+    }
+
+    @Test
+    public void rejectsMissingValue() {
+        assertEquals(HttpDateParser.INVALID_DATE, HttpDateParser.parse(null));
+        assertEquals(HttpDateParser.INVALID_DATE, HttpDateParser.parse(""));
+        assertEquals(HttpDateParser.INVALID_DATE, HttpDateParser.parse("garbage"));
+    }
+
+    @Test
+    public void rejectsMalformedImfFixdate() {
+        String[] values = {
+                "Sun, 06 Nov 1994 08:49:37 UTC",
+                "Sun, 06 Nov 1994 08:49:37 GMT ",
+                "Sun, 6 Nov 1994 08:49:37 GMT",
+                "Sun, 06 Nov 1994 08-49-37 GMT",
+                "Sun, 06 Xyz 1994 08:49:37 GMT",
+                "Sun, 06 nov 1994 08:49:37 GMT",
+                "Sun, 00 Nov 1994 08:49:37 GMT",
+                "Sun, 32 Nov 1994 08:49:37 GMT",
+                "Sun, 06 Nov 1994 24:00:00 GMT",
+                "Sun, 06 Nov 1994 08:60:00 GMT",
+                "Sun, 06 Nov 1994 08:49:61 GMT",
+                "Sun, 06 Nov 1969 08:49:37 GMT",
+                "Sun, 0a Nov 1994 08:49:37 GMT",
+                "Sun, 06 Nov 1994 -8:49:37 GMT",
+                "Sun 06 Nov 1994 08:49:37 GMT ",
+        };
+
+        for (String value : values) {
+            assertEquals(value, HttpDateParser.INVALID_DATE, HttpDateParser.parse(value));
+        }
+    }
+
+    @Test
+    public void rejectsMalformedObsoleteDates() {
+        String[] values = {
+                "Sunday, 06-Nov-94 08:49:37 UTC",
+                "Sunday, 06-Nov-1994 08:49:37 GMT",
+                "Sunday, 06 Nov 94 08:49:37 GMT",
+                "Sun, 06-Nov-94 08:49:37 GMT",
+                "Sundayyyyy, 06-Nov-94 08:49:37 GMT",
+                "Sunday 06-Nov-94 08:49:37 GMT",
+                "Sunday, 06-Nov-9x 08:49:37 GMT",
+                "Sun Nov 06 08:49:37 94",
+                "Sun Nov  6 08:49:37 199x",
+                "Sun Nov  6 08.49.37 1994",
+                "Sun Xyz  6 08:49:37 1994",
+                "Sun Nov 32 08:49:37 1994",
+        };
+
+        for (String value : values) {
+            assertEquals(value, HttpDateParser.INVALID_DATE, HttpDateParser.parse(value));
+        }
+    }
+}
@@ -0,0 +1,187 @@
+package ir.programmerplus.realtime.network;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import ir.programmerplus.realtime.clock.MonotonicClock;
+import ir.programmerplus.realtime.testing.FakeSntpServer;
+import ir.programmerplus.realtime.testing.FaultProfile;
+import ir.programmerplus.realtime.testing.LatencyDistribution;
+import ir.programmerplus.realtime.utils.LogUtils;
+
+public class SntpClientTest {
+
+    private static final long OFFSET = 5 * 60 * 1000;
+
+    private SntpClient client;
+    private FakeSntpServer server;
+
+    @Before
+    public void setUp() throws IOException {
+        LogUtils.setLoggingEnabled(false);
+        client = new SntpClient(MonotonicClock.SYSTEM);
+    }
+
+    @After
+    public void tearDown() {
+        client.close();
+        if (server != null) server.close();
+    }
+
+    @Test
+    public void receivesServerTime() throws Exception {
+        server = new FakeSntpServer(FaultProfile.builder()
+                .offset(OFFSET)
+                .latency(LatencyDistribution.constant(20))
+                .build());
+
+        Result result = request();
+        assertNull(result.error);
+
+        long expected = System.currentTimeMillis() + OFFSET;
+        assertTrue(Math.abs(result.timeAt(MonotonicClock.SYSTEM.elapsedRealtimeNanos()) - expected) < 20);
+        assertTrue(result.roundTripDelay >= 20);
+    }
+
+    @Test
+    public void rejectsKissOfDeath() throws Exception {
+        // the first request of the burst is answered, the next one gets a "RATE" kiss-o'-death
+        server = new FakeSntpServer(FaultProfile.builder().rateLimit(0.01, 1).build());
+
+        assertNull(request().error);
+
+        Result result = request();
+        assertNotNull(result.error);
+        assertEquals(1, server.getStats().getRateLimited());
+    }
+
+    @Test
+    public void ignoresResponseWithMismatchedNonce() throws Exception {
+        server = new FakeSntpServer(FaultProfile.builder().nonceMismatch(1).build());
+
+        assertNull(requestOrTimeout());
+        assertEquals(1, server.getStats().getResponses());
+    }
+
+    @Test
+    public void lostRequestIsNeverAnswered() throws Exception {
+        server = new FakeSntpServer(FaultProfile.builder().lossRate(1).build());
+
+        assertNull(requestOrTimeout());
+        assertEquals(1, server.getStats().getDropped());
+    }
+
+    @Test
+    public void canceledRequestIsNotDelivered() throws Exception {
+        server = new FakeSntpServer(FaultProfile.builder().latency(LatencyDistribution.constant(200)).build());
+
+        CompletableFuture<Result> future = new CompletableFuture<>();
+        long requestId = client.send(address(), callback(future));
+        client.cancel(requestId);
+
+        try {
+            future.get(500, TimeUnit.MILLISECONDS);
+            throw new AssertionError("Canceled request must not be delivered");
+        } catch (TimeoutException expected) {
+            assertEquals(1, server.getStats().getResponses());
+        }
+    }
+
+    @Test
+    public void closedClientReleasesThreadAndRejectsRequests() throws Exception {
+        server = new FakeSntpServer(FaultProfile.builder().build());
+        assertNull(request().error);
+
+        client.close();
+
+        // the selector thread exits once it is woken up
+        for (int i = 0; i < 50 && isSntpThreadAlive(); i++) Thread.sleep(20);
+        assertFalse(isSntpThreadAlive());
+
+        try {
+            client.send(address(), callback(new CompletableFuture<>()));
+            throw new AssertionError("Closed client must not send requests");
+        } catch (IOException expected) {
+            assertEquals(1, server.getStats().getRequests());
+        }
+    }
+
+    private static boolean isSntpThreadAlive() {
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            if (thread.getName().equals("RealTime-Sntp") && thread.isAlive()) return true;
+        }
+
+        return false;
+    }
+
+    private Result request() throws Exception {
+        CompletableFuture<Result> future = new CompletableFuture<>();
+        client.send(address(), callback(future));
+        return future.get(5, TimeUnit.SECONDS);
+    }
+
+    /**
+     * @return the result, or null if no response is delivered within a second
+     */
+    private Result requestOrTimeout() throws Exception {
+        CompletableFuture<Result> future = new CompletableFuture<>();
+        client.send(address(), callback(future));
+
+        try {
+            return future.get(1, TimeUnit.SECONDS);
+        } catch (TimeoutException e) {
+            return null;
+        }
+    }
+
+    private InetSocketAddress address() {
+        String host = server.getHost();
+        int separator = host.lastIndexOf(':');
+        return new InetSocketAddress(host.substring(0, separator), Integer.parseInt(host.substring(separator + 1)));
+    }
+
+    private static SntpClient.Callback callback(CompletableFuture<Result> future) {
+        return new SntpClient.Callback() {
+            @Override
+            public void onResponse(long time, long deviceUptimeNanos, long roundTripDelay) {
+                future.complete(new Result(time, deviceUptimeNanos, roundTripDelay, null));
+            }
+
+            @Override
+            public void onError(IOException exception) {
+                future.complete(new Result(0, 0, 0, exception));
+            }
+        };
+    }
+
+    private static class Result {
+        final long time;
+        final long deviceUptimeNanos;
+        final long roundTripDelay;
+        final IOException error;
+
+        Result(long time, long deviceUptimeNanos, long roundTripDelay, IOException error) {
+            this.time = time;
+            this.deviceUptimeNanos = deviceUptimeNanos;
+            this.roundTripDelay = roundTripDelay;
+            this.error = error;
+        }
+
+        long timeAt(long deviceUptimeNanos) {
+            return time + (deviceUptimeNanos - this.deviceUptimeNanos) / 1_000_000;
+        }
+    }
+}
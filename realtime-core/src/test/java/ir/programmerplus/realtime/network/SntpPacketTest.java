@@ -0,0 +1,160 @@
+package ir.programmerplus.realtime.network;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.time.Instant;
+
+public class SntpPacketTest {
+
+    // seconds between NTP era 0 (1 Jan 1900) and Unix epoch
+    private static final long UNIX_EPOCH_NTP_SECONDS = 2_208_988_800L;
+
+    private static final long ERA_1_START = Instant.parse("2036-02-07T06:28:16Z").toEpochMilli();
+
+    @Test
+    public void unixEpochIsAtEra0Offset() {
+        assertEquals(0, SntpPacket.toMillis(UNIX_EPOCH_NTP_SECONDS << 32));
+        assertEquals(UNIX_EPOCH_NTP_SECONDS << 32, SntpPacket.toNtpTimestamp(0));
+    }
+
+    @Test
+    public void fractionIsConvertedToMilliseconds() {
+        long seconds = UNIX_EPOCH_NTP_SECONDS << 32;
+
+        assertEquals(500, SntpPacket.toMillis(seconds | 0x80000000L));
+        assertEquals(250, SntpPacket.toMillis(seconds | 0x40000000L));
+        assertEquals(999, SntpPacket.toMillis(seconds | 0xFFBE76C8L));
+
+        // fractions are rounded to the nearest millisecond
+        assertEquals(1, SntpPacket.toMillis(seconds | 0x00300000L));
+        assertEquals(0, SntpPacket.toMillis(seconds | 0x00100000L));
+    }
+
+    @Test
+    public void roundTripInEra0() {
+        long[] times = {
+                0,
+                Instant.parse("1999-12-31T23:59:59.999Z").toEpochMilli(),
+                Instant.parse("2024-02-29T12:34:56.789Z").toEpochMilli(),
+                ERA_1_START - 1,
+        };
+
+        for (long time : times) {
+            assertEquals(time, SntpPacket.toMillis(SntpPacket.toNtpTimestamp(time)));
+        }
+    }
+
+    @Test
+    public void roundTripInEra1() {
+        long[] times = {
+                ERA_1_START,
+                ERA_1_START + 1,
+                Instant.parse("2040-06-15T08:00:00.125Z").toEpochMilli(),
+                Instant.parse("2100-01-01T00:00:00Z").toEpochMilli(),
+        };
+
+        for (long time : times) {
+            assertEquals(time, SntpPacket.toMillis(SntpPacket.toNtpTimestamp(time)));
+        }
+    }
+
+    @Test
+    public void era1StartsWhenEra0SecondsWrapAround() {
+        assertEquals(0, SntpPacket.toNtpTimestamp(ERA_1_START));
+        assertEquals(0xFFFFFFFFL, SntpPacket.toNtpTimestamp(ERA_1_START - 1000) >>> 32);
+        assertEquals(ERA_1_START + 1000, SntpPacket.toMillis(1L << 32));
+    }
+
+    @Test
+    public void encodesClientRequest() {
+        ByteBuffer buffer = ByteBuffer.allocate(SntpPacket.PACKET_SIZE);
+        SntpPacket.encodeRequest(buffer, 0x0123456789ABCDEFL);
+
+        assertEquals(0, buffer.position());
+        assertEquals(SntpPacket.PACKET_SIZE, buffer.limit());
+        // leap indicator 0, version 4, mode 3
+        assertEquals(0x23, buffer.get(0));
+        assertEquals(0x0123456789ABCDEFL, buffer.getLong(40));
+
+        for (int i = 1; i < 40; i++) {
+            assertEquals(0, buffer.get(i));
+        }
+    }
+
+    @Test
+    public void acceptsSynchronizedServerResponse() {
+        ByteBuffer response = response(0, 2, 4);
+
+        assertTrue(SntpPacket.isValidResponse(response));
+        assertEquals(0x1122334455667788L, SntpPacket.getOriginateTimestamp(response));
+    }
+
+    @Test
+    public void acceptsLeapSecondWarnings() {
+        assertTrue(SntpPacket.isValidResponse(response(1, 2, 4)));
+        assertTrue(SntpPacket.isValidResponse(response(2, 2, 4)));
+    }
+
+    @Test
+    public void rejectsUnsynchronizedLeapIndicator() {
+        assertFalse(SntpPacket.isValidResponse(response(3, 2, 4)));
+    }
+
+    @Test
+    public void rejectsKissOfDeath() {
+        ByteBuffer response = response(3, 0, 4);
+        response.putInt(12, 0x52415445); // "RATE"
+        assertFalse(SntpPacket.isValidResponse(response));
+
+        // a kiss-o'-death is recognized by its stratum, whatever the leap indicator is
+        assertFalse(SntpPacket.isValidResponse(response(0, 0, 4)));
+    }
+
+    @Test
+    public void rejectsInvalidStratum() {
+        assertTrue(SntpPacket.isValidResponse(response(0, 15, 4)));
+        assertFalse(SntpPacket.isValidResponse(response(0, 16, 4)));
+    }
+
+    @Test
+    public void rejectsNonServerMode() {
+        assertFalse(SntpPacket.isValidResponse(response(0, 2, 3)));
+        assertFalse(SntpPacket.isValidResponse(response(0, 2, 5)));
+    }
+
+    @Test
+    public void rejectsMissingTimestamps() {
+        ByteBuffer noReceive = response(0, 2, 4);
+        noReceive.putLong(32, 0);
+        assertFalse(SntpPacket.isValidResponse(noReceive));
+
+        ByteBuffer noTransmit = response(0, 2, 4);
+        noTransmit.putLong(40, 0);
+        assertFalse(SntpPacket.isValidResponse(noTransmit));
+    }
+
+    @Test
+    public void rejectsShortPacket() {
+        ByteBuffer response = response(0, 2, 4);
+        response.limit(SntpPacket.PACKET_SIZE - 1);
+
+        assertFalse(SntpPacket.isValidResponse(response));
+    }
+
+    private static ByteBuffer response(int leapIndicator, int stratum, int mode) {
+        long now = SntpPacket.toNtpTimestamp(Instant.parse("2024-01-01T00:00:00Z").toEpochMilli());
+
+        ByteBuffer response = ByteBuffer.allocate(SntpPacket.PACKET_SIZE);
+        response.put(0, (byte) (leapIndicator << 6 | 4 << 3 | mode));
+        response.put(1, (byte) stratum);
+        response.putLong(24, 0x1122334455667788L);
+        response.putLong(32, now);
+        response.putLong(40, now);
+        return response;
+    }
+}
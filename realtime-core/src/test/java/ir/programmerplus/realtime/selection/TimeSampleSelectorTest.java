@@ -0,0 +1,166 @@
+package ir.programmerplus.realtime.selection;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import ir.programmerplus.realtime.models.TimeSample;
+import ir.programmerplus.realtime.models.TimeSource;
+
+public class TimeSampleSelectorTest {
+
+    private static final long BOOT_TIME = 1_700_000_000_000L;
+
+    @Test
+    public void noSamplesSelectNothing() {
+        assertNull(TimeSampleSelector.select(Collections.emptyList()));
+    }
+
+    @Test
+    public void singleSampleIsSelected() {
+        TimeSample sample = sample("a", BOOT_TIME, 20, 1000);
+        Selection selection = TimeSampleSelector.select(Collections.singletonList(sample));
+
+        assertNotNull(selection);
+        assertEquals(Collections.singletonList(sample), selection.getTruechimers());
+        assertEquals(BOOT_TIME, selection.getSample().getBootTime());
+        assertEquals(20, selection.getSample().getErrorBound());
+    }
+
+    @Test
+    public void majorityCliqueExcludesFalseticker() {
+        TimeSample a = sample("a", BOOT_TIME, 10, 1000);
+        TimeSample b = sample("b", BOOT_TIME + 5, 10, 1100);
+        TimeSample c = sample("c", BOOT_TIME - 5, 10, 1200);
+        TimeSample falseticker = sample("d", BOOT_TIME + 60_000, 10, 1300);
+
+        Selection selection = TimeSampleSelector.select(Arrays.asList(a, falseticker, b, c));
+
+        assertNotNull(selection);
+        assertEquals(Arrays.asList(a, b, c), selection.getTruechimers());
+        assertEquals(Collections.singletonList(falseticker), selection.getFalsetickers());
+        assertTrue(selection.hasMajority(4));
+
+        // the intersection of the clique is [BOOT_TIME - 5, BOOT_TIME + 5]
+        TimeSample selected = selection.getSample();
+        assertTrue(Math.abs(selected.getBootTime() - BOOT_TIME) <= 5);
+        assertEquals(5, selected.getErrorBound());
+    }
+
+    @Test
+    public void falsetickerWithWideIntervalIsStillRejected() {
+        TimeSample a = sample("a", BOOT_TIME, 10, 1000);
+        TimeSample b = sample("b", BOOT_TIME + 2, 10, 1000);
+        TimeSample wide = sample("c", BOOT_TIME + 5000, 4000, 1000);
+
+        Selection selection = TimeSampleSelector.select(Arrays.asList(a, b, wide));
+
+        assertNotNull(selection);
+        assertEquals(Collections.singletonList(wide), selection.getFalsetickers());
+    }
+
+    @Test
+    public void combinedSampleIsAnchoredToLatestUptime() {
+        TimeSample early = sample("a", BOOT_TIME, 10, 1000);
+        TimeSample late = sample("b", BOOT_TIME, 10, 5000);
+
+        TimeSample selected = TimeSampleSelector.select(Arrays.asList(early, late)).getSample();
+
+        assertEquals(5000, selected.getDeviceUptime());
+        assertEquals(BOOT_TIME, selected.getBootTime());
+    }
+
+    @Test
+    public void preciseSampleOutweighsImpreciseOne() {
+        TimeSample precise = sample("a", BOOT_TIME, 2, 1000);
+        TimeSample imprecise = sample("b", BOOT_TIME + 100, 200, 1000);
+
+        Selection selection = TimeSampleSelector.select(Arrays.asList(imprecise, precise));
+
+        assertEquals(2, selection.getTruechimers().size());
+        assertTrue(Math.abs(selection.getSample().getBootTime() - BOOT_TIME) <= 2);
+        assertEquals("a", selection.getSample().getHost());
+    }
+
+    @Test
+    public void touchingIntervalsAgreeOnTheSharedPoint() {
+        TimeSample a = sample("a", BOOT_TIME, 10, 1000);
+        TimeSample b = sample("b", BOOT_TIME + 20, 10, 1000);
+
+        Selection selection = TimeSampleSelector.select(Arrays.asList(a, b));
+
+        assertNotNull(selection);
+        assertEquals(2, selection.getTruechimers().size());
+        assertTrue(selection.getFalsetickers().isEmpty());
+        assertEquals(BOOT_TIME + 10, selection.getSample().getBootTime());
+        assertEquals(0, selection.getSample().getErrorBound());
+    }
+
+    @Test
+    public void tieBetweenDisjointCliquesPicksTheEarlierOne() {
+        TimeSample late1 = sample("a", BOOT_TIME + 1000, 10, 1000);
+        TimeSample early1 = sample("b", BOOT_TIME, 10, 1000);
+        TimeSample late2 = sample("c", BOOT_TIME + 1005, 10, 1000);
+        TimeSample early2 = sample("d", BOOT_TIME + 5, 10, 1000);
+
+        Selection selection = TimeSampleSelector.select(Arrays.asList(late1, early1, late2, early2));
+
+        assertNotNull(selection);
+        assertEquals(Arrays.asList(early1, early2), selection.getTruechimers());
+        assertEquals(Arrays.asList(late1, late2), selection.getFalsetickers());
+        assertFalse(selection.hasMajority(4));
+    }
+
+    @Test
+    public void selectionIsIndependentOfSampleOrder() {
+        TimeSample a = sample("a", BOOT_TIME, 10, 1000);
+        TimeSample b = sample("b", BOOT_TIME + 5, 10, 1000);
+        TimeSample c = sample("c", BOOT_TIME + 60_000, 10, 1000);
+
+        Selection forward = TimeSampleSelector.select(Arrays.asList(a, b, c));
+        Selection backward = TimeSampleSelector.select(Arrays.asList(c, b, a));
+
+        assertEquals(forward.getSample().getBootTime(), backward.getSample().getBootTime());
+        assertEquals(forward.getSample().getErrorBound(), backward.getSample().getErrorBound());
+    }
+
+    @Test
+    public void fewerThanQuorumOverlappingSamplesAreRejected() {
+        List<TimeSample> samples = Arrays.asList(
+                sample("a", BOOT_TIME, 10, 1000),
+                sample("b", BOOT_TIME + 1000, 10, 1000),
+                sample("c", BOOT_TIME + 2000, 10, 1000));
+
+        assertNull(TimeSampleSelector.select(samples, 2));
+        assertNotNull(TimeSampleSelector.select(samples, 1));
+    }
+
+    @Test
+    public void quorumCountsOnlyTheLargestClique() {
+        TimeSample a = sample("a", BOOT_TIME, 10, 1000);
+        TimeSample b = sample("b", BOOT_TIME + 5, 10, 1000);
+        TimeSample c = sample("c", BOOT_TIME + 60_000, 10, 1000);
+        TimeSample d = sample("d", BOOT_TIME + 60_005, 10, 1000);
+        List<TimeSample> samples = Arrays.asList(a, b, c, d);
+
+        assertNull(TimeSampleSelector.select(samples, 3));
+
+        Selection selection = TimeSampleSelector.select(samples, 2);
+        assertNotNull(selection);
+        assertSame(a, selection.getTruechimers().get(0));
+        assertFalse(selection.hasMajority(samples.size()));
+    }
+
+    private static TimeSample sample(String host, long bootTime, long errorBound, long deviceUptime) {
+        return new TimeSample(TimeSource.NTP_SERVER, host, bootTime + deviceUptime, deviceUptime, errorBound, errorBound);
+    }
+}
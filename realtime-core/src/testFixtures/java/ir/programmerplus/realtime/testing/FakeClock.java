@@ -0,0 +1,43 @@
+package ir.programmerplus.realtime.testing;
+
+import ir.programmerplus.realtime.clock.MonotonicClock;
+
+/**
+ * FakeClock is a monotonic clock which only moves when it is told to, so tests can jump over
+ * resync delays, TTLs and cooldowns without waiting for them.
+ */
+public class FakeClock implements MonotonicClock {
+
+    private volatile long uptimeNanos;
+
+    /**
+     * @param uptime initial uptime in milliseconds
+     */
+    public FakeClock(long uptime) {
+        this.uptimeNanos = uptime * 1_000_000;
+    }
+
+    /**
+     * @param millis milliseconds to move the clock forward
+     */
+    public synchronized void advance(long millis) {
+        uptimeNanos += millis * 1_000_000;
+    }
+
+    /**
+     * @param nanos nanoseconds to move the clock forward
+     */
+    public synchronized void advanceNanos(long nanos) {
+        uptimeNanos += nanos;
+    }
+
+    @Override
+    public long elapsedRealtime() {
+        return uptimeNanos / 1_000_000;
+    }
+
+    @Override
+    public long elapsedRealtimeNanos() {
+        return uptimeNanos;
+    }
+}
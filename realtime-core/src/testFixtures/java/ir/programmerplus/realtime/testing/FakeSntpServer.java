@@ -0,0 +1,149 @@
+package ir.programmerplus.realtime.testing;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import ir.programmerplus.realtime.network.SntpPacket;
+
+/**
+ * FakeSntpServer answers SNTP requests on a loopback UDP port, with the faults of its
+ * {@link FaultProfile}. Rate limited clients get a "RATE" kiss-o'-death packet, like public
+ * servers send, and nonce mismatches are answered with an originate timestamp the client never
+ * sent.
+ * <p>
+ * Pass {@link #getHost()} to {@code withNtpServer()}.
+ */
+public class FakeSntpServer implements Closeable {
+
+    private static final int MODE_SERVER = 4;
+    private static final int LEAP_NOT_SYNCHRONIZED = 3;
+    private static final int STRATUM = 1;
+
+    private static final int ORIGINATE_TIMESTAMP_OFFSET = 24;
+    private static final int RECEIVE_TIMESTAMP_OFFSET = 32;
+    private static final int TRANSMIT_TIMESTAMP_OFFSET = 40;
+
+    private final FaultProfile faultProfile;
+    private final RateLimiter rateLimiter;
+    private final ServerStats stats = new ServerStats();
+    private final Random random = new Random();
+
+    private final DatagramSocket socket;
+    private final ScheduledExecutorService responseExecutor;
+
+    public FakeSntpServer(FaultProfile faultProfile) throws IOException {
+        this.faultProfile = faultProfile;
+        this.rateLimiter = faultProfile.createRateLimiter();
+
+        socket = new DatagramSocket(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+        socket.setReceiveBufferSize(1 << 20);
+
+        responseExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "FakeSntpServer-Response");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        Thread thread = new Thread(this::receiveLoop, "FakeSntpServer-" + socket.getLocalPort());
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * @return "host:port" of the server
+     */
+    public String getHost() {
+        return socket.getLocalAddress().getHostAddress() + ":" + socket.getLocalPort();
+    }
+
+    public ServerStats getStats() {
+        return stats;
+    }
+
+    private void receiveLoop() {
+        byte[] buffer = new byte[SntpPacket.PACKET_SIZE];
+
+        while (!socket.isClosed()) {
+            DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+
+            try {
+                socket.receive(packet);
+            } catch (IOException e) {
+                return;
+            }
+
+            if (packet.getLength() < SntpPacket.PACKET_SIZE) continue;
+
+            stats.onRequest();
+            handleRequest(ByteBuffer.wrap(buffer).getLong(TRANSMIT_TIMESTAMP_OFFSET), packet.getSocketAddress());
+        }
+    }
+
+    private void handleRequest(long originateTimestamp, SocketAddress client) {
+        synchronized (random) {
+            if (!rateLimiter.tryAcquire(client)) {
+                stats.onRateLimited();
+                send(client, kissOfDeath(originateTimestamp));
+                return;
+            }
+
+            if (faultProfile.shouldDrop(random)) {
+                stats.onDropped();
+                return;
+            }
+
+            long delay = faultProfile.nextDelay(random);
+            boolean falseticker = faultProfile.isFalseticker(random);
+            long nonce = faultProfile.isNonceMismatch(random) ? ~originateTimestamp : originateTimestamp;
+            responseExecutor.schedule(() -> respond(nonce, client, delay, falseticker), delay, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void respond(long originateTimestamp, SocketAddress client, long delay, boolean falseticker) {
+        // half of the delay is on the way back, so the server time is taken at the midpoint
+        long serverTime = faultProfile.serverTime(falseticker) - delay / 2;
+
+        ByteBuffer response = ByteBuffer.allocate(SntpPacket.PACKET_SIZE);
+        response.put(0, (byte) (4 << 3 | MODE_SERVER));
+        response.put(1, (byte) STRATUM);
+        response.putInt(12, 0x46414B45); // "FAKE"
+        response.putLong(ORIGINATE_TIMESTAMP_OFFSET, originateTimestamp);
+        response.putLong(RECEIVE_TIMESTAMP_OFFSET, SntpPacket.toNtpTimestamp(serverTime));
+        response.putLong(TRANSMIT_TIMESTAMP_OFFSET, SntpPacket.toNtpTimestamp(serverTime));
+
+        stats.onResponse(falseticker);
+        send(client, response);
+    }
+
+    private static ByteBuffer kissOfDeath(long originateTimestamp) {
+        ByteBuffer response = ByteBuffer.allocate(SntpPacket.PACKET_SIZE);
+        response.put(0, (byte) (LEAP_NOT_SYNCHRONIZED << 6 | 4 << 3 | MODE_SERVER));
+        response.putInt(12, 0x52415445); // "RATE"
+        response.putLong(ORIGINATE_TIMESTAMP_OFFSET, originateTimestamp);
+        return response;
+    }
+
+    private void send(SocketAddress client, ByteBuffer response) {
+        try {
+            socket.send(new DatagramPacket(response.array(), SntpPacket.PACKET_SIZE, client));
+        } catch (IOException ignored) {
+            // the client may be gone already
+        }
+    }
+
+    @Override
+    public void close() {
+        socket.close();
+        responseExecutor.shutdownNow();
+    }
+}
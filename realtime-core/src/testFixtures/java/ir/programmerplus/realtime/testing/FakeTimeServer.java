@@ -0,0 +1,153 @@
+package ir.programmerplus.realtime.testing;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * FakeTimeServer is a minimal HTTP/1.1 server on a loopback port which answers every request
+ * with an empty response and a Date header, with the faults of its {@link FaultProfile}.
+ * Dropped requests are answered by closing the connection, and rate limited clients get a
+ * 429 response without a Date header. Connections are kept alive like real servers do.
+ * <p>
+ * The JDK HttpServer always writes its own Date header, so it can't be used here.
+ * Pass {@link #getUrl()} to {@code withTimeServer()}.
+ */
+public class FakeTimeServer implements Closeable {
+
+    private static final DateTimeFormatter DATE_FORMAT = DateTimeFormatter
+            .ofPattern("EEE, dd MMM yyyy HH:mm:ss 'GMT'", Locale.US)
+            .withZone(ZoneOffset.UTC);
+
+    private final FaultProfile faultProfile;
+    private final RateLimiter rateLimiter;
+    private final ServerStats stats = new ServerStats();
+    private final Random random = new Random();
+
+    private final ServerSocket serverSocket;
+    private final ExecutorService connectionExecutor;
+
+    public FakeTimeServer(FaultProfile faultProfile) throws IOException {
+        this.faultProfile = faultProfile;
+        this.rateLimiter = faultProfile.createRateLimiter();
+
+        serverSocket = new ServerSocket();
+        serverSocket.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 1024);
+
+        connectionExecutor = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "FakeTimeServer-Connection");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        Thread thread = new Thread(this::acceptLoop, "FakeTimeServer-" + serverSocket.getLocalPort());
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * @return url of the server
+     */
+    public String getUrl() {
+        return "http://" + serverSocket.getInetAddress().getHostAddress() + ":" + serverSocket.getLocalPort() + "/";
+    }
+
+    public ServerStats getStats() {
+        return stats;
+    }
+
+    private void acceptLoop() {
+        while (!serverSocket.isClosed()) {
+            try {
+                Socket socket = serverSocket.accept();
+                connectionExecutor.execute(() -> handleConnection(socket));
+            } catch (IOException e) {
+                return;
+            }
+        }
+    }
+
+    private void handleConnection(Socket socket) {
+        try (Socket connection = socket) {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(connection.getInputStream(), StandardCharsets.US_ASCII));
+            OutputStream outputStream = connection.getOutputStream();
+
+            while (readRequest(reader)) {
+                stats.onRequest();
+
+                long delay;
+                boolean falseticker;
+
+                synchronized (random) {
+                    if (!rateLimiter.tryAcquire(connection.getRemoteSocketAddress())) {
+                        stats.onRateLimited();
+                        write(outputStream, "HTTP/1.1 429 Too Many Requests\r\nRetry-After: 1\r\nContent-Length: 0\r\n\r\n");
+                        continue;
+                    }
+
+                    if (faultProfile.shouldDrop(random)) {
+                        stats.onDropped();
+                        return;
+                    }
+
+                    delay = faultProfile.nextDelay(random);
+                    falseticker = faultProfile.isFalseticker(random);
+                }
+
+                Thread.sleep(delay);
+
+                // half of the delay is on the way back, so the server time is taken at the midpoint
+                long serverTime = faultProfile.serverTime(falseticker) - delay / 2;
+
+                write(outputStream, "HTTP/1.1 200 OK\r\n" +
+                        "Date: " + DATE_FORMAT.format(Instant.ofEpochMilli(serverTime)) + "\r\n" +
+                        "Content-Length: 0\r\n\r\n");
+
+                stats.onResponse(falseticker);
+            }
+        } catch (IOException | InterruptedException ignored) {
+            // the client closed the connection or the server is closed
+        }
+    }
+
+    /**
+     * This function reads the request line and headers, and ignores them
+     *
+     * @return false if the client closed the connection
+     */
+    private static boolean readRequest(BufferedReader reader) throws IOException {
+        String line = reader.readLine();
+        if (line == null) return false;
+
+        while (line != null && !line.isEmpty()) {
+            line = reader.readLine();
+        }
+
+        return true;
+    }
+
+    private static void write(OutputStream outputStream, String response) throws IOException {
+        outputStream.write(response.getBytes(StandardCharsets.US_ASCII));
+        outputStream.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        serverSocket.close();
+        connectionExecutor.shutdownNow();
+    }
+}
@@ -0,0 +1,150 @@
+package ir.programmerplus.realtime.testing;
+
+import java.util.Random;
+
+/**
+ * FaultProfile describes how a fake server misbehaves: how far its clock is off, how long it
+ * takes to answer, how many requests it drops, how often it answers with a wrong time like a
+ * falseticker or to a request it never got, and how many requests per second it allows each client.
+ */
+public final class FaultProfile {
+
+    public static final FaultProfile NONE = builder().build();
+
+    private final long offset;
+    private final LatencyDistribution latency;
+    private final double lossRate;
+    private final double falsetickerRate;
+    private final long falsetickerOffset;
+    private final double nonceMismatchRate;
+    private final double rateLimit;
+    private final int rateLimitBurst;
+
+    private FaultProfile(Builder builder) {
+        this.offset = builder.offset;
+        this.latency = builder.latency;
+        this.lossRate = builder.lossRate;
+        this.falsetickerRate = builder.falsetickerRate;
+        this.falsetickerOffset = builder.falsetickerOffset;
+        this.nonceMismatchRate = builder.nonceMismatchRate;
+        this.rateLimit = builder.rateLimit;
+        this.rateLimitBurst = builder.rateLimitBurst;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * @param random random source of the server
+     * @return true if the request must be dropped without an answer
+     */
+    boolean shouldDrop(Random random) {
+        return lossRate > 0 && random.nextDouble() < lossRate;
+    }
+
+    /**
+     * @param random random source of the server
+     * @return delay in milliseconds before the server answers
+     */
+    long nextDelay(Random random) {
+        return Math.max(0, latency.nextDelay(random));
+    }
+
+    /**
+     * @param random random source of the server
+     * @return true if the next answer must have a wrong time
+     */
+    boolean isFalseticker(Random random) {
+        return falsetickerRate > 0 && random.nextDouble() < falsetickerRate;
+    }
+
+    /**
+     * @param random random source of the server
+     * @return true if the next answer must not match the nonce of its request, like a spoofed
+     * or misrouted packet
+     */
+    boolean isNonceMismatch(Random random) {
+        return nonceMismatchRate > 0 && random.nextDouble() < nonceMismatchRate;
+    }
+
+    /**
+     * @param falseticker true if the answer must have a wrong time
+     * @return the time the server answers with, in milliseconds since epoch
+     */
+    long serverTime(boolean falseticker) {
+        return System.currentTimeMillis() + offset + (falseticker ? falsetickerOffset : 0);
+    }
+
+    RateLimiter createRateLimiter() {
+        return new RateLimiter(rateLimit, rateLimitBurst);
+    }
+
+    public static class Builder {
+        private long offset;
+        private LatencyDistribution latency = LatencyDistribution.none();
+        private double lossRate;
+        private double falsetickerRate;
+        private long falsetickerOffset = 60 * 1000;
+        private double nonceMismatchRate;
+        private double rateLimit;
+        private int rateLimitBurst = 8;
+
+        /**
+         * @param offset milliseconds the clock of the server is ahead of the local clock
+         */
+        public Builder offset(long offset) {
+            this.offset = offset;
+            return this;
+        }
+
+        public Builder latency(LatencyDistribution latency) {
+            this.latency = latency;
+            return this;
+        }
+
+        /**
+         * @param lossRate fraction of requests dropped, between 0 and 1
+         */
+        public Builder lossRate(double lossRate) {
+            this.lossRate = lossRate;
+            return this;
+        }
+
+        /**
+         * @param falsetickerRate   fraction of answers with a wrong time, 1 makes the server a falseticker
+         * @param falsetickerOffset milliseconds added to the time of wrong answers
+         */
+        public Builder falseticker(double falsetickerRate, long falsetickerOffset) {
+            this.falsetickerRate = falsetickerRate;
+            this.falsetickerOffset = falsetickerOffset;
+            return this;
+        }
+
+        /**
+         * Only used by the SNTP server.
+         *
+         * @param nonceMismatchRate fraction of answers whose originate timestamp doesn't match the request
+         */
+        public Builder nonceMismatch(double nonceMismatchRate) {
+            this.nonceMismatchRate = nonceMismatchRate;
+            return this;
+        }
+
+        /**
+         * Clients are told apart by their address and port.
+         *
+         * @param requestsPerSecond sustained requests per second allowed per client, 0 disables the limit
+         * @param burst             number of requests a client can send at once
+         */
+        public Builder rateLimit(double requestsPerSecond, int burst) {
+            this.rateLimit = requestsPerSecond;
+            this.rateLimitBurst = burst;
+            return this;
+        }
+
+        public FaultProfile build() {
+            return new FaultProfile(this);
+        }
+    }
+}
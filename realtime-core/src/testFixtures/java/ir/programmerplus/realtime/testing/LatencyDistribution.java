@@ -0,0 +1,44 @@
+package ir.programmerplus.realtime.testing;
+
+import java.util.Random;
+
+/**
+ * LatencyDistribution gives the delay a fake server waits before it answers a request
+ */
+public interface LatencyDistribution {
+
+    /**
+     * @param random random source of the server
+     * @return delay in milliseconds, at least 0
+     */
+    long nextDelay(Random random);
+
+    static LatencyDistribution none() {
+        return random -> 0;
+    }
+
+    static LatencyDistribution constant(long delay) {
+        return random -> delay;
+    }
+
+    /**
+     * @param min minimum delay in milliseconds
+     * @param max maximum delay in milliseconds
+     * @return delays spread evenly between min and max
+     */
+    static LatencyDistribution uniform(long min, long max) {
+        return random -> min + (long) (random.nextDouble() * (max - min));
+    }
+
+    /**
+     * Log-normal delays have a long tail, like real network latencies.
+     *
+     * @param median median delay in milliseconds
+     * @param sigma  standard deviation of the logarithm of delays, 0.5 is a moderate tail
+     * @return log-normally distributed delays
+     */
+    static LatencyDistribution logNormal(long median, double sigma) {
+        double mu = Math.log(Math.max(1, median));
+        return random -> (long) Math.exp(mu + sigma * random.nextGaussian());
+    }
+}
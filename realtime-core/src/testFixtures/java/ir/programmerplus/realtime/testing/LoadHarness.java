@@ -0,0 +1,219 @@
+package ir.programmerplus.realtime.testing;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import io.reactivex.Scheduler;
+import io.reactivex.schedulers.Schedulers;
+import ir.programmerplus.realtime.RealTimeEngine;
+import ir.programmerplus.realtime.clock.MonotonicClock;
+import ir.programmerplus.realtime.models.TimeSample;
+import ir.programmerplus.realtime.network.ConnectivitySignal;
+import ir.programmerplus.realtime.utils.LogUtils;
+
+/**
+ * LoadHarness starts many sync engines at once against fake servers on loopback and reports
+ * time-to-first-sync percentiles, the error of the selected time and how many requests the
+ * servers received, so retry storms show up as request counts and peaks.
+ * <p>
+ * Options are given as --name=value:
+ * <pre>
+ * --clients=200          number of engines
+ * --ntpServers=2         number of fake NTP servers
+ * --timeServers=1        number of fake time servers
+ * --falsetickers=0       number of NTP servers which answer with a wrong time
+ * --offset=0             milliseconds the servers are ahead of the local clock
+ * --latency=20           median latency in milliseconds, log-normally distributed
+ * --latencySigma=0.5     spread of the latency distribution
+ * --loss=0               fraction of dropped requests
+ * --rateLimit=0          requests per second allowed per client, 0 for no limit
+ * --rampUp=0             milliseconds over which engines are started
+ * --timeout=60           seconds to wait for all engines to sync
+ * --hedged=true          whether requests are hedged
+ * </pre>
+ */
+public class LoadHarness {
+
+    private static final long FALSETICKER_OFFSET = 60 * 1000;
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = parseOptions(args);
+
+        int clients = Integer.parseInt(options.getOrDefault("clients", "200"));
+        int ntpServerCount = Integer.parseInt(options.getOrDefault("ntpServers", "2"));
+        int timeServerCount = Integer.parseInt(options.getOrDefault("timeServers", "1"));
+        int falsetickerCount = Integer.parseInt(options.getOrDefault("falsetickers", "0"));
+        long offset = Long.parseLong(options.getOrDefault("offset", "0"));
+        long latency = Long.parseLong(options.getOrDefault("latency", "20"));
+        double latencySigma = Double.parseDouble(options.getOrDefault("latencySigma", "0.5"));
+        double loss = Double.parseDouble(options.getOrDefault("loss", "0"));
+        double rateLimit = Double.parseDouble(options.getOrDefault("rateLimit", "0"));
+        long rampUp = Long.parseLong(options.getOrDefault("rampUp", "0"));
+        long timeout = Long.parseLong(options.getOrDefault("timeout", "60"));
+        boolean hedged = Boolean.parseBoolean(options.getOrDefault("hedged", "true"));
+
+        LogUtils.setLoggingEnabled(false);
+
+        FaultProfile.Builder profile = FaultProfile.builder()
+                .offset(offset)
+                .latency(LatencyDistribution.logNormal(latency, latencySigma))
+                .lossRate(loss)
+                .rateLimit(rateLimit, 8);
+
+        List<FakeSntpServer> ntpServers = new ArrayList<>();
+        for (int i = 0; i < ntpServerCount; i++) {
+            boolean falseticker = i < falsetickerCount;
+            ntpServers.add(new FakeSntpServer(profile.falseticker(falseticker ? 1 : 0, FALSETICKER_OFFSET).build()));
+        }
+
+        List<FakeTimeServer> timeServers = new ArrayList<>();
+        for (int i = 0; i < timeServerCount; i++) {
+            timeServers.add(new FakeTimeServer(profile.falseticker(0, 0).build()));
+        }
+
+        ExecutorService engineExecutor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "LoadHarness-Engine");
+            thread.setDaemon(true);
+            return thread;
+        });
+        Scheduler scheduler = Schedulers.from(engineExecutor);
+
+        File rootDirectory = Files.createTempDirectory("realtime-load").toFile();
+        CountDownLatch latch = new CountDownLatch(clients);
+        long[] syncTimes = new long[clients];
+        long[] errors = new long[clients];
+        Arrays.fill(syncTimes, -1);
+
+        List<RealTimeEngine> engines = new ArrayList<>();
+        for (int i = 0; i < clients; i++) {
+            File dataDirectory = new File(rootDirectory, String.valueOf(i));
+            if (!dataDirectory.mkdirs()) throw new IOException("Couldn't create " + dataDirectory);
+
+            RealTimeEngine engine = new RealTimeEngine(MonotonicClock.SYSTEM, new MemorySnapshotStorage(),
+                    ConnectivitySignal.ALWAYS_CONNECTED, scheduler, dataDirectory)
+                    .setHedgedRequestsEnabled(hedged);
+
+            for (FakeSntpServer server : ntpServers) engine.withNtpServer(server.getHost());
+            for (FakeTimeServer server : timeServers) engine.withTimeServer(server.getUrl());
+
+            engines.add(engine);
+        }
+
+        System.out.println("Starting " + clients + " engines against " + ntpServerCount + " NTP and " +
+                timeServerCount + " time servers...");
+
+        long start = System.nanoTime();
+
+        for (int i = 0; i < clients; i++) {
+            int client = i;
+            RealTimeEngine engine = engines.get(i);
+            long startTime = System.nanoTime();
+
+            engine.setListener(new RealTimeEngine.Listener() {
+                @Override
+                public void onSyncStarted() {
+                }
+
+                @Override
+                public void onTimeSet(TimeSample sample) {
+                    if (syncTimes[client] != -1) return;
+
+                    syncTimes[client] = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime);
+                    errors[client] = engine.nowMillis() - System.currentTimeMillis() - offset;
+                    latch.countDown();
+                }
+            });
+            engine.sync();
+
+            if (rampUp > 0) Thread.sleep(rampUp / clients);
+        }
+
+        boolean completed = latch.await(timeout, TimeUnit.SECONDS);
+        long duration = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        // let the listener thread finish writing results
+        engineExecutor.submit(() -> null).get();
+
+        report(syncTimes, errors, duration, completed);
+
+        long requests = 0;
+        for (FakeSntpServer server : ntpServers) {
+            System.out.println("NTP " + server.getHost() + ": " + server.getStats());
+            requests += server.getStats().getRequests();
+        }
+        for (FakeTimeServer server : timeServers) {
+            System.out.println("HTTP " + server.getUrl() + ": " + server.getStats());
+            requests += server.getStats().getRequests();
+        }
+        System.out.printf("Requests per client: %.2f%n", (double) requests / clients);
+
+        for (RealTimeEngine engine : engines) engine.close();
+
+        for (FakeSntpServer server : ntpServers) server.close();
+        for (FakeTimeServer server : timeServers) server.close();
+        deleteRecursively(rootDirectory);
+
+        System.exit(completed ? 0 : 1);
+    }
+
+    private static void report(long[] syncTimes, long[] errors, long duration, boolean completed) {
+        long[] synced = Arrays.stream(syncTimes).filter(time -> time >= 0).sorted().toArray();
+        long[] absoluteErrors = new long[synced.length];
+
+        int index = 0;
+        for (int i = 0; i < syncTimes.length; i++) {
+            if (syncTimes[i] >= 0) absoluteErrors[index++] = Math.abs(errors[i]);
+        }
+        Arrays.sort(absoluteErrors);
+
+        System.out.println((completed ? "All" : "Only " + synced.length + " of " + syncTimes.length) +
+                " engines synced in " + duration + "ms");
+
+        if (synced.length == 0) return;
+
+        System.out.println("Time to first sync (ms): p50=" + percentile(synced, 50) + " p90=" + percentile(synced, 90) +
+                " p99=" + percentile(synced, 99) + " max=" + synced[synced.length - 1]);
+        System.out.println("Error of selected time (ms): p50=" + percentile(absoluteErrors, 50) + " p90=" + percentile(absoluteErrors, 90) +
+                " p99=" + percentile(absoluteErrors, 99) + " max=" + absoluteErrors[absoluteErrors.length - 1]);
+    }
+
+    private static long percentile(long[] sorted, double percentile) {
+        int index = (int) Math.ceil(percentile / 100 * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(sorted.length - 1, index))];
+    }
+
+    private static Map<String, String> parseOptions(String[] args) {
+        Map<String, String> options = new HashMap<>();
+
+        for (String arg : args) {
+            if (!arg.startsWith("--") || !arg.contains("=")) {
+                throw new IllegalArgumentException("Options must be given as --name=value: " + arg);
+            }
+
+            int separator = arg.indexOf('=');
+            options.put(arg.substring(2, separator), arg.substring(separator + 1));
+        }
+
+        return options;
+    }
+
+    private static void deleteRecursively(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) deleteRecursively(child);
+        }
+
+        //noinspection ResultOfMethodCallIgnored
+        file.delete();
+    }
+}
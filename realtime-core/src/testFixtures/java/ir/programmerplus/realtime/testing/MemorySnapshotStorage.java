@@ -0,0 +1,64 @@
+package ir.programmerplus.realtime.testing;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import ir.programmerplus.realtime.models.TimeSnapshot;
+import ir.programmerplus.realtime.utils.SnapshotStorage;
+
+/**
+ * MemorySnapshotStorage keeps the snapshot in memory, so tests and harnesses don't share a file
+ * between engines. It counts reads and lets the caller wait for the first write, which happens on
+ * the cache thread of the engine.
+ */
+public class MemorySnapshotStorage implements SnapshotStorage {
+
+    private final AtomicInteger reads = new AtomicInteger();
+    private final CountDownLatch written = new CountDownLatch(1);
+    private volatile TimeSnapshot snapshot;
+
+    @Override
+    public TimeSnapshot read() {
+        reads.incrementAndGet();
+        return snapshot;
+    }
+
+    @Override
+    public void write(TimeSnapshot snapshot) {
+        this.snapshot = snapshot;
+        written.countDown();
+    }
+
+    /**
+     * @return the stored snapshot, without counting it as a read
+     */
+    public TimeSnapshot getSnapshot() {
+        return snapshot;
+    }
+
+    /**
+     * @param snapshot snapshot to store, without counting it as a write
+     */
+    public void setSnapshot(TimeSnapshot snapshot) {
+        this.snapshot = snapshot;
+    }
+
+    /**
+     * @return number of times the snapshot was read
+     */
+    public int getReadCount() {
+        return reads.get();
+    }
+
+    /**
+     * This function waits until the first snapshot is written
+     *
+     * @param timeout maximum time to wait
+     * @param unit    unit of the timeout
+     * @return true if a snapshot was written before the timeout
+     */
+    public boolean awaitWrite(long timeout, TimeUnit unit) throws InterruptedException {
+        return written.await(timeout, unit);
+    }
+}
@@ -0,0 +1,49 @@
+package ir.programmerplus.realtime.testing;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * RateLimiter is a token bucket per client, like public NTP pools use to protect themselves
+ * from clients which retry too often.
+ */
+class RateLimiter {
+
+    private final double requestsPerSecond;
+    private final double burst;
+    private final Map<Object, double[]> buckets = new HashMap<>();
+
+    /**
+     * @param requestsPerSecond sustained rate allowed per client, 0 disables the limit
+     * @param burst             number of requests a client can send at once
+     */
+    RateLimiter(double requestsPerSecond, int burst) {
+        this.requestsPerSecond = requestsPerSecond;
+        this.burst = Math.max(1, burst);
+    }
+
+    /**
+     * @param client key of the client, e.g. its address
+     * @return true if the request is allowed
+     */
+    synchronized boolean tryAcquire(Object client) {
+        if (requestsPerSecond <= 0) return true;
+
+        long now = System.nanoTime();
+
+        // tokens, last refill time
+        double[] bucket = buckets.get(client);
+        if (bucket == null) {
+            bucket = new double[]{burst, now};
+            buckets.put(client, bucket);
+        }
+
+        bucket[0] = Math.min(burst, bucket[0] + (now - bucket[1]) / 1e9 * requestsPerSecond);
+        bucket[1] = now;
+
+        if (bucket[0] < 1) return false;
+
+        bucket[0]--;
+        return true;
+    }
+}
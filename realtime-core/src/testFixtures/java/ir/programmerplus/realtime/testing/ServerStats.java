@@ -0,0 +1,85 @@
+package ir.programmerplus.realtime.testing;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * ServerStats counts what a fake server did with the requests it received. Requests are also
+ * counted per second, so retry storms show up as peaks.
+ */
+public class ServerStats {
+
+    private static final int MAX_SECONDS = 3600;
+
+    private final long startTime = System.nanoTime();
+
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong responses = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong rateLimited = new AtomicLong();
+    private final AtomicLong falsetickers = new AtomicLong();
+    private final AtomicLongArray requestsPerSecond = new AtomicLongArray(MAX_SECONDS);
+
+    void onRequest() {
+        requests.incrementAndGet();
+
+        int second = (int) ((System.nanoTime() - startTime) / 1_000_000_000L);
+        if (second < MAX_SECONDS) requestsPerSecond.incrementAndGet(second);
+    }
+
+    void onResponse(boolean falseticker) {
+        responses.incrementAndGet();
+        if (falseticker) falsetickers.incrementAndGet();
+    }
+
+    void onDropped() {
+        dropped.incrementAndGet();
+    }
+
+    void onRateLimited() {
+        rateLimited.incrementAndGet();
+    }
+
+    public long getRequests() {
+        return requests.get();
+    }
+
+    public long getResponses() {
+        return responses.get();
+    }
+
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    public long getRateLimited() {
+        return rateLimited.get();
+    }
+
+    public long getFalsetickers() {
+        return falsetickers.get();
+    }
+
+    /**
+     * @return the highest number of requests received within one second
+     */
+    public long getPeakRequestsPerSecond() {
+        long peak = 0;
+
+        for (int i = 0; i < MAX_SECONDS; i++) {
+            peak = Math.max(peak, requestsPerSecond.get(i));
+        }
+
+        return peak;
+    }
+
+    @Override
+    public String toString() {
+        return "requests=" + getRequests() +
+                ", responses=" + getResponses() +
+                ", dropped=" + getDropped() +
+                ", rateLimited=" + getRateLimited() +
+                ", falsetickers=" + getFalsetickers() +
+                ", peakRequestsPerSecond=" + getPeakRequestsPerSecond();
+    }
+}
@@ -9,54 +9,55 @@ import android.location.LocationListener;
 import android.location.LocationManager;
 import android.os.Build;
 import android.os.Bundle;
+import android.os.Looper;
+import android.os.Process;
 import android.os.SystemClock;
 
-import org.apache.commons.net.ntp.NTPUDPClient;
-import org.apache.commons.net.ntp.TimeInfo;
-
-import java.io.IOException;
-import java.net.HttpURLConnection;
-import java.net.InetAddress;
-import java.net.URL;
-import java.net.UnknownHostException;
-import java.text.ParseException;
-import java.text.SimpleDateFormat;
+import java.time.Instant;
+import java.util.ArrayList;
 import java.util.Date;
-import java.util.LinkedHashSet;
 import java.util.List;
-import java.util.Locale;
-import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.Executor;
 import java.util.concurrent.TimeUnit;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.RequiresApi;
 import androidx.databinding.Observable;
 import androidx.databinding.ObservableBoolean;
 import androidx.lifecycle.Lifecycle;
 import androidx.lifecycle.LifecycleEventObserver;
 import androidx.lifecycle.LifecycleOwner;
-import androidx.lifecycle.Observer;
 import androidx.lifecycle.ProcessLifecycleOwner;
-import io.reactivex.Single;
+import io.reactivex.Flowable;
 import io.reactivex.android.schedulers.AndroidSchedulers;
-import io.reactivex.disposables.CompositeDisposable;
 import io.reactivex.disposables.Disposable;
 import io.reactivex.exceptions.UndeliverableException;
 import io.reactivex.plugins.RxJavaPlugins;
-import io.reactivex.schedulers.Schedulers;
 import ir.programmerplus.realtime.interfaces.EnhancedLocationListener;
 import ir.programmerplus.realtime.interfaces.OnRealTimeInitializedListener;
+import ir.programmerplus.realtime.metrics.RealTimeMetrics;
+import ir.programmerplus.realtime.models.DriftEstimate;
+import ir.programmerplus.realtime.models.SyncEvent;
+import ir.programmerplus.realtime.models.TimeSample;
+import ir.programmerplus.realtime.models.TimeSource;
 import ir.programmerplus.realtime.network.NetworkState;
-import ir.programmerplus.realtime.network.RetryDelayStrategy;
-import ir.programmerplus.realtime.network.RetryWithDelay;
+import ir.programmerplus.realtime.utils.AndroidLogger;
 import ir.programmerplus.realtime.utils.CacheUtils;
 import ir.programmerplus.realtime.utils.LogUtils;
 import ir.programmerplus.realtime.utils.RealTimeUtils;
+import ir.programmerplus.realtime.utils.ThreadUtils;
+import ir.programmerplus.realtime.utils.UptimeClock;
 
 /**
  * Using RealTime class, you only need to initialize current reliable time once using multiple providers like
  * GPS providers, NTP servers or even date header of your own server, and use the reliable current time until
  * next boot of device.
  * <p/>
+ * This class is the Android adapter of {@link RealTimeEngine}: it provides the uptime clock, cache,
+ * network state and GPS provider, and syncs when the application comes to foreground.
+ * <p/>
  * Author: Homayoon Ahmadi
  * <br/>
  * Email: homayoon.ahmadi8@gmail.com
@@ -65,47 +66,118 @@ public class RealTime implements LifecycleEventObserver {
 
     private static final String TAG = RealTime.class.getSimpleName();
 
-    private long backoffDelay;
-    private boolean ntpServerEnabled = false;
-    private boolean timeServerEnabled = false;
-    private boolean gpsProviderEnabled = false;
+    /**
+     * The value returned by {@link #tryNowMillis()} when RealTime is not initialized
+     */
+    public static final long NOT_INITIALIZED = RealTimeEngine.NOT_INITIALIZED;
+
+    // GPS fixes may be delivered a while after they were taken
+    private static final long GPS_PROVIDER_ERROR_BOUND = 1000;
+
+    // error bound of fixes anchored to the uptime they were taken at
+    private static final long ANCHORED_GPS_PROVIDER_ERROR_BOUND = 100;
 
-    private final LinkedHashSet<String> ntpServerHosts = new LinkedHashSet<>();
-    private final LinkedHashSet<String> timeServerHosts = new LinkedHashSet<>();
+    // uptime clock drift applied to the age of the last known fix, 100 ppm
+    private static final double LAST_KNOWN_LOCATION_DRIFT = 100e-6;
+    private static final long LAST_KNOWN_LOCATION_MAX_AGE = 30 * 60 * 1000;
+
+    // one fix is enough, so updates are requested at a coarse interval
+    private static final long GPS_MIN_TIME = 1000;
+    private static final long DEFAULT_GPS_TIMEOUT = 2 * 60 * 1000;
+
+    private boolean gpsProviderEnabled = false;
+    private volatile boolean gpsLowPowerEnabled = false;
+    private volatile long gpsTimeout = DEFAULT_GPS_TIMEOUT;
+    private Disposable gpsTimeoutDisposable;
 
     private final Context context;
-    private NTPUDPClient timeClient;
-    private HttpURLConnection urlConnection;
+    private final RealTimeEngine engine;
     private final LocationManager locationManager;
-    private final NetworkState networkStateLiveData;
-    private OnRealTimeInitializedListener initializedListener;
-    private final CompositeDisposable disposables = new CompositeDisposable();
+    private final Set<OnRealTimeInitializedListener> initializedListeners = new CopyOnWriteArraySet<>();
+    private volatile Executor callbackExecutor = ThreadUtils.MAIN_THREAD_EXECUTOR;
+
+    // listeners which wait for the cached snapshot, which is loaded in background
+    private final List<OnRealTimeInitializedListener> pendingListeners = new ArrayList<>();
+    private boolean snapshotLoaded;
 
     private static final ObservableBoolean INITIALIZED = new ObservableBoolean();
 
-    private static RealTime instance;
+    private static volatile RealTime instance;
 
 
     /**
-     * The constructor will initialize all needed classes
+     * The constructor will initialize all needed classes. It doesn't touch the disk: the cached
+     * snapshot is loaded on a background thread, and lifecycle observation starts after the
+     * current main thread message, so building RealTime stays off the app startup critical path.
      *
      * @param context application context
      */
     private RealTime(Context context) {
         context = Build.VERSION.SDK_INT >= Build.VERSION_CODES.N ? context.createDeviceProtectedStorageContext() : context;
 
+        LogUtils.setLogger(new AndroidLogger());
         CacheUtils.initialize(context);
 
+        // the files directory is resolved on the cache thread when the first file is used
+        Context storageContext = context;
+
         this.context = context.getApplicationContext();
-        this.networkStateLiveData = new NetworkState(context);
         this.locationManager = (LocationManager) context.getSystemService(Context.LOCATION_SERVICE);
+        this.engine = new RealTimeEngine(new UptimeClock(), CacheUtils.getSnapshotStorage(),
+                new NetworkState(context), ThreadUtils.createSyncScheduler(), storageContext::getFilesDir)
+                .setListener(engineListener);
+
+        // time to first sync is measured from process start where it is known
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
+            engine.getMetrics().setStartUptime(Process.getStartElapsedRealtime());
+        }
 
         initRxJavaErrorHandler();
         initRealTimeStatusObservable();
 
-        INITIALIZED.set(isInitialized());
+        engine.preload(() -> callbackExecutor.execute(this::onSnapshotLoaded));
+
+        // events which happened in between are replayed when the observer is added
+        AndroidSchedulers.mainThread().scheduleDirect(() -> ProcessLifecycleOwner.get().getLifecycle().addObserver(this));
+    }
+
+    /**
+     * This function is called on the callback executor when the cached snapshot is loaded
+     */
+    private void onSnapshotLoaded() {
+        List<OnRealTimeInitializedListener> listeners;
+
+        synchronized (pendingListeners) {
+            snapshotLoaded = true;
+            listeners = new ArrayList<>(pendingListeners);
+            pendingListeners.clear();
+        }
+
+        INITIALIZED.set(engine.isInitialized());
+
+        for (OnRealTimeInitializedListener listener : listeners) {
+            notifyIfInitialized(listener);
+        }
+    }
+
+    /**
+     * This function calls the listener with the cached time, once it is loaded
+     */
+    private void notifyCachedTime(OnRealTimeInitializedListener listener) {
+        synchronized (pendingListeners) {
+            if (!snapshotLoaded) {
+                pendingListeners.add(listener);
+                return;
+            }
+        }
+
+        notifyIfInitialized(listener);
+    }
 
-        ProcessLifecycleOwner.get().getLifecycle().addObserver(this);
+    private void notifyIfInitialized(OnRealTimeInitializedListener listener) {
+        if (engine.isInitialized()) {
+            listener.onInitialized(now());
+        }
     }
 
     @Override
@@ -113,13 +185,7 @@ public class RealTime implements LifecycleEventObserver {
         switch (event) {
             case ON_START, ON_RESUME -> {
                 LogUtils.i(TAG, "Application is in foreground. Lifecycle event: " + event);
-
-                if (isInitialized() && cachedTimeIsValid(backoffDelay)) {
-                    LogUtils.v(TAG, "RealTime cached time is valid. No need to resynchronize RealTime at this time.");
-                } else {
-                    LogUtils.v(TAG, "RealTime cached time is NOT valid. Trying to resynchronize RealTime...");
-                    build();
-                }
+                engine.syncIfNeeded();
             }
             case ON_STOP -> LogUtils.i(TAG, "Application is in background");
         }
@@ -171,11 +237,7 @@ public class RealTime implements LifecycleEventObserver {
                 LogUtils.v(TAG, "RealTime " + (INITIALIZED.get() ? "is" : "is NOT") + " initialized.");
 
                 if (!INITIALIZED.get()) {
-                    long cachedTime = CacheUtils.getCachedTime();
-                    long cachedBootTime = CacheUtils.getCachedBootTime();
-                    long cachedDeviceUptime = CacheUtils.getCachedDeviceUptime();
-
-                    if (cachedTime == 0 || cachedBootTime == 0 || cachedDeviceUptime == 0) {
+                    if (engine.getSnapshot().isEmpty()) {
                         LogUtils.d(TAG, "Cached data are unavailable. Try to reinitialize RealTime...");
                         build();
                     }
@@ -185,14 +247,68 @@ public class RealTime implements LifecycleEventObserver {
     }
 
     /**
-     * This method will enable NTP server provider and set NTP server host
+     * This method will enable NTP server provider and set NTP server host. A port other than
+     * 123 can be given as "host:port".
      *
      * @param ntpHost NTP server
      * @return RealTime instance
      */
     public RealTime withNtpServer(String ntpHost) {
-        ntpServerHosts.add(ntpHost);
-        ntpServerEnabled = true;
+        engine.withNtpServer(ntpHost);
+        return this;
+    }
+
+    /**
+     * Sets the number of samples requested from each NTP server in every attempt. The sample with
+     * the lowest round trip delay is used, because it has the lowest error, as the NTP clock
+     * filter does.
+     *
+     * @param sampleCount number of samples, at least 1
+     * @return RealTime instance
+     */
+    public RealTime setNtpSampleCount(int sampleCount) {
+        engine.setNtpSampleCount(sampleCount);
+        return this;
+    }
+
+    /**
+     * Sets how long RealTime collects samples from different providers before it selects the
+     * time most of them agree on. The window starts when the first sample arrives and closes
+     * early as soon as the quorum agrees.
+     *
+     * @param window the duration of the selection window
+     * @param unit   the unit of time for the selection window
+     * @return RealTime instance
+     */
+    public RealTime setSelectionWindow(long window, @NonNull TimeUnit unit) {
+        engine.setSelectionWindow(window, unit);
+        return this;
+    }
+
+    /**
+     * Sets the number of samples that have to agree with each other before the time is set
+     * without waiting for the selection window to close. By default two samples have to agree,
+     * or one if only a single provider is configured.
+     *
+     * @param quorum number of agreeing samples, at least 1
+     * @return RealTime instance
+     */
+    public RealTime setSelectionQuorum(int quorum) {
+        engine.setSelectionQuorum(quorum);
+        return this;
+    }
+
+    /**
+     * Enables or disables hedged requests. When enabled, which is the default, network providers
+     * are queried one by one: the next host is only requested if no answer arrives within the
+     * 90th percentile of recent request latencies, or as soon as more samples are needed to
+     * reach the selection quorum. When disabled, all hosts are requested at once.
+     *
+     * @param enabled sets weather requests must be hedged or not
+     * @return RealTime instance
+     */
+    public RealTime setHedgedRequestsEnabled(boolean enabled) {
+        engine.setHedgedRequestsEnabled(enabled);
         return this;
     }
 
@@ -206,8 +322,7 @@ public class RealTime implements LifecycleEventObserver {
      * @return RealTime instance
      */
     public RealTime withTimeServer(String serverHost) {
-        this.timeServerHosts.add(serverHost);
-        timeServerEnabled = true;
+        engine.withTimeServer(serverHost);
         return this;
     }
 
@@ -228,7 +343,44 @@ public class RealTime implements LifecycleEventObserver {
             throw new IllegalStateException("You need to add location permissions to your manifest.");
         }
 
-        gpsProviderEnabled = true;
+        if (!gpsProviderEnabled) {
+            gpsProviderEnabled = true;
+            engine.setExternalSourceCount(1);
+        }
+
+        return this;
+    }
+
+    /**
+     * This function enables low power mode of GPS provider. In low power mode, GPS hardware is
+     * never turned on by RealTime: the last known GPS fix is used if it is recent, and fixes
+     * requested by other apps are received passively until the time is set or the GPS timeout
+     * is reached. The default is false.
+     * <p>
+     * Apps which only have {@link android.Manifest.permission#ACCESS_COARSE_LOCATION} permission
+     * always use GPS provider passively.
+     *
+     * @param enabled sets weather GPS provider must be used passively
+     * @return RealTime instance
+     */
+    public RealTime setGpsLowPowerEnabled(boolean enabled) {
+        this.gpsLowPowerEnabled = enabled;
+
+        return this;
+    }
+
+    /**
+     * Sets the time after which location updates are stopped if GPS provider has not returned
+     * a fix, so the provider is not kept on when there is no sky view. The default is two
+     * minutes.
+     *
+     * @param timeout the duration of the timeout
+     * @param unit    the unit of time for the timeout
+     * @return RealTime instance
+     */
+    public RealTime setGpsTimeout(long timeout, @NonNull TimeUnit unit) {
+        this.gpsTimeout = TimeUnit.MILLISECONDS.convert(timeout, unit);
+
         return this;
     }
 
@@ -245,30 +397,76 @@ public class RealTime implements LifecycleEventObserver {
     }
 
     /**
-     * Sets the backoff delay for re-syncing RealTime with time providers.
+     * Sets the backoff delay for re-syncing RealTime with time providers. RealTime resyncs when
+     * the error bound of the cached time reaches the accuracy target, but never sooner than this
+     * delay after the last sync. The default is one minute.
      *
      * @param backoffDelay the duration of the backoff delay
      * @param unit         the unit of time for the backoff delay
      * @return the RealTime instance with the updated backoff delay
      * @throws NullPointerException if the unit parameter is null
+     * @see #setAccuracyTarget(long, TimeUnit)
      */
     public RealTime setSyncBackoffDelay(long backoffDelay, @NonNull TimeUnit unit) {
-        this.backoffDelay = TimeUnit.MILLISECONDS.convert(backoffDelay, unit);
+        engine.setMinResyncInterval(backoffDelay, unit);
+
+        return this;
+    }
+
+    /**
+     * Sets the accuracy target of RealTime. The error bound of the cached time is the error of
+     * the last sync plus the possible drift of the device clock since then. RealTime schedules a
+     * resync, both in foreground and background, for when that bound reaches the target.
+     * The default is one second.
+     *
+     * @param accuracyTarget maximum acceptable error of the current time
+     * @param unit           the unit of time for the accuracy target
+     * @return RealTime instance
+     */
+    public RealTime setAccuracyTarget(long accuracyTarget, @NonNull TimeUnit unit) {
+        engine.setAccuracyTarget(accuracyTarget, unit);
+        return this;
+    }
+
+    /**
+     * Sets how long {@link #isInitialized()}, {@link #nowMillis()} and the other readers wait for
+     * the cached time while it is being loaded in background right after RealTime is built. If it
+     * is not loaded in time, RealTime reads as not initialized until it is. The default is 500
+     * milliseconds.
+     *
+     * @param timeout maximum time readers wait for the cached time
+     * @param unit    the unit of time for the timeout
+     * @return RealTime instance
+     */
+    public RealTime setInitializationTimeout(long timeout, @NonNull TimeUnit unit) {
+        engine.setSnapshotLoadTimeout(timeout, unit);
+        return this;
+    }
 
+    /**
+     * Sets the executor on which {@link OnRealTimeInitializedListener} is called and
+     * {@link #INITIALIZED} is updated. Syncing itself happens on a background thread of RealTime.
+     * The default is the main thread.
+     *
+     * @param executor executor to deliver callbacks on
+     * @return RealTime instance
+     */
+    public RealTime setCallbackExecutor(@NonNull Executor executor) {
+        this.callbackExecutor = executor;
         return this;
     }
 
     /**
-     * This function will set onInitializeListener and build the RealTime and starts
-     * to sync with requested providers
+     * This function will add onInitializeListener and build the RealTime and starts
+     * to sync with requested providers. If a cached time is available, the listener is
+     * called with it on the callback executor as soon as it is loaded. Listeners of all
+     * callers are kept and called with the result of every sync.
      *
      * @param onInitializedListener listener to get notified when initialized
      */
     public void build(OnRealTimeInitializedListener onInitializedListener) {
-        this.initializedListener = onInitializedListener;
-
-        if (isInitialized() && onInitializedListener != null) {
-            onInitializedListener.onInitialized(now());
+        if (onInitializedListener != null && initializedListeners.add(onInitializedListener)) {
+            callbackExecutor.execute(() -> notifyCachedTime(onInitializedListener));
         }
 
         build();
@@ -276,28 +474,25 @@ public class RealTime implements LifecycleEventObserver {
 
     /**
      * This function will build the RealTime class and starts to sync time using
-     * requested providers.
+     * requested providers. If a sync is already running, it is joined instead of
+     * starting another one, so calling it from several places is cheap.
      */
     public void build() {
 
         LogUtils.v(TAG, "Starting to build RealTime...");
 
-        if (gpsProviderEnabled) {
-            requestLocationUpdates();
-        }
-
-        if (timeServerEnabled || ntpServerEnabled) {
-            networkStateLiveData.observeForever(networkObserver);
-        }
+        engine.sync();
     }
 
-    private boolean cachedTimeIsValid(long backoffDelay) {
-        if (backoffDelay <= 0) return true;
-
-        long cachedTime = CacheUtils.getCachedTime();
-        long timeNow = now().getTime();
-
-        return (timeNow - cachedTime) < backoffDelay;
+    /**
+     * This function returns the error bound of the current reliable time: the error of the last
+     * sync plus the possible drift of the device clock since then.
+     *
+     * @return error bound in milliseconds, or {@link #NOT_INITIALIZED} if the class is not initialized yet
+     */
+    public static long getErrorBound() {
+        RealTime realTime = instance;
+        return realTime == null ? NOT_INITIALIZED : realTime.engine.getErrorBound();
     }
 
     /**
@@ -306,7 +501,8 @@ public class RealTime implements LifecycleEventObserver {
      * @return is RealTime initialized or not
      */
     public static boolean isInitialized() {
-        return isCachedTimeValid();
+        RealTime realTime = instance;
+        return realTime != null && realTime.engine.isInitialized();
     }
 
     /**
@@ -316,248 +512,313 @@ public class RealTime implements LifecycleEventObserver {
      * @throws IllegalStateException if the class is not initialized yet
      */
     public static Date now() throws IllegalStateException {
-        if (!isInitialized()) {
+        return new Date(nowMillis());
+    }
+
+    /**
+     * This function returns current reliable time in milliseconds without allocating any object.
+     *
+     * @return current reliable time in milliseconds since epoch
+     * @throws IllegalStateException if the class is not initialized yet
+     */
+    public static long nowMillis() throws IllegalStateException {
+        long now = tryNowMillis();
+
+        if (now == NOT_INITIALIZED) {
             throw new IllegalStateException("You need to init RealTime at least once.");
         }
 
-        long cachedTime = CacheUtils.getCachedTime();
-        long cachedDeviceUptime = CacheUtils.getCachedDeviceUptime();
-        long deviceUptime = SystemClock.elapsedRealtime();
-        long now = cachedTime + (deviceUptime - cachedDeviceUptime);
-
-        return new Date(now);
+        return now;
     }
 
     /**
-     * This function requests headers from provided server url and extracts Date header from response.
-     * We use RxJava to manage http request calls and use retry capability
+     * This function returns current reliable time in milliseconds, or {@link #NOT_INITIALIZED}
+     * if the class is not initialized yet.
+     *
+     * @return current reliable time in milliseconds since epoch or {@link #NOT_INITIALIZED}
      */
-    private void requestTimeServer(String timeServerHost) {
-        RetryWithDelay retryWithDelay = RetryWithDelay.builder()
-                .retryDelayStrategy(RetryDelayStrategy.CONSTANT_DELAY_TIMES_RETRY_COUNT)
-                .maxRetries(Integer.MAX_VALUE)
-                .retryDelaySeconds(1)
-                .mexDelaySeconds(30)
-                .host(timeServerHost)
-                .build();
+    public static long tryNowMillis() {
+        RealTime realTime = instance;
+        return realTime == null ? NOT_INITIALIZED : realTime.engine.tryNowMillis();
+    }
 
-        Disposable disposable = Single
-                .fromCallable(() -> fetchTimeServer(timeServerHost))
-                .retryWhen(retryWithDelay)
-                .doOnDispose(() -> {
-                    LogUtils.d(TAG, "Canceling request from time server...");
+    /**
+     * This function returns current reliable time in nanoseconds without allocating any object.
+     * The resolution is that of the device uptime clock, so it can order events which happen
+     * within the same millisecond, but the accuracy is still that of {@link #getErrorBound()}.
+     *
+     * @return current reliable time in nanoseconds since epoch
+     * @throws IllegalStateException if the class is not initialized yet
+     */
+    public static long nowNanos() throws IllegalStateException {
+        long now = tryNowNanos();
 
-                    if (urlConnection != null)
-                        urlConnection.disconnect();
+        if (now == NOT_INITIALIZED) {
+            throw new IllegalStateException("You need to init RealTime at least once.");
+        }
 
-                    LogUtils.d(TAG, "Time server request canceled.");
-                })
-                .subscribeOn(Schedulers.io())
-                .observeOn(AndroidSchedulers.mainThread())
-                .subscribe(this::setTime, throwable -> LogUtils.w(TAG, "Exception while requesting time from server: ", throwable));
+        return now;
+    }
 
-        disposables.add(disposable);
+    /**
+     * This function returns current reliable time in nanoseconds, or {@link #NOT_INITIALIZED}
+     * if the class is not initialized yet.
+     *
+     * @return current reliable time in nanoseconds since epoch or {@link #NOT_INITIALIZED}
+     */
+    public static long tryNowNanos() {
+        RealTime realTime = instance;
+        return realTime == null ? NOT_INITIALIZED : realTime.engine.tryNowNanos();
     }
 
     /**
-     * This function will fetch time from requests headers from provided server url
-     * and extracts Date header from response.
+     * This function returns current reliable time as an instant with nanosecond resolution. The
+     * instant is the only object it allocates.
      *
-     * @return current time of server
-     * @throws IOException    throws IOException if we couldn't connect to server
-     * @throws ParseException throws ParseException if date header is not formed
-     *                        in correct datetime format
+     * @return current reliable time
+     * @throws IllegalStateException if the class is not initialized yet
      */
-    private Long fetchTimeServer(String timeServerHost) throws IOException, ParseException {
-        LogUtils.d(TAG, "Fetching time from time server: " + timeServerHost + " ...");
+    @RequiresApi(api = Build.VERSION_CODES.O)
+    public static Instant nowInstant() throws IllegalStateException {
+        RealTime realTime = instance;
 
-        try {
-            URL url = new URL(timeServerHost);
-            urlConnection = (HttpURLConnection) url.openConnection();
-            urlConnection.setConnectTimeout(10 * 1000);
+        if (realTime == null) {
+            throw new IllegalStateException("You need to init RealTime at least once.");
+        }
+
+        return realTime.engine.nowInstant();
+    }
+
+    /**
+     * This function returns the estimated frequency error of the device uptime clock. The estimate
+     * is based on successive syncs and is used to correct the time returned by {@link #now()}
+     * between syncs, once it is precise enough.
+     *
+     * @return drift estimate, or {@link DriftEstimate#UNKNOWN} if RealTime has not been built or
+     * there are not enough syncs yet
+     */
+    public static DriftEstimate getDriftEstimate() {
+        RealTime realTime = instance;
+        return realTime == null ? DriftEstimate.UNKNOWN : realTime.engine.getDriftEstimate();
+    }
 
-            if (urlConnection != null) {
-                Map<String, List<String>> headers = urlConnection.getHeaderFields();
+    /**
+     * This function returns the metrics of RealTime: attempts, failures, retries and latencies of
+     * every provider and host, time to first sync since process start and the source and device
+     * clock offset of the last sync. Add an exporter to it to forward metrics to your telemetry.
+     *
+     * @return metrics registry, or null if RealTime has not been built
+     */
+    public static RealTimeMetrics getMetrics() {
+        RealTime realTime = instance;
+        return realTime == null ? null : realTime.engine.getMetrics();
+    }
 
-                List<String> dateHeader = headers.get("date");
+    /**
+     * This function returns a hot stream of sync events: INITIALIZED, CORRECTED with the delta,
+     * INVALIDATED after a reboot or when the cache is cleared, and SAMPLE for every provider
+     * result. New subscribers first get the latest state, so they don't need to poll
+     * {@link #isInitialized()}. Events are emitted on the background sync thread of RealTime.
+     *
+     * @return stream of sync events
+     * @throws IllegalStateException if RealTime has not been built
+     */
+    public static Flowable<SyncEvent> events() throws IllegalStateException {
+        return requireInstance().engine.events();
+    }
 
-                if (dateHeader != null && !dateHeader.isEmpty()) {
-                    SimpleDateFormat format = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss zzz", Locale.ENGLISH);
-                    Date date = format.parse(dateHeader.get(0));
+    /**
+     * This function adds a listener of sync events, called on the callback executor. The
+     * listener first gets the latest state, like subscribers of {@link #events()} do.
+     *
+     * @param listener listener of sync events
+     * @throws IllegalStateException if RealTime has not been built
+     */
+    public static void addEventListener(@NonNull SyncEvent.Listener listener) throws IllegalStateException {
+        RealTime realTime = requireInstance();
+        realTime.engine.addEventListener(listener, realTime.callbackExecutor);
+    }
 
-                    if (date != null) {
-                        LogUtils.i(TAG, "Time from " + timeServerHost + ": " + date);
-                        return date.getTime();
-                    }
-                }
-            }
+    /**
+     * @param listener listener to remove
+     */
+    public static void removeEventListener(@NonNull SyncEvent.Listener listener) {
+        RealTime realTime = instance;
+        if (realTime != null) realTime.engine.removeEventListener(listener);
+    }
 
-        } catch (ParseException | IOException e) {
-            LogUtils.w(TAG, e.getClass().getCanonicalName() + ":" + e.getMessage());
-            throw e;
+    private static RealTime requireInstance() throws IllegalStateException {
+        RealTime realTime = instance;
 
-        } catch (Exception e) {
-            LogUtils.w(TAG, e.getClass().getCanonicalName() + ":" + e.getMessage());
+        if (realTime == null) {
+            throw new IllegalStateException("You need to build RealTime first.");
         }
 
-        throw new IOException();
+        return realTime;
     }
 
     /**
-     * This function requests current time from provided NTP server using NTPUDPClient.
-     * We use RxJava to manage http request calls and use retry capability
+     * In this function we request location updates if we have location permission. A recent last
+     * known fix is used right away, and then GPS provider is requested actively, or passively in
+     * low power mode. Updates are stopped when a fix is received, the time is set or the GPS
+     * timeout is reached. If GPS can't be requested, the sync stops waiting for it.
      */
-    private void requestNtpTime(String ntpServerHost) {
-        RetryWithDelay retryWithDelay = RetryWithDelay.builder()
-                .retryDelayStrategy(RetryDelayStrategy.CONSTANT_DELAY_TIMES_RETRY_COUNT)
-                .maxRetries(Integer.MAX_VALUE)
-                .retryDelaySeconds(1)
-                .mexDelaySeconds(30)
-                .host(ntpServerHost)
-                .build();
+    @SuppressLint("MissingPermission")
+    private synchronized void requestLocationUpdates() {
+        // the provider may be requested again when it is enabled, the timeout is kept
+        boolean requested = gpsTimeoutDisposable != null;
+
+        if (locationManager == null) {
+            engine.removeExternalSource();
+            return;
+        }
+
+        boolean fineLocation = context.checkCallingOrSelfPermission(Manifest.permission.ACCESS_FINE_LOCATION) == PackageManager.PERMISSION_GRANTED;
+        boolean coarseLocation = context.checkCallingOrSelfPermission(Manifest.permission.ACCESS_COARSE_LOCATION) == PackageManager.PERMISSION_GRANTED;
+
+        if (!fineLocation && !coarseLocation) {
+            LogUtils.w(TAG, "Location permission was not granted.");
+            if (!requested) engine.removeExternalSource();
+            return;
+        }
 
-        Disposable disposable = Single
-                .fromCallable(() -> fetchNtpTime(ntpServerHost))
-                .retryWhen(retryWithDelay)
-                .subscribeOn(Schedulers.io())
-                .doOnDispose(() -> {
-                    LogUtils.d(TAG, "Canceling Ntp request...");
+        boolean bootstrapped = !requested && addLastKnownLocation();
 
-                    if (timeClient != null && timeClient.isOpen())
-                        timeClient.close();
+        // GPS provider needs fine location, others only get the fixes requested by other apps
+        String provider = fineLocation && !gpsLowPowerEnabled && !bootstrapped ?
+                LocationManager.GPS_PROVIDER : LocationManager.PASSIVE_PROVIDER;
 
-                    LogUtils.d(TAG, "Ntp request canceled.");
-                })
-                .observeOn(AndroidSchedulers.mainThread())
-                .subscribe(this::setTime, throwable -> LogUtils.w(TAG, "Exception while requesting Ntp time: ", throwable));
+        try {
+            // updates are delivered on the main thread, whichever thread requests them
+            locationManager.requestLocationUpdates(provider, GPS_MIN_TIME, 0, locationListener, Looper.getMainLooper());
+        } catch (SecurityException | IllegalArgumentException e) {
+            LogUtils.w(TAG, "Location provider: " + provider + " is not available: " + e.getMessage());
+            if (!requested) engine.removeExternalSource();
+            return;
+        }
 
-        disposables.add(disposable);
+        if (!requested) {
+            engine.getMetrics().recordAttempt(TimeSource.GPS_PROVIDER, LocationManager.GPS_PROVIDER);
+            gpsTimeoutDisposable = AndroidSchedulers.mainThread().scheduleDirect(this::onGpsTimeout, gpsTimeout, TimeUnit.MILLISECONDS);
+        }
+
+        LogUtils.d(TAG, "Requesting time from location provider: " + provider + "...");
     }
 
     /**
-     * This function will fetch time from NTP server url and gets date.
+     * This function adds the last known GPS fix as a sample if its uptime is known and it is
+     * recent enough, so the time may be set without turning GPS on.
      *
-     * @return current time we got from NTP server
-     * @throws IOException throws IOException if we couldn't connect to server
+     * @return true if a sample was added
      */
-    private Long fetchNtpTime(String ntpServerHost) throws IOException {
-        LogUtils.d(TAG, "Fetching time from Ntp server: " + ntpServerHost + " ...");
-
-        timeClient = new NTPUDPClient();
-        timeClient.setDefaultTimeout(10 * 1000);
-
-        InetAddress inetAddress;
+    @SuppressLint("MissingPermission")
+    private boolean addLastKnownLocation() {
+        Location location;
 
         try {
-            inetAddress = InetAddress.getByName(ntpServerHost);
-        } catch (UnknownHostException e) {
-            LogUtils.w(TAG, e.getClass().getCanonicalName() + ":" + e.getMessage());
-            throw e;
+            location = locationManager.getLastKnownLocation(LocationManager.GPS_PROVIDER);
+        } catch (SecurityException | IllegalArgumentException e) {
+            return false;
         }
 
-        TimeInfo timeInfo = timeClient.getTime(inetAddress);
-        long returnTime = timeInfo.getMessage().getTransmitTimeStamp().getTime();
+        if (location == null) return false;
 
-        LogUtils.i(TAG, "Time from " + ntpServerHost + ": " + new Date(returnTime));
+        long fixUptimeNanos = EnhancedLocationListener.getElapsedRealtimeNanos(location);
+        long fixUptime = fixUptimeNanos / 1_000_000;
+        long age = SystemClock.elapsedRealtime() - fixUptime;
 
-        try {
-            timeClient.close();
-        } catch (Exception ignored) {
+        // without the uptime of the fix, its age is unknown
+        if (fixUptimeNanos == EnhancedLocationListener.UNKNOWN_ELAPSED_REALTIME || age < 0 || age > LAST_KNOWN_LOCATION_MAX_AGE) {
+            return false;
         }
 
-        return returnTime;
-    }
+        long gpsTime = EnhancedLocationListener.getGpsTime(location);
+        LogUtils.i(TAG, "Time from last known location: " + new Date(gpsTime) + ", " + age + "ms old");
+
+        engine.addSample(new TimeSample(TimeSource.GPS_PROVIDER, location.getProvider(), gpsTime, fixUptime,
+                fixUptimeNanos, 0, ANCHORED_GPS_PROVIDER_ERROR_BOUND + (long) (age * LAST_KNOWN_LOCATION_DRIFT)));
 
+        return true;
+    }
 
     /**
-     * In this function we request location updates if we have location permission and gps provider
-     * is enabled by user.
+     * This function stops location updates and cancels the GPS timeout
      */
-    @SuppressLint("MissingPermission")
-    private void requestLocationUpdates() {
-        if (context.checkCallingOrSelfPermission(Manifest.permission.ACCESS_FINE_LOCATION) == PackageManager.PERMISSION_GRANTED ||
-                context.checkCallingOrSelfPermission(Manifest.permission.ACCESS_FINE_LOCATION) == PackageManager.PERMISSION_GRANTED) {
+    private synchronized void removeLocationUpdates() {
+        if (gpsTimeoutDisposable == null) return;
 
-            if (locationManager.isProviderEnabled(LocationManager.NETWORK_PROVIDER) ||
-                    locationManager.isProviderEnabled(LocationManager.GPS_PROVIDER)) {
-                LogUtils.i(TAG, "Location provider is enabled.");
-            }
+        gpsTimeoutDisposable.dispose();
+        gpsTimeoutDisposable = null;
 
-            locationManager.requestLocationUpdates(LocationManager.GPS_PROVIDER, 1, 0, locationListener);
-            LogUtils.d(TAG, "Requesting time from location provider...");
-        } else {
-            LogUtils.w(TAG, "Location permission was not granted.");
-        }
+        locationManager.removeUpdates(locationListener);
+        LogUtils.d(TAG, "Location updates stopped.");
     }
 
     /**
-     * This function will check if we have a valid cached time
-     *
-     * @return true if cache is valid, false otherwise
+     * This function is called on the main thread when GPS provider has not returned a fix in time.
+     * The sync stops waiting for GPS, so it ends if there is no other provider.
      */
-    private static boolean isCachedTimeValid() {
-        long cachedBootTime = CacheUtils.getCachedBootTime();
-        if (cachedBootTime == 0) {
-            return false;
+    private void onGpsTimeout() {
+        synchronized (this) {
+            if (gpsTimeoutDisposable == null || gpsTimeoutDisposable.isDisposed()) return;
         }
 
-        // has boot time changed (simple check)
-        boolean bootTimeChanged = SystemClock.elapsedRealtime() < CacheUtils.getCachedDeviceUptime();
-        return !bootTimeChanged;
-    }
+        LogUtils.w(TAG, "Location provider timed out.");
+        engine.getMetrics().recordFailure(TimeSource.GPS_PROVIDER, LocationManager.GPS_PROVIDER);
 
+        removeLocationUpdates();
+        engine.removeExternalSource();
+    }
 
     /**
      * This function clears all cached data. We use this function to clear expired datetime
      * after reboot and try to reinitialize the RealTime.
      */
     public static void clearCachedInfo() {
-        CacheUtils.setCachedTime(0L);
-        CacheUtils.setCachedBootTime(0);
-        CacheUtils.setCachedDeviceUptime(0);
+        RealTime realTime = instance;
+        if (realTime == null) return;
 
-        LogUtils.d(TAG, "RealTime disk cache cleared.");
+        realTime.engine.clearCachedInfo();
 
         INITIALIZED.set(false);
     }
 
     /**
-     * This function will set time and cache needed data to preferences.
-     *
-     * @param time reliable current time
+     * Here we listen to the sync engine on its sync thread: GPS provider is requested along with
+     * network providers, and released as soon as the time is set. Results are delivered on the
+     * callback executor.
      */
-    @SuppressLint("MissingPermission")
-    private void setTime(Long time) {
-        if (time == null || time == 0) return;
-
-        long deviceUptime = SystemClock.elapsedRealtime();
-        long bootTime = time - deviceUptime;
-
-        // write data to cache
-        CacheUtils.setCachedTime(time);
-        CacheUtils.setCachedBootTime(bootTime);
-        CacheUtils.setCachedDeviceUptime(deviceUptime);
-
-        // disable network connection state callback if exists
-        if (networkStateLiveData != null) {
-            networkStateLiveData.removeObserver(networkObserver);
+    private final RealTimeEngine.Listener engineListener = new RealTimeEngine.Listener() {
+        @Override
+        public void onSyncStarted() {
+            if (gpsProviderEnabled) {
+                requestLocationUpdates();
+            }
         }
 
-        // Unsubscribe from all network providers
-        disposables.clear();
-
-        // Unsubscribe from location providers
-        if (locationManager != null) {
-            locationManager.removeUpdates(locationListener);
-            LogUtils.d(TAG, "Location updates stopped.");
+        @Override
+        public void onSyncJoined() {
+            // GPS is still expected, but its updates may have been stopped in between
+            if (gpsProviderEnabled) {
+                requestLocationUpdates();
+            }
         }
 
-        INITIALIZED.set(true);
+        @Override
+        public void onTimeSet(TimeSample sample) {
+            // Unsubscribe from location providers
+            removeLocationUpdates();
+
+            callbackExecutor.execute(() -> {
+                INITIALIZED.set(true);
 
-        // populate results
-        if (initializedListener != null)
-            initializedListener.onInitialized(new Date(time));
-    }
+                // populate results
+                for (OnRealTimeInitializedListener listener : initializedListeners) {
+                    listener.onInitialized(new Date(sample.timeAt(SystemClock.elapsedRealtime())));
+                }
+            });
+        }
+    };
 
     /**
      * Here we implement a location listener to get date from location provider
@@ -566,13 +827,24 @@ public class RealTime implements LifecycleEventObserver {
         @SuppressLint("MissingPermission")
         @Override
         public void onLocationChanged(@NonNull Location location, long gpsTime) {
+            // passive updates include fixes of other providers, which carry the device time
+            if (!LocationManager.GPS_PROVIDER.equals(location.getProvider())) return;
+
             LogUtils.i(TAG, "Time from location provider: " + new Date(gpsTime));
 
-            setTime(gpsTime);
+            // the fix is anchored to the uptime it was taken at, not the uptime it was delivered
+            long fixUptimeNanos = getElapsedRealtimeNanos(location);
+            long fixUptime = fixUptimeNanos / 1_000_000;
 
-            if (locationManager != null) {
-                locationManager.removeUpdates(this);
+            if (fixUptimeNanos != UNKNOWN_ELAPSED_REALTIME && fixUptime <= SystemClock.elapsedRealtime()) {
+                engine.addSample(new TimeSample(TimeSource.GPS_PROVIDER, location.getProvider(), gpsTime,
+                        fixUptime, fixUptimeNanos, 0, ANCHORED_GPS_PROVIDER_ERROR_BOUND));
+            } else {
+                engine.addSample(new TimeSample(TimeSource.GPS_PROVIDER, location.getProvider(), gpsTime,
+                        SystemClock.elapsedRealtime(), 0, GPS_PROVIDER_ERROR_BOUND));
             }
+
+            removeLocationUpdates();
         }
 
         @Override
@@ -584,8 +856,11 @@ public class RealTime implements LifecycleEventObserver {
         public void onProviderEnabled(@NonNull String provider) {
             LogUtils.v(TAG, "Location provider enabled.");
 
-            if (locationManager != null && !isInitialized()) {
+            // a running sync uses the provider right away, otherwise a sync is started if needed
+            if (locationManager != null && engine.getSyncState() != RealTimeEngine.SyncState.IDLE) {
                 requestLocationUpdates();
+            } else if (!isInitialized()) {
+                build();
             }
         }
 
@@ -594,32 +869,4 @@ public class RealTime implements LifecycleEventObserver {
             // we need to implement this empty method to prevent crash on API 21 (Android 5)
         }
     };
-
-    /**
-     * Here we define a network callback to notify when network state changes. If we have a reliable
-     * network, we try to request time from NTP or time servers.
-     */
-    Observer<Boolean> networkObserver = isConnected -> {
-        if (isConnected) {
-            LogUtils.i(TAG, "Network connection is available.");
-
-            if (ntpServerEnabled) {
-                for (String ntpServerHost : ntpServerHosts) {
-                    requestNtpTime(ntpServerHost);
-                }
-            }
-
-            if (timeServerEnabled) {
-                for (String timeServerHost : timeServerHosts) {
-                    requestTimeServer(timeServerHost);
-                }
-            }
-
-        } else {
-            LogUtils.i(TAG, "Network connection has lost.");
-
-            disposables.clear();
-        }
-    };
-
 }
@@ -0,0 +1,185 @@
+package ir.programmerplus.realtime;
+
+import android.os.Build;
+
+import java.time.Clock;
+import java.time.DateTimeException;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.concurrent.TimeUnit;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.RequiresApi;
+import ir.programmerplus.realtime.models.SyncEvent;
+
+/**
+ * RealTimeClock is a {@link Clock} which returns the reliable time of {@link RealTime}, so it can
+ * be passed to any code that takes a clock. {@link #millis()} reads the time without allocating
+ * any object, and {@link #instant()} has nanosecond resolution.
+ * <p>
+ * The fallback decides what the clock does while RealTime is not initialized: throw a
+ * {@link DateTimeException}, return the device time, or block until RealTime is initialized.
+ * Instances are immutable, the with functions return new clocks.
+ */
+@RequiresApi(api = Build.VERSION_CODES.O)
+public final class RealTimeClock extends Clock {
+
+    public enum Fallback {
+        /**
+         * Throw a {@link DateTimeException}
+         */
+        THROW,
+        /**
+         * Return the time of the device clock, which may be wrong
+         */
+        SYSTEM_CLOCK,
+        /**
+         * Wait until RealTime is initialized, up to the block timeout, and then throw a
+         * {@link DateTimeException}. Never use it on the main thread.
+         */
+        BLOCK
+    }
+
+    private static final long DEFAULT_BLOCK_TIMEOUT = 10 * 1000;
+
+    private final ZoneId zone;
+    private final Fallback fallback;
+    private final long blockTimeout;
+
+    private RealTimeClock(ZoneId zone, Fallback fallback, long blockTimeout) {
+        this.zone = zone;
+        this.fallback = fallback;
+        this.blockTimeout = blockTimeout;
+    }
+
+    /**
+     * @return clock in UTC which throws while RealTime is not initialized
+     */
+    public static RealTimeClock utc() {
+        return new RealTimeClock(ZoneOffset.UTC, Fallback.THROW, DEFAULT_BLOCK_TIMEOUT);
+    }
+
+    /**
+     * @return clock in the default time zone which throws while RealTime is not initialized
+     */
+    public static RealTimeClock systemDefaultZone() {
+        return new RealTimeClock(ZoneId.systemDefault(), Fallback.THROW, DEFAULT_BLOCK_TIMEOUT);
+    }
+
+    /**
+     * @param fallback what the clock does while RealTime is not initialized
+     * @return a copy of this clock with the given fallback
+     */
+    public RealTimeClock withFallback(@NonNull Fallback fallback) {
+        return new RealTimeClock(zone, fallback, blockTimeout);
+    }
+
+    /**
+     * Sets how long the clock waits for RealTime to be initialized with {@link Fallback#BLOCK}.
+     * The default is ten seconds.
+     *
+     * @param timeout the duration of the timeout
+     * @param unit    the unit of time for the timeout
+     * @return a copy of this clock with the given timeout
+     */
+    public RealTimeClock withBlockTimeout(long timeout, @NonNull TimeUnit unit) {
+        return new RealTimeClock(zone, fallback, TimeUnit.MILLISECONDS.convert(timeout, unit));
+    }
+
+    @Override
+    public RealTimeClock withZone(ZoneId zone) {
+        if (zone.equals(this.zone)) return this;
+
+        return new RealTimeClock(zone, fallback, blockTimeout);
+    }
+
+    @Override
+    public ZoneId getZone() {
+        return zone;
+    }
+
+    public Fallback getFallback() {
+        return fallback;
+    }
+
+    /**
+     * @return current reliable time in milliseconds since epoch
+     * @throws DateTimeException if RealTime is not initialized and the fallback doesn't provide a time
+     */
+    @Override
+    public long millis() throws DateTimeException {
+        long now = RealTime.tryNowMillis();
+        if (now != RealTime.NOT_INITIALIZED) return now;
+
+        if (fallback == Fallback.SYSTEM_CLOCK) return System.currentTimeMillis();
+
+        awaitInitialized();
+        return RealTime.nowMillis();
+    }
+
+    /**
+     * @return current reliable time with nanosecond resolution
+     * @throws DateTimeException if RealTime is not initialized and the fallback doesn't provide a time
+     */
+    @Override
+    public Instant instant() throws DateTimeException {
+        long now = RealTime.tryNowNanos();
+
+        if (now == RealTime.NOT_INITIALIZED) {
+            if (fallback == Fallback.SYSTEM_CLOCK) return Instant.ofEpochMilli(System.currentTimeMillis());
+
+            awaitInitialized();
+            now = RealTime.nowNanos();
+        }
+
+        return Instant.ofEpochSecond(now / 1_000_000_000L, now % 1_000_000_000L);
+    }
+
+    /**
+     * This function waits for RealTime to be initialized if the fallback is
+     * {@link Fallback#BLOCK}, and throws otherwise.
+     *
+     * @throws DateTimeException if RealTime is not initialized in time
+     */
+    private void awaitInitialized() throws DateTimeException {
+        if (fallback != Fallback.BLOCK) {
+            throw new DateTimeException("RealTime is not initialized yet.");
+        }
+
+        try {
+            // events replay the latest state, so an initialization right before subscribing is not missed
+            RealTime.events()
+                    .filter(event -> event.getType() == SyncEvent.Type.INITIALIZED || event.getType() == SyncEvent.Type.CORRECTED)
+                    .firstElement()
+                    .timeout(blockTimeout, TimeUnit.MILLISECONDS)
+                    .blockingGet();
+        } catch (RuntimeException e) {
+            throw new DateTimeException("RealTime is not initialized within " + blockTimeout + "ms.", e);
+        }
+
+        if (!RealTime.isInitialized()) {
+            throw new DateTimeException("RealTime is not initialized yet.");
+        }
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) return true;
+        if (!(obj instanceof RealTimeClock)) return false;
+
+        RealTimeClock other = (RealTimeClock) obj;
+        return zone.equals(other.zone) && fallback == other.fallback && blockTimeout == other.blockTimeout;
+    }
+
+    @Override
+    public int hashCode() {
+        return (zone.hashCode() * 31 + fallback.hashCode()) * 31 + Long.hashCode(blockTimeout);
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        return "RealTimeClock(" + zone + ", fallback=" + fallback + ")";
+    }
+}
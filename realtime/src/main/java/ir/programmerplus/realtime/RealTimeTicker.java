@@ -0,0 +1,167 @@
+package ir.programmerplus.realtime;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import androidx.annotation.MainThread;
+import androidx.annotation.NonNull;
+import androidx.lifecycle.Lifecycle;
+import androidx.lifecycle.LifecycleEventObserver;
+import androidx.lifecycle.LifecycleOwner;
+
+/**
+ * RealTimeTicker runs a single timer on the main thread which ticks on the boundaries of the
+ * reliable time, every second by default, and calls all of its callbacks on every tick. Screens
+ * and widgets which show the time share it instead of creating their own timers, so there is
+ * one wakeup per tick and displayed clocks flip exactly when the second changes.
+ * <p>
+ * The timer only runs while there are callbacks. Callbacks subscribed with a lifecycle owner
+ * are only active while it is started, so the ticker pauses when no screen is visible.
+ */
+public class RealTimeTicker {
+
+    /**
+     * Callback of ticks, called on the main thread
+     */
+    public interface Callback {
+        /**
+         * @param timeMillis reliable time of the tick, exactly on a period boundary, or
+         *                   {@link RealTime#NOT_INITIALIZED} if RealTime is not initialized yet
+         */
+        void onTick(long timeMillis);
+    }
+
+    // a tick which fires this close before a boundary reports that boundary
+    private static final long MAX_EARLY_TICK = 20;
+
+    private static volatile RealTimeTicker defaultTicker;
+
+    private final long period;
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final List<Callback> callbacks = new CopyOnWriteArrayList<>();
+    private boolean running;
+
+    /**
+     * @param period period of ticks, ticks are aligned to multiples of it since epoch
+     * @param unit   the unit of time for the period
+     */
+    public RealTimeTicker(long period, @NonNull TimeUnit unit) {
+        this.period = TimeUnit.MILLISECONDS.convert(period, unit);
+
+        if (this.period <= 0) {
+            throw new IllegalArgumentException("Ticker period must be at least one millisecond.");
+        }
+    }
+
+    /**
+     * @return the shared ticker which ticks on every second
+     */
+    public static RealTimeTicker getDefault() {
+        if (defaultTicker == null) {
+            synchronized (RealTimeTicker.class) {
+                if (defaultTicker == null) {
+                    defaultTicker = new RealTimeTicker(1, TimeUnit.SECONDS);
+                }
+            }
+        }
+
+        return defaultTicker;
+    }
+
+    /**
+     * This function adds a callback and starts the timer if it is the first one. The callback is
+     * called right away with the current time, and then on every tick.
+     *
+     * @param callback callback of ticks
+     */
+    public void subscribe(@NonNull Callback callback) {
+        if (callbacks.contains(callback)) return;
+
+        callbacks.add(callback);
+        handler.post(() -> {
+            if (callbacks.contains(callback)) callback.onTick(RealTime.tryNowMillis());
+        });
+
+        synchronized (this) {
+            if (!running) {
+                running = true;
+
+                long time = currentTime();
+                handler.postAtTime(tick, SystemClock.uptimeMillis() + period - time % period);
+            }
+        }
+    }
+
+    /**
+     * This function adds a callback which is only active while the lifecycle owner is started,
+     * and is removed when it is destroyed.
+     *
+     * @param owner    lifecycle owner, like an activity or a fragment
+     * @param callback callback of ticks
+     */
+    @MainThread
+    public void subscribe(@NonNull LifecycleOwner owner, @NonNull Callback callback) {
+        owner.getLifecycle().addObserver(new LifecycleEventObserver() {
+            @Override
+            public void onStateChanged(@NonNull LifecycleOwner source, @NonNull Lifecycle.Event event) {
+                switch (event) {
+                    case ON_START -> subscribe(callback);
+                    case ON_STOP -> unsubscribe(callback);
+                    case ON_DESTROY -> source.getLifecycle().removeObserver(this);
+                }
+            }
+        });
+    }
+
+    /**
+     * This function removes a callback and stops the timer if it was the last one.
+     *
+     * @param callback callback to remove
+     */
+    public void unsubscribe(@NonNull Callback callback) {
+        callbacks.remove(callback);
+
+        synchronized (this) {
+            if (running && callbacks.isEmpty()) {
+                running = false;
+                handler.removeCallbacks(tick);
+            }
+        }
+    }
+
+    private final Runnable tick = new Runnable() {
+        @Override
+        public void run() {
+            synchronized (RealTimeTicker.this) {
+                if (!running) return;
+            }
+
+            long now = RealTime.tryNowMillis();
+            boolean initialized = now != RealTime.NOT_INITIALIZED;
+            long time = initialized ? now : System.currentTimeMillis();
+
+            // the timer runs on uptime, so it may fire slightly before the boundary of the reliable time
+            long tickTime = (time + Math.min(MAX_EARLY_TICK, period / 10)) / period * period;
+
+            for (Callback callback : callbacks) {
+                callback.onTick(initialized ? tickTime : RealTime.NOT_INITIALIZED);
+            }
+
+            handler.postAtTime(this, SystemClock.uptimeMillis() + tickTime + period - time);
+        }
+    };
+
+    /**
+     * @return reliable time, or the device time until RealTime is initialized, so ticks are
+     * still aligned to seconds
+     */
+    private static long currentTime() {
+        long now = RealTime.tryNowMillis();
+        return now == RealTime.NOT_INITIALIZED ? System.currentTimeMillis() : now;
+    }
+}
@@ -2,15 +2,36 @@ package ir.programmerplus.realtime.interfaces;
 
 import android.location.Location;
 import android.location.LocationListener;
+import android.os.Build;
 
 import androidx.annotation.NonNull;
 
 public abstract class EnhancedLocationListener implements LocationListener {
 
+    /**
+     * The value returned by {@link #getElapsedRealtime(Location)} and
+     * {@link #getElapsedRealtimeNanos(Location)} when the fix has no uptime
+     */
+    public static final long UNKNOWN_ELAPSED_REALTIME = -1;
+
     public abstract void onLocationChanged(@NonNull Location location, long timeInMs);
 
     @Override
     public final void onLocationChanged(@NonNull Location location) {
+        long gpsTime = getGpsTime(location);
+
+        location.setTime(gpsTime);
+
+        onLocationChanged(location, gpsTime);
+    }
+
+    /**
+     * This function returns the time of the location fix, corrected for old GPS chips.
+     *
+     * @param location location fix
+     * @return time of the fix in milliseconds since epoch
+     */
+    public static long getGpsTime(@NonNull Location location) {
         long gpsTime = location.getTime();
 
         // Adding 1024 weeks to fix Week Number Rollover issue for old GPS chips
@@ -21,8 +42,33 @@ public abstract class EnhancedLocationListener implements LocationListener {
         if (gpsTime > 0 && gpsTime < 1673000000000L)
             gpsTime += 619315200000L;
 
-        location.setTime(gpsTime);
+        return gpsTime;
+    }
 
-        onLocationChanged(location, gpsTime);
+    /**
+     * This function returns the device uptime at which the fix was computed. Fixes may be
+     * delivered seconds after that, so the fix time has to be anchored to this uptime instead of
+     * the delivery time.
+     *
+     * @param location location fix
+     * @return uptime of the fix in milliseconds, or {@link #UNKNOWN_ELAPSED_REALTIME} if it is not
+     * available on this API level or for this fix
+     */
+    public static long getElapsedRealtime(@NonNull Location location) {
+        long elapsedRealtimeNanos = getElapsedRealtimeNanos(location);
+        return elapsedRealtimeNanos != UNKNOWN_ELAPSED_REALTIME ? elapsedRealtimeNanos / 1_000_000 : UNKNOWN_ELAPSED_REALTIME;
+    }
+
+    /**
+     * @param location location fix
+     * @return uptime of the fix in nanoseconds, or {@link #UNKNOWN_ELAPSED_REALTIME} if it is not
+     * available on this API level or for this fix
+     * @see #getElapsedRealtime(Location)
+     */
+    public static long getElapsedRealtimeNanos(@NonNull Location location) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN_MR1) return UNKNOWN_ELAPSED_REALTIME;
+
+        long elapsedRealtimeNanos = location.getElapsedRealtimeNanos();
+        return elapsedRealtimeNanos > 0 ? elapsedRealtimeNanos : UNKNOWN_ELAPSED_REALTIME;
     }
 }
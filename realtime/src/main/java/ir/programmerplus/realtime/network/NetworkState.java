@@ -12,17 +12,23 @@ import android.net.NetworkInfo;
 import android.net.NetworkRequest;
 import android.os.Build;
 
+import java.util.HashMap;
+import java.util.Map;
+
 import androidx.annotation.NonNull;
 import androidx.annotation.RequiresApi;
 import androidx.lifecycle.LiveData;
+import androidx.lifecycle.Observer;
+import ir.programmerplus.realtime.utils.ThreadUtils;
 
-public class NetworkState extends LiveData<Boolean> {
+public class NetworkState extends LiveData<Boolean> implements ConnectivitySignal {
 
     private static final String CONNECTIVITY_CHANGE = "android.net.conn.CONNECTIVITY_CHANGE";
 
     private final Context context;
     private final ConnectivityManager connectivityManager;
     private ConnectivityManager.NetworkCallback connectivityManagerCallback;
+    private final Map<Listener, Observer<Boolean>> observers = new HashMap<>();
 
     @RequiresApi(api = Build.VERSION_CODES.LOLLIPOP)
     private final NetworkRequest.Builder networkRequestBuilder = new NetworkRequest.Builder()
@@ -35,6 +41,31 @@ public class NetworkState extends LiveData<Boolean> {
         connectivityManager = (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
     }
 
+    /**
+     * This function observes network state for the sync engine. It can be called on any thread,
+     * observers are added on the main thread and the listener is called there.
+     *
+     * @param listener listener to notify with the current and future network states
+     */
+    @Override
+    public void addListener(Listener listener) {
+        ThreadUtils.runOnMainThread(() -> {
+            if (observers.containsKey(listener)) return;
+
+            Observer<Boolean> observer = listener::onConnectivityChanged;
+            observers.put(listener, observer);
+            observeForever(observer);
+        });
+    }
+
+    @Override
+    public void removeListener(Listener listener) {
+        ThreadUtils.runOnMainThread(() -> {
+            Observer<Boolean> observer = observers.remove(listener);
+            if (observer != null) removeObserver(observer);
+        });
+    }
+
     @Override
     protected void onActive() {
         super.onActive();
@@ -1,9 +0,0 @@
-package ir.programmerplus.realtime.network;
-
-
-public enum RetryDelayStrategy {
-    CONSTANT_DELAY,
-    RETRY_COUNT,
-    CONSTANT_DELAY_TIMES_RETRY_COUNT,
-    CONSTANT_DELAY_RAISED_TO_RETRY_COUNT
-}
\ No newline at end of file
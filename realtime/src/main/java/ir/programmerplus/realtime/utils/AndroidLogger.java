@@ -0,0 +1,18 @@
+package ir.programmerplus.realtime.utils;
+
+import android.util.Log;
+
+/**
+ * AndroidLogger writes log messages of the sync engine to logcat
+ */
+public class AndroidLogger implements LogUtils.Logger {
+
+    @Override
+    public void log(int priority, String tag, String msg, Throwable throwable) {
+        if (throwable != null) {
+            msg += '\n' + Log.getStackTraceString(throwable);
+        }
+
+        Log.println(priority, tag, msg);
+    }
+}
@@ -3,50 +3,106 @@ package ir.programmerplus.realtime.utils;
 import android.content.Context;
 import android.content.SharedPreferences;
 
+import java.io.File;
+import java.io.IOException;
+
 import ir.programmerplus.realtime.BuildConfig;
+import ir.programmerplus.realtime.models.TimeSnapshot;
 
 public abstract class CacheUtils {
 
+    private static final String TAG = CacheUtils.class.getSimpleName();
+
+    private static final String SNAPSHOT_FILE_NAME = "RealTimeSnapshot.bin";
+
+    // legacy preferences, only used to migrate data written by older versions
     private static final String SHARED_PREF_NAME = "RealTimePreference";
 
     private static final String KEY_CACHED_TIME = BuildConfig.LIBRARY_PACKAGE_NAME + ".cached_time";
     private static final String KEY_CACHED_BOOT_TIME = BuildConfig.LIBRARY_PACKAGE_NAME + ".cached_boot_time";
     private static final String KEY_CACHED_DEVICE_UPTIME = BuildConfig.LIBRARY_PACKAGE_NAME + ".cached_device_uptime";
 
-    private static SharedPreferences sharedPreferences;
+    private static Context context;
+    private static SnapshotStore snapshotStore;
 
     /**
-     * This function will initialize sharedPreferences static variable with provided context
+     * This function will initialize the context static variable. The snapshot store is created
+     * on first use, so the files directory is resolved on the background thread which reads it.
      *
      * @param context application context
      */
-    public static void initialize(Context context) {
-        if (sharedPreferences == null) {
-            sharedPreferences = context.getSharedPreferences(SHARED_PREF_NAME, Context.MODE_PRIVATE);
+    public static synchronized void initialize(Context context) {
+        if (CacheUtils.context == null) {
+            CacheUtils.context = context;
         }
     }
 
-    public static long getCachedTime() {
-        return sharedPreferences.getLong(KEY_CACHED_TIME, 0);
-    }
+    private static synchronized SnapshotStore getSnapshotStore() {
+        if (snapshotStore == null) {
+            snapshotStore = new SnapshotStore(new File(context.getFilesDir(), SNAPSHOT_FILE_NAME));
+        }
 
-    public static long getCachedDeviceUptime() {
-        return sharedPreferences.getLong(KEY_CACHED_DEVICE_UPTIME, 0);
+        return snapshotStore;
     }
 
-    public static long getCachedBootTime() {
-        return sharedPreferences.getLong(KEY_CACHED_BOOT_TIME, 0);
-    }
+    /**
+     * This function reads all cached values at once and returns them as a snapshot. If there
+     * is no snapshot on disk yet, values written by older versions are migrated.
+     *
+     * @return cached time snapshot
+     */
+    public static TimeSnapshot getCachedSnapshot() {
+        if (!getSnapshotStore().exists()) {
+            return migrateLegacyPreferences();
+        }
 
-    public static void setCachedTime(long time) {
-        sharedPreferences.edit().putLong(KEY_CACHED_TIME, time).apply();
+        TimeSnapshot snapshot = getSnapshotStore().read();
+        return snapshot == null ? TimeSnapshot.EMPTY : snapshot;
     }
 
-    public static void setCachedDeviceUptime(long deviceUptime) {
-        sharedPreferences.edit().putLong(KEY_CACHED_DEVICE_UPTIME, deviceUptime).apply();
+    /**
+     * This function returns the snapshot storage used by the sync engine. Reads migrate values
+     * written by older versions, and writes go to the snapshot store.
+     *
+     * @return snapshot storage backed by the cache
+     */
+    public static SnapshotStorage getSnapshotStorage() {
+        return new SnapshotStorage() {
+            @Override
+            public TimeSnapshot read() {
+                return getCachedSnapshot();
+            }
+
+            @Override
+            public void write(TimeSnapshot snapshot) throws IOException {
+                getSnapshotStore().write(snapshot);
+            }
+        };
     }
 
-    public static void setCachedBootTime(long bootTime) {
-        sharedPreferences.edit().putLong(KEY_CACHED_BOOT_TIME, bootTime).apply();
+    /**
+     * This function moves cached values from the legacy preferences file to the snapshot store
+     *
+     * @return migrated snapshot
+     */
+    private static TimeSnapshot migrateLegacyPreferences() {
+        SharedPreferences sharedPreferences = context.getSharedPreferences(SHARED_PREF_NAME, Context.MODE_PRIVATE);
+
+        TimeSnapshot snapshot = new TimeSnapshot(
+                sharedPreferences.getLong(KEY_CACHED_TIME, 0),
+                sharedPreferences.getLong(KEY_CACHED_BOOT_TIME, 0),
+                sharedPreferences.getLong(KEY_CACHED_DEVICE_UPTIME, 0)
+        );
+
+        try {
+            getSnapshotStore().write(snapshot);
+            sharedPreferences.edit().clear().apply();
+
+            LogUtils.d(TAG, "Cached data migrated to snapshot store.");
+        } catch (IOException e) {
+            LogUtils.w(TAG, "Couldn't migrate cached data: " + e.getMessage());
+        }
+
+        return snapshot;
     }
 }
@@ -0,0 +1,55 @@
+package ir.programmerplus.realtime.utils;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+
+import java.util.concurrent.Executor;
+
+import io.reactivex.Scheduler;
+import io.reactivex.plugins.RxJavaPlugins;
+
+public abstract class ThreadUtils {
+
+    private static final String SYNC_THREAD_NAME = "RealTime-Sync";
+
+    private static final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    /**
+     * Executor which runs tasks on the main thread
+     */
+    public static final Executor MAIN_THREAD_EXECUTOR = mainHandler::post;
+
+    /**
+     * This function creates the scheduler on which all state changes of the sync engine happen.
+     * It has a single background priority thread, so the library's work stays off the main
+     * thread and out of the frame budget.
+     *
+     * @return single threaded sync scheduler
+     */
+    public static Scheduler createSyncScheduler() {
+        return RxJavaPlugins.createSingleScheduler(runnable -> {
+            Thread thread = new Thread(() -> {
+                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                runnable.run();
+            }, SYNC_THREAD_NAME);
+
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * This function runs the task right away if it is called on the main thread, otherwise
+     * posts it to the main thread.
+     *
+     * @param task task to run
+     */
+    public static void runOnMainThread(Runnable task) {
+        if (Looper.myLooper() == Looper.getMainLooper()) {
+            task.run();
+        } else {
+            mainHandler.post(task);
+        }
+    }
+}
@@ -0,0 +1,27 @@
+package ir.programmerplus.realtime.utils;
+
+import android.os.Build;
+import android.os.SystemClock;
+
+import ir.programmerplus.realtime.clock.MonotonicClock;
+
+/**
+ * UptimeClock is the monotonic clock of the device. It counts since boot, including deep sleep,
+ * with nanosecond resolution where the API level provides it.
+ */
+public class UptimeClock implements MonotonicClock {
+
+    @Override
+    public long elapsedRealtime() {
+        return SystemClock.elapsedRealtime();
+    }
+
+    @Override
+    public long elapsedRealtimeNanos() {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR1) {
+            return SystemClock.elapsedRealtimeNanos();
+        }
+
+        return SystemClock.elapsedRealtime() * 1_000_000;
+    }
+}